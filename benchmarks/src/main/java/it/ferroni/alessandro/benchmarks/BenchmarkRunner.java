@@ -0,0 +1,36 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Runs the benchmarks with the GC profiler, so the allocation rate is reported with throughput and average time.
+ * Standard JMH options are accepted, for example: -p tradeCount=1000 StockServiceBenchmark
+ *
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLineOptions);
+		if (commandLineOptions.getIncludes().isEmpty()) {
+			builder.include(".*Benchmark.*");
+		}
+		Options options = builder.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.benchmarks;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.manager.impl.ColumnarStockTradeStoreImpl;
+import it.ferroni.alessandro.manager.impl.OffHeapStockTradeStoreImpl;
+import it.ferroni.alessandro.manager.impl.PartitionedStockTradeStoreImpl;
+import it.ferroni.alessandro.manager.impl.StockTradeStoreImpl;
+import it.ferroni.alessandro.models.StockTrade;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Trade data shared by the benchmarks. Data is generated with a fixed seed, so runs are comparable
+ *
+ */
+public class BenchmarkTrades {
+
+	public static final LocalDateTime START_DATE = LocalDateTime.of(2016, Month.OCTOBER, 31, 8, 0, 0);
+
+	//one trade every millisecond: 10^7 trades cover less than three hours
+	public static final long TRADE_INTERVAL_NANOS = 1_000_000L;
+
+	private static final long SEED = 20161031L;
+
+	/**
+	 * Gets the trade store factory for the given store name (OBJECT, COLUMNAR, OFF_HEAP or PARTITIONED)
+	 * @param store
+	 * @return
+	 */
+	public static Function<StockSymbols, StockTradeStore> storeFactory(String store) {
+		switch (store) {
+			case "OBJECT":
+				return stockSymbol -> new StockTradeStoreImpl();
+			case "COLUMNAR":
+				return ColumnarStockTradeStoreImpl::new;
+			case "OFF_HEAP":
+				return OffHeapStockTradeStoreImpl::new;
+			case "PARTITIONED":
+				return PartitionedStockTradeStoreImpl::new;
+			default:
+				throw new IllegalArgumentException("Unknown trade store " + store);
+		}
+	}
+
+	/**
+	 * Gets the first symbolCount stock symbols, registering new ones if fewer symbols are registered
+	 * @param symbolCount
+	 * @return
+	 */
+	public static StockSymbols[] symbols(int symbolCount) {
+		StockSymbols[] symbols = new StockSymbols[symbolCount];
+		for (int index = 0; index < symbolCount; index++) {
+			symbols[index] = index < StockSymbols.count() ? StockSymbols.fromId(index) : StockSymbols.register(String.format("BNC%05d", index));
+		}
+		return symbols;
+	}
+
+	/**
+	 * Generates tradeCount trades in time order, spread round robin over the given symbols
+	 * @param tradeCount
+	 * @param symbols
+	 * @return
+	 */
+	public static StockTrade[] generate(int tradeCount, StockSymbols[] symbols) {
+		SplittableRandom random = new SplittableRandom(SEED);
+		StockTrade[] trades = new StockTrade[tradeCount];
+		for (int index = 0; index < tradeCount; index++) {
+			trades[index] = trade(random, symbols[index % symbols.length], START_DATE.plusNanos(index * TRADE_INTERVAL_NANOS));
+		}
+		return trades;
+	}
+
+	/**
+	 * Generates a random trade with a price of at most 4 decimal digits
+	 * @param random
+	 * @param stockSymbol
+	 * @param timestamp
+	 * @return
+	 */
+	public static StockTrade trade(SplittableRandom random, StockSymbols stockSymbol, LocalDateTime timestamp) {
+		return new StockTrade(stockSymbol, timestamp, random.nextLong(1, 100), BigDecimal.valueOf(random.nextLong(10_000, 100_000), 4),
+				random.nextBoolean() ? TradeType.BUY : TradeType.SELL);
+	}
+
+}
@@ -0,0 +1,207 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.benchmarks;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.ferroni.alessandro.constants.NumericMode;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.manager.impl.StockManagerImpl;
+import it.ferroni.alessandro.models.CalculationResult;
+import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockRecalculation;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.service.StockService;
+import it.ferroni.alessandro.service.impl.StockServiceImpl;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Calculations of StockService over a trade history of tradeCount trades spread over symbolCount symbols.
+ * Stock prices are calculated for a window of windowMinutes in the middle of the history
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StockServiceBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class TradeHistoryState {
+
+		@Param({"1000", "100000", "10000000"})
+		public int tradeCount;
+
+		@Param({"1", "5"})
+		public int symbolCount;
+
+		@Param({"1", "15"})
+		public int windowMinutes;
+
+		@Param({"OBJECT", "COLUMNAR", "OFF_HEAP", "PARTITIONED"})
+		public String store;
+
+		@Param({"BIG_DECIMAL", "FIXED_POINT"})
+		public String numericMode;
+
+		StockService stockService;
+		StockSymbols stockSymbol;
+		List<StockTrade> stockTrades;
+		LocalDateTime startDate;
+		LocalDateTime endDate;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			StockSymbols[] symbols = BenchmarkTrades.symbols(symbolCount);
+			stockService = new StockServiceImpl(new StockManagerImpl(BenchmarkTrades.storeFactory(store)), Runtime.getRuntime().availableProcessors(),
+					NumericMode.valueOf(numericMode));
+			for (StockTrade trade: BenchmarkTrades.generate(tradeCount, symbols)) {
+				stockService.stockTradeRecord(trade);
+			}
+			stockSymbol = symbols[0];
+			stockTrades = stockService.selectStockTradeRecords().get(stockSymbol);
+
+			LocalDateTime middleDate = BenchmarkTrades.START_DATE.plusNanos(tradeCount / 2 * BenchmarkTrades.TRADE_INTERVAL_NANOS);
+			startDate = middleDate.minusSeconds(windowMinutes * 30L);
+			endDate = middleDate.plusSeconds(windowMinutes * 30L);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			stockService.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class StockTableState {
+
+		@Param({"BIG_DECIMAL", "FIXED_POINT"})
+		public String numericMode;
+
+		StockService stockService;
+		List<Stock> stockTable;
+		TreeMap<StockSymbols, BigDecimal> stockTickerPrices;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			stockService = new StockServiceImpl(new StockManagerImpl(), Runtime.getRuntime().availableProcessors(), NumericMode.valueOf(numericMode));
+			stockTable = stockService.selectStockTable();
+			stockTickerPrices = stockService.selectTickerPrices();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			stockService.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class UniverseState {
+
+		@Param({"5", "10000"})
+		public int symbolCount;
+
+		@Param({"1", "4"})
+		public int parallelism;
+
+		StockService stockService;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			StockSymbols[] symbols = BenchmarkTrades.symbols(symbolCount);
+			stockService = new StockServiceImpl(new StockManagerImpl(), parallelism);
+			for (StockTrade trade: BenchmarkTrades.generate(symbolCount * 10, symbols)) {
+				stockService.stockTradeRecord(trade);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			stockService.close();
+		}
+	}
+
+	@Benchmark
+	public BigDecimal calculateStockPrice(TradeHistoryState state) throws Exception {
+		return state.stockService.calculateStockPrice(state.stockSymbol, state.startDate, state.endDate);
+	}
+
+	@Benchmark
+	public BigDecimal calculateStockPriceFromTradeList(TradeHistoryState state) throws Exception {
+		return state.stockService.calculateStockPrice(state.stockSymbol, state.stockTrades, state.startDate, state.endDate);
+	}
+
+	@Benchmark
+	public long calculateStockPriceTicks(TradeHistoryState state) throws Exception {
+		return state.stockService.calculateStockPriceTicks(state.stockSymbol, state.startDate, state.endDate);
+	}
+
+	@Benchmark
+	public BigDecimal calculateGBCEAllShareIndex(TradeHistoryState state) throws Exception {
+		return state.stockService.calculateGBCEAllShareIndex();
+	}
+
+	@Benchmark
+	public long calculateGBCEAllShareIndexTicks(TradeHistoryState state) throws Exception {
+		return state.stockService.calculateGBCEAllShareIndexTicks();
+	}
+
+	@Benchmark
+	public BigDecimal calculateDividendYield(StockTableState state) throws Exception {
+		//GIN is the preferred stock, its yield uses fixed dividend and par value
+		Stock stock = state.stockTable.get(StockSymbols.GIN.getId());
+		return state.stockService.calculateDividendYield(stock, state.stockTickerPrices.get(stock.getStockSymbol()));
+	}
+
+	@Benchmark
+	public BigDecimal calculatePERating(StockTableState state) throws Exception {
+		Stock stock = state.stockTable.get(StockSymbols.GIN.getId());
+		BigDecimal tickerPrice = state.stockTickerPrices.get(stock.getStockSymbol());
+		return state.stockService.calculatePERating(stock, tickerPrice, state.stockService.calculateDividendYield(stock, tickerPrice));
+	}
+
+	@Benchmark
+	public String calculatePERatingMissingData(StockTableState state) {
+		//TEA pays no dividend: its P/E rating cannot be calculated
+		Stock stock = state.stockTable.get(StockSymbols.TEA.getId());
+		try {
+			return state.stockService.calculatePERating(stock, state.stockTickerPrices.get(stock.getStockSymbol()), BigDecimal.ZERO).toString();
+		}
+		catch (Exception e) {
+			return e.getMessage();
+		}
+	}
+
+	@Benchmark
+	public CalculationResult tryCalculatePERatingMissingData(StockTableState state) {
+		Stock stock = state.stockTable.get(StockSymbols.TEA.getId());
+		return state.stockService.tryCalculatePERating(stock, state.stockTickerPrices.get(stock.getStockSymbol()), BigDecimal.ZERO);
+	}
+
+	@Benchmark
+	public StockRecalculation recalculateAll(UniverseState state) {
+		return state.stockService.recalculateAll();
+	}
+
+}
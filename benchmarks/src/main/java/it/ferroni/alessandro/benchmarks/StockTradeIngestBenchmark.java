@@ -0,0 +1,184 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.ingest.StockTradeFeedDecoder;
+import it.ferroni.alessandro.ingest.StockTradeIngestPipeline;
+import it.ferroni.alessandro.ingest.WaitStrategy;
+import it.ferroni.alessandro.manager.StockManager;
+import it.ferroni.alessandro.manager.impl.StockManagerImpl;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.service.StockService;
+import it.ferroni.alessandro.service.impl.StockServiceImpl;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Trade ingestion through StockService.stockTradeRecord (validation and storage), StockManager.saveStockTrade (storage only),
+ * from one thread and from four threads, through an ingest pipeline, where the producer only fills a ring slot,
+ * and through the binary feed decoder, which saves the trade without creating a trade object. Each thread records the trades of one of the first symbolCount symbols:
+ * with fewer symbols than threads, threads share writer lanes.
+ * Timestamps come from a shared clock, so trades of a shared lane can arrive slightly out of order, as from real feeds.
+ * The engine is recreated at each iteration, so the stored history does not grow across iterations
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StockTradeIngestBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class EngineState {
+
+		@Param({"1", "5", "10000"})
+		public int symbolCount;
+
+		@Param({"OBJECT", "COLUMNAR", "OFF_HEAP"})
+		public String store;
+
+		StockSymbols[] symbols;
+		StockManager stockManager;
+		StockService stockService;
+		AtomicLong clock;
+
+		@Setup(Level.Trial)
+		public void setUpSymbols() {
+			symbols = BenchmarkTrades.symbols(symbolCount);
+		}
+
+		@Setup(Level.Iteration)
+		public void setUpEngine() {
+			stockManager = new StockManagerImpl(BenchmarkTrades.storeFactory(store));
+			stockService = new StockServiceImpl(stockManager);
+			clock = new AtomicLong();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDownEngine() {
+			stockService.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class PipelineState {
+
+		@Param({"BUSY_SPIN", "YIELD", "PARK"})
+		public String waitStrategy;
+
+		StockTradeIngestPipeline pipeline;
+
+		@Setup(Level.Iteration)
+		public void setUp(EngineState engine) {
+			pipeline = new StockTradeIngestPipeline(engine.stockManager, ConfigurationConstants.INGEST_RING_SIZE, WaitStrategy.valueOf(waitStrategy), null);
+			pipeline.start();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			pipeline.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FeedDecoderState {
+
+		StockTradeFeedDecoder decoder;
+		ByteBuffer message;
+
+		@Setup(Level.Iteration)
+		public void setUp(EngineState engine) {
+			decoder = new StockTradeFeedDecoder(engine.stockManager);
+			message = ByteBuffer.allocateDirect(StockTradeFeedDecoder.MESSAGE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FeedState {
+
+		SplittableRandom random;
+		StockSymbols stockSymbol;
+
+		@Setup(Level.Trial)
+		public void setUp(EngineState engine, ThreadParams threadParams) {
+			random = new SplittableRandom(threadParams.getThreadIndex());
+			stockSymbol = engine.symbols[threadParams.getThreadIndex() % engine.symbols.length];
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void stockTradeRecord(EngineState engine, FeedState feed) throws Exception {
+		engine.stockService.stockTradeRecord(BenchmarkTrades.trade(feed.random, feed.stockSymbol, nextTimestamp(engine)));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void stockTradeRecordMultiThread(EngineState engine, FeedState feed) throws Exception {
+		engine.stockService.stockTradeRecord(BenchmarkTrades.trade(feed.random, feed.stockSymbol, nextTimestamp(engine)));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void saveStockTrade(EngineState engine, FeedState feed) {
+		engine.stockManager.saveStockTrade(BenchmarkTrades.trade(feed.random, feed.stockSymbol, nextTimestamp(engine)));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void saveStockTradeMultiThread(EngineState engine, FeedState feed) {
+		engine.stockManager.saveStockTrade(BenchmarkTrades.trade(feed.random, feed.stockSymbol, nextTimestamp(engine)));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void publishStockTrade(EngineState engine, PipelineState pipeline, FeedState feed) throws InterruptedException {
+		StockTrade trade = BenchmarkTrades.trade(feed.random, feed.stockSymbol, nextTimestamp(engine));
+		pipeline.pipeline.publish(trade.getStockSymbol(), trade.getTimestamp(), trade.getQuantity().longValue(), trade.getPrice(), trade.getType());
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int decodeStockTradeMessage(EngineState engine, FeedDecoderState decoder, FeedState feed) {
+		ByteBuffer message = decoder.message;
+		message.clear();
+		StockTradeFeedDecoder.encode(message, feed.stockSymbol, StockUtils.toEpochNanos(BenchmarkTrades.START_DATE) + engine.clock.getAndIncrement() * 1000L,
+				feed.random.nextLong(1, 100), feed.random.nextLong(10_000_000L, 100_000_000L), feed.random.nextBoolean() ? TradeType.BUY : TradeType.SELL);
+		message.flip();
+		return decoder.decoder.decode(message);
+	}
+
+	private static LocalDateTime nextTimestamp(EngineState engine) {
+		return BenchmarkTrades.START_DATE.plusNanos(engine.clock.getAndIncrement() * 1000L);
+	}
+
+}
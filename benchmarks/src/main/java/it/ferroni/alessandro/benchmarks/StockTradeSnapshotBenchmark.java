@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.manager.StockManager;
+import it.ferroni.alessandro.manager.impl.StockManagerImpl;
+import it.ferroni.alessandro.models.StockTrade;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Export of a trade history of tradeCount trades to a columnar snapshot file and import of the file into a new manager.
+ * The snapshot file is written once per trial for the import benchmark
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StockTradeSnapshotBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SnapshotState {
+
+		@Param({"100000", "10000000"})
+		public int tradeCount;
+
+		@Param({"OBJECT", "COLUMNAR"})
+		public String store;
+
+		StockManager stockManager;
+		Path exportFile;
+		Path importFile;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			StockSymbols[] symbols = BenchmarkTrades.symbols(5);
+			stockManager = new StockManagerImpl(BenchmarkTrades.storeFactory(store));
+			for (StockTrade trade: BenchmarkTrades.generate(tradeCount, symbols)) {
+				stockManager.saveStockTrade(trade);
+			}
+			exportFile = Files.createTempFile("export", ".snapshot");
+			importFile = Files.createTempFile("import", ".snapshot");
+			stockManager.exportStockTradeSnapshot(importFile);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			Files.deleteIfExists(exportFile);
+			Files.deleteIfExists(importFile);
+		}
+	}
+
+	@Benchmark
+	public long exportStockTradeSnapshot(SnapshotState state) throws IOException {
+		return state.stockManager.exportStockTradeSnapshot(state.exportFile);
+	}
+
+	@Benchmark
+	public long importStockTradeSnapshot(SnapshotState state) throws IOException {
+		return new StockManagerImpl(BenchmarkTrades.storeFactory(state.store)).importStockTradeSnapshot(state.importFile);
+	}
+
+}
@@ -3,18 +3,27 @@
  */
 package it.ferroni.alessandro;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import it.ferroni.alessandro.constants.ConfigurationConstants;
 import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.models.CalculationResult;
 import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockMetrics;
+import it.ferroni.alessandro.models.StockMetricsSnapshot;
+import it.ferroni.alessandro.models.StockRecalculation;
 import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.models.StockTradeBatchResult;
+import it.ferroni.alessandro.server.StockServiceServer;
 import it.ferroni.alessandro.service.StockService;
 import it.ferroni.alessandro.service.impl.StockServiceImpl;
 import it.ferroni.alessandro.utils.StockUtils;
@@ -30,13 +39,17 @@ public class SuperSimpleStocks {
 	private StockService stockService;
 
 	/**
-	 * @param args
+	 * @param args "server [port]" keeps the stock service running behind a local server after the batch, until the process is stopped
 	 */
 	public static void main(String[] args) {
 		
 		try {
-			SuperSimpleStocks.class.newInstance().run();
-		} catch (InstantiationException | IllegalAccessException e) {
+			SuperSimpleStocks superSimpleStocks = SuperSimpleStocks.class.newInstance();
+			superSimpleStocks.run();
+			if (args.length > 0 && "server".equals(args[0])) {
+				superSimpleStocks.serve(args.length > 1 ? Integer.parseInt(args[1]) : ConfigurationConstants.SERVER_PORT);
+			}
+		} catch (InstantiationException | IllegalAccessException | IOException e) {
 			e.printStackTrace();
 		}
 	}
@@ -55,6 +68,8 @@ public class SuperSimpleStocks {
 		recordTrades();
 		calculateStockPrices();
 		calculateGBCEAllShareIndex();
+		recalculateAll();
+		logServiceMonitor();
 	}
 	
 	/**
@@ -62,23 +77,15 @@ public class SuperSimpleStocks {
 	 */
 	public void calculateDividentYield() {
 		LOGGER.info("\nCALCULATING DIVIDEND YIELD");
-		//load stockTable form manager
-		List<Stock> stockTable = stockService.selectStockTable();
-		
-		//load ticker price
-		TreeMap<StockSymbols, BigDecimal> stockTickerPrices = stockService.selectTickerPrices();
+		//only the stocks whose ticker price or dividend data changed are recalculated
+		StockMetricsSnapshot stockMetrics = stockService.refreshStockMetrics();
 		
-		for (Stock stock: stockTable) {
-			try {
-				BigDecimal tickerPrice =  stockTickerPrices.get(stock.getStockSymbol());
-				BigDecimal dividendYield = stockService.calculateDividendYield(stock, tickerPrice);
-				
-				//save and print dividend yields
-				LOGGER.info("Dividend Yield for stock " + stock.getStockSymbol() + " is " + dividendYield);
-				stockService.saveDividendYield(stock.getStockSymbol(), dividendYield);
+		for (StockMetrics metrics: stockMetrics.values()) {
+			if (metrics.getDividendYield() != null) {
+				LOGGER.info("Dividend Yield for stock " + metrics.getStockSymbol() + " is " + metrics.getDividendYield());
 			}
-			catch (Exception e) {
-				LOGGER.severe(e.getMessage());
+			else {
+				LOGGER.severe(metrics.getDividendYieldError());
 			}
 		}
 	}
@@ -88,30 +95,14 @@ public class SuperSimpleStocks {
 	 */
 	public void calculatePERating() {
 		LOGGER.info("\nCALCULATING PE RATING");
+		StockMetricsSnapshot stockMetrics = stockService.refreshStockMetrics();
 		
-		//load stockTable form DB. 
-		List<Stock> stockTable = stockService.selectStockTable();
-		
-		//load the dividend yield data 
-		TreeMap<StockSymbols, BigDecimal> dividendYieldMap = stockService.selectDividendYield();
-		
-		//load stock ticker prices
-		TreeMap<StockSymbols, BigDecimal> stockTickerPrices = stockService.selectTickerPrices();
-		
-		BigDecimal pe_rating;
-		
-		for (Stock stock: stockTable) {
-			try {
-				BigDecimal tickerPrice = stockTickerPrices.get(stock.getStockSymbol());
-				BigDecimal dividendYield = dividendYieldMap.get(stock.getStockSymbol());
-				pe_rating = stockService.calculatePERating(stock, tickerPrice, dividendYield);
-				//save and print pe rating value
-				
-				LOGGER.info("PE Rating for stock " + stock.getStockSymbol() + " is " + pe_rating);
-				stockService.saveStockPERating(stock.getStockSymbol(), pe_rating);
+		for (StockMetrics metrics: stockMetrics.values()) {
+			if (metrics.getPERating() != null) {
+				LOGGER.info("PE Rating for stock " + metrics.getStockSymbol() + " is " + metrics.getPERating());
 			}
-			catch (Exception e) {
-				LOGGER.severe(e.getMessage());
+			else {
+				LOGGER.severe(metrics.getPERatingError());
 			}
 		}
 	}
@@ -129,16 +120,17 @@ public class SuperSimpleStocks {
 			LOGGER.info("Recording trades for stock " + stockSymbol.toString());
 			specificDate = LocalDateTime.of(2016, Month.OCTOBER, 31, ConfigurationConstants.START_TRADE_RECORDS_HOUR, 0, 00);
 			
+			List<StockTrade> trades = new ArrayList<>(ConfigurationConstants.NUMBER_OF_TRADE_SIMULATIONS);
 			for (int tradenumber = 0; tradenumber < ConfigurationConstants.NUMBER_OF_TRADE_SIMULATIONS; tradenumber++) {
 				specificDate = specificDate.plusMinutes(StockUtils.getNextTradeRecord());
-				StockTrade trade = new StockTrade(stockSymbol, specificDate, StockUtils.getRandomQuantity(), StockUtils.getRandomPrice(), StockUtils.getRandomTradeType());
-				
-				try {
-					stockService.stockTradeRecord(trade);
-					LOGGER.config("Trade record saved for stock " + trade);
-				} catch (Exception e) {
-					LOGGER.severe("Unable to record the trade for stock " + stockSymbol.toString());
-				}
+				trades.add(new StockTrade(stockSymbol, specificDate, StockUtils.getRandomQuantity(), StockUtils.getRandomPrice(), StockUtils.getRandomTradeType()));
+			}
+			
+			//all the trades of the stock are recorded in a single batch
+			StockTradeBatchResult result = stockService.stockTradeRecords(trades);
+			LOGGER.config(result.getAcceptedCount() + " trade records saved for stock " + stockSymbol);
+			if (!result.isAllAccepted()) {
+				LOGGER.severe("Unable to record " + result.getRejectedCount() + " trades for stock " + stockSymbol.toString());
 			}
 		}
 	}
@@ -154,18 +146,22 @@ public class SuperSimpleStocks {
 		LocalDateTime endDate = startDate.plusMinutes(15);
 		LOGGER.config("Considering trade records between " + startDate + " and " + endDate);
 		
-		//load stock trades
-		TreeMap<StockSymbols, List<StockTrade>> stockTradeRecordsMap = stockService.selectStockTradeRecords();
-		
-		for (StockSymbols stockSymbol: stockTradeRecordsMap.keySet()) {
+		for (StockSymbols stockSymbol: StockSymbols.values()) {
 			LOGGER.config("Calculating stock price for stock " + stockSymbol);
 			
-			//retrieve all trade recorded in the given range
-			List<StockTrade> traderecords = stockTradeRecordsMap.get(stockSymbol);
+			//price is calculated from the running sums of the trades recorded in the given range.
+			//Symbols without trades are reported by status, without exceptions
+			CalculationResult price = stockService.tryCalculateStockPrice(stockSymbol, startDate, endDate);
+			if (!price.isOk()) {
+				LOGGER.severe("Unable to calculate stock price for stock " + stockSymbol + ": " + price.getStatus().getMessage());
+				continue;
+			}
+			LOGGER.info("Stock price for stock " + stockSymbol + " is " + price.getValue());
 			
 			try {
-				BigDecimal price = stockService.calculateStockPrice(stockSymbol, traderecords, startDate, endDate);
-				LOGGER.info("Stock price for stock " + stockSymbol + " is " + price);
+				//current price of the last 15 minutes of trading, kept while the trades are recorded
+				LOGGER.info("Current stock price for stock " + stockSymbol + " is " + stockService.currentStockPrice(stockSymbol));
+				LOGGER.info("Current order flow imbalance for stock " + stockSymbol + " is " + stockService.currentStockOrderFlow(stockSymbol).getVolumeImbalance());
 			} catch (Exception e) {
 				LOGGER.severe("Unable to calculate stock price for stock " + stockSymbol + ": " + e.getMessage());
 			}
@@ -186,4 +182,38 @@ public class SuperSimpleStocks {
 		}
 	}
 	
+	/**
+	 * Recalculates all the stock metrics, prices and the GBCE All Share Index in parallel
+	 */
+	public void recalculateAll() {
+		LOGGER.info("\nRecalculating all stocks");
+		
+		StockRecalculation recalculation = stockService.recalculateAll();
+		for (Stock stock: stockService.selectStockTable()) {
+			StockMetrics metrics = recalculation.getStockMetrics(stock.getStockSymbol());
+			LOGGER.info("Stock " + stock.getStockSymbol() + ": dividend yield " + metrics.getDividendYield() + ", P/E rating " + metrics.getPERating()
+					+ ", current price " + recalculation.getStockPrice(stock.getStockSymbol()));
+		}
+		LOGGER.info("GBCE All Share Index is " + recalculation.getGBCEAllShareIndex());
+	}
+	
+	/**
+	 * Serves the stock service on the loopback address until the process is stopped
+	 * @param port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public void serve(int port) throws IOException {
+		StockServiceServer server = new StockServiceServer(stockService, new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				StockServiceServer.newRequestExecutor());
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close, "stock-server-shutdown"));
+		server.start();
+	}
+	
+	/**
+	 * Logs the counters and latencies recorded by the stock service
+	 */
+	public void logServiceMonitor() {
+		LOGGER.info("\nStock service monitor\n" + stockService.getStockServiceMonitor().getSnapshot());
+	}
+	
 }
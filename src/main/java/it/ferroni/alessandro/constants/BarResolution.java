@@ -0,0 +1,29 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.constants;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Time resolutions of the OHLCV bars. Bars start at multiples of their width from the epoch (UTC)
+ *
+ */
+public enum BarResolution {
+	ONE_SECOND(1),
+	ONE_MINUTE(60),
+	FIVE_MINUTES(300);
+
+	private final long seconds;
+
+	private BarResolution(long seconds) {
+		this.seconds = seconds;
+	}
+
+	/**
+	 * @return the width of a bar in seconds
+	 */
+	public long getSeconds() {
+		return seconds;
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.constants;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Outcome of a calculation of the stock service: OK, or the reason why the value cannot be calculated
+ *
+ */
+public enum CalculationStatus {
+	OK(null),
+	MISSING_TICKER_PRICE("Ticker price is null"),
+	ZERO_TICKER_PRICE("Ticker price is 0"),
+	MISSING_LAST_DIVIDEND("Last Dividend is null"),
+	MISSING_FIXED_DIVIDEND("Fixed Dividend is null"),
+	MISSING_PAR_VALUE("Par Value is null"),
+	INVALID_STOCK_TYPE("Stock type is an invalid value"),
+	MISSING_DIVIDEND_YIELD("Dividend Yield is null"),
+	ZERO_DIVIDEND_YIELD("Dividend Yield is 0"),
+	MISSING_SYMBOL("Stock Symbol must be specified"),
+	MISSING_TRADES("Stock Trades list must be specified"),
+	SYMBOL_MISMATCH("Stock Trade Symbol is not equal to the given Stock Symbol");
+
+	private final String message;
+
+	private CalculationStatus(String message) {
+		this.message = message;
+	}
+
+	/**
+	 * @return the reason the value cannot be calculated, null if the status is OK
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @param calculation name of the calculated value
+	 * @param stockSymbol
+	 * @return the reason the value cannot be calculated for the given stock, null if the status is OK
+	 */
+	public String getMessage(String calculation, StockSymbols stockSymbol) {
+		return message == null ? null : "Cannot calculate " + calculation + " for stock " + stockSymbol + ": " + message;
+	}
+}
@@ -18,5 +18,50 @@ public interface ConfigurationConstants {
 	public int START_TRADE_RECORDS_HOUR = 10;
 	
 	public int NUMBER_OF_TRADE_SIMULATIONS = 50;
+	
+	//width of the time buckets used to keep running stock price sums
+	public long TRADE_BUCKET_SECONDS = 1;
+	
+	//default width of the sliding window of the current stock price
+	public long STOCK_PRICE_WINDOW_SECONDS = 15 * 60;
+	
+	//number of completed OHLCV bars kept for each stock symbol and resolution
+	public int STOCK_BAR_HISTORY_SIZE = 1024;
+	
+	//number of decimal digits of fixed-point prices: a price tick is 10^-PRICE_SCALE
+	public int PRICE_SCALE = 7;
+	
+	//arithmetic of the stock service calculations
+	public NumericMode NUMERIC_MODE = NumericMode.BIG_DECIMAL;
+	
+	//number of trade records in the first memory mapped region of a trade journal, a power of two: each next region doubles it
+	public int JOURNAL_INITIAL_REGION_RECORDS = 1 << 10;
+	
+	//maximum number of trade records in a memory mapped region of a trade journal, a power of two
+	public int JOURNAL_REGION_RECORDS = 1 << 20;
+	
+	//maximum number of trade records in each direct buffer chunk of an off-heap trade store, a power of two: a late trade copies one chunk
+	public int OFF_HEAP_CHUNK_RECORDS = 1 << 12;
+	
+	//number of retired direct buffer chunks an off-heap trade store keeps for reuse
+	public int OFF_HEAP_FREE_CHUNKS = 4;
+	
+	//width of the time partitions of a partitioned trade history, a trading day by default
+	public long TRADE_PARTITION_SECONDS = 24 * 60 * 60;
+	
+	//number of time partitions kept by a partitioned trade history, the current one included; 0 keeps all of them
+	public int TRADE_RETENTION_PARTITIONS = 30;
+	
+	//number of trade slots in the ring buffer of an ingest pipeline, a power of two
+	public int INGEST_RING_SIZE = 1 << 14;
+	
+	//local port of the stock service server
+	public int SERVER_PORT = 8090;
+	
+	//number of pending connections queued by the stock service server
+	public int SERVER_BACKLOG = 4096;
+	
+	//number of request threads of the stock service server on JDKs without virtual threads
+	public int SERVER_THREADS = 64;
 
 }
@@ -0,0 +1,17 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.constants;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Arithmetic of the stock service calculations. Both modes give the same scale 7, HALF_EVEN results:
+ * FIXED_POINT works on prices and dividends scaled to longs of 10^-PRICE_SCALE, with 128-bit intermediate products,
+ * and falls back to BigDecimal for the values that have more decimal digits than a price tick
+ *
+ */
+public enum NumericMode {
+	BIG_DECIMAL,
+	FIXED_POINT
+}
@@ -1,12 +1,142 @@
 /**
- * 
+ *
  */
 package it.ferroni.alessandro.constants;
 
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * @author Alessandro
  *
+ * Registry of the traded stock symbols. Symbols are interned: each symbol string is registered once
+ * and gets a dense id, in registration order, so per-symbol data can be kept in arrays indexed by id.
+ * TEA, POP, ALE, GIN and JOE are always registered, with ids 0 to 4.
+ * Symbols are ordered by id and can be compared by reference
+ *
  */
-public enum StockSymbols {
-	TEA, POP, ALE, GIN, JOE
+public final class StockSymbols implements Comparable<StockSymbols>, Serializable {
+	private static final long serialVersionUID = -3155226302839046620L;
+
+	private static final ConcurrentHashMap<String, StockSymbols> SYMBOLS_BY_NAME = new ConcurrentHashMap<>();
+	//registered symbols by id: writes are synchronized on the name map, the array is replaced when full
+	private static volatile StockSymbols[] symbolsById = new StockSymbols[16];
+	private static volatile int symbolCount = 0;
+
+	public static final StockSymbols TEA = register("TEA");
+	public static final StockSymbols POP = register("POP");
+	public static final StockSymbols ALE = register("ALE");
+	public static final StockSymbols GIN = register("GIN");
+	public static final StockSymbols JOE = register("JOE");
+
+	private final String name;
+	private final int id;
+
+	private StockSymbols(String name, int id) {
+		this.name = name;
+		this.id = id;
+	}
+
+	/**
+	 * Registers the given symbol, if it is not registered yet
+	 * @param name
+	 * @return the registered symbol
+	 */
+	public static StockSymbols register(String name) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("Stock symbol cannot be empty");
+		}
+		StockSymbols stockSymbol = SYMBOLS_BY_NAME.get(name);
+		if (stockSymbol != null) {
+			return stockSymbol;
+		}
+		synchronized (SYMBOLS_BY_NAME) {
+			stockSymbol = SYMBOLS_BY_NAME.get(name);
+			if (stockSymbol == null) {
+				int id = symbolCount;
+				StockSymbols[] symbols = symbolsById;
+				if (id == symbols.length) {
+					symbols = Arrays.copyOf(symbols, id * 2);
+				}
+				stockSymbol = new StockSymbols(name, id);
+				symbols[id] = stockSymbol;
+				symbolsById = symbols;
+				symbolCount = id + 1;
+				SYMBOLS_BY_NAME.put(name, stockSymbol);
+			}
+			return stockSymbol;
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return the registered symbol with the given name
+	 * @throws IllegalArgumentException if the symbol is not registered
+	 */
+	public static StockSymbols valueOf(String name) {
+		StockSymbols stockSymbol = name == null ? null : SYMBOLS_BY_NAME.get(name);
+		if (stockSymbol == null) {
+			throw new IllegalArgumentException("Stock symbol " + name + " is not registered");
+		}
+		return stockSymbol;
+	}
+
+	/**
+	 * @param id
+	 * @return the registered symbol with the given id
+	 * @throws IllegalArgumentException if no symbol has the given id
+	 */
+	public static StockSymbols fromId(int id) {
+		//the count is read before the array, so the array has at least count symbols
+		int count = symbolCount;
+		if (id < 0 || id >= count) {
+			throw new IllegalArgumentException("No stock symbol has id " + id);
+		}
+		return symbolsById[id];
+	}
+
+	/**
+	 * @return the number of registered symbols. Ids are lower than this number
+	 */
+	public static int count() {
+		return symbolCount;
+	}
+
+	/**
+	 * @return all the registered symbols, ordered by id
+	 */
+	public static StockSymbols[] values() {
+		int count = symbolCount;
+		return Arrays.copyOf(symbolsById, count);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public int compareTo(StockSymbols other) {
+		return Integer.compare(id, other.id);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Deserialized symbols are registered, so they are the same instances of this process
+	 * @return
+	 * @throws ObjectStreamException
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		return register(name);
+	}
+
 }
@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.constants;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Reasons why a trade record is not valid and cannot be recorded
+ *
+ */
+public enum TradeRejectReason {
+	NULL_RECORD("Trade record must not be null"),
+	MISSING_SYMBOL("Stock symbol must be specified"),
+	INVALID_PRICE("Trade price must be a valid value (not null, greater than zero and within the range of the price ticks)"),
+	INVALID_QUANTITY("Trade quantity must be a valid value (not null and greater than zero)"),
+	MISSING_TIMESTAMP("Trade timestamp must be specified"),
+	INVALID_TYPE("Trade type must be a valid value (" + TradeType.BUY + " or " + TradeType.SELL + ")"),
+	RECORD_FAILED("Trade could not be recorded");
+
+	private final String message;
+
+	private TradeRejectReason(String message) {
+		this.message = message;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.ingest;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeRejectReason;
+import it.ferroni.alessandro.constants.TradeType;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Slot of the ring buffer of an ingest pipeline: the trade being ingested and the reason it was rejected.
+ * Slots are allocated once and overwritten by the producers, so handlers must not keep them
+ *
+ */
+public class StockTradeEvent {
+
+	private StockSymbols stockSymbol;
+	private LocalDateTime timestamp;
+	private long quantity;
+	private BigDecimal price;
+	private TradeType type;
+	private TradeRejectReason rejectReason;
+
+	StockTradeEvent() {
+	}
+
+	void set(StockSymbols stockSymbol, LocalDateTime timestamp, long quantity, BigDecimal price, TradeType type) {
+		this.stockSymbol = stockSymbol;
+		this.timestamp = timestamp;
+		this.quantity = quantity;
+		this.price = price;
+		this.type = type;
+		this.rejectReason = null;
+	}
+
+	void setRejectReason(TradeRejectReason rejectReason) {
+		this.rejectReason = rejectReason;
+	}
+
+
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	public LocalDateTime getTimestamp() {
+		return timestamp;
+	}
+
+	public long getQuantity() {
+		return quantity;
+	}
+
+	public BigDecimal getPrice() {
+		return price;
+	}
+
+	public TradeType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the reason the trade was not recorded, null if it was
+	 */
+	public TradeRejectReason getRejectReason() {
+		return rejectReason;
+	}
+
+	@Override
+	public String toString() {
+		return "StockTradeEvent [stockSymbol=" + stockSymbol + ", timestamp=" + timestamp + ", quantity=" + quantity + ", price=" + price
+				+ ", type=" + type + ", rejectReason=" + rejectReason + "]";
+	}
+
+}
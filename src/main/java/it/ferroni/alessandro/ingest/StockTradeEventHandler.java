@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.ingest;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Last stage of an ingest pipeline: receives every published trade, in sequence order, after it has been recorded or rejected.
+ * The handler runs on the pipeline thread of its stage and the event is reused once it returns
+ *
+ */
+public interface StockTradeEventHandler {
+
+	/**
+	 * @param event
+	 * @param sequence sequence number of the event, starting from 0
+	 * @param endOfBatch true if no other events are available now: a handler can flush its output
+	 */
+	public void onStockTradeEvent(StockTradeEvent event, long sequence, boolean endOfBatch);
+
+}
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockManager;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Decoder of the binary trade feed of the exchange gateway. The feed is a stream of fixed-layout little-endian messages:
+ * <pre>
+ * offset  0  int   symbol id, as registered in StockSymbols
+ * offset  4  int   side, the TradeType ordinal
+ * offset  8  long  timestamp, epoch-nanos
+ * offset 16  long  quantity
+ * offset 24  long  price ticks, 10^-PRICE_SCALE
+ * </pre>
+ * Fields are decoded in place from the buffer and the trades are saved as primitive values, so no trade object is
+ * created for each message. Channels are read into a direct buffer, and replayed files are memory mapped,
+ * so the bytes are not copied to the heap. Invalid messages are counted and skipped.
+ * A decoder is used by one thread at a time
+ *
+ */
+public class StockTradeFeedDecoder {
+
+	public static final int MESSAGE_LENGTH = 32;
+
+	private static final int SYMBOL_OFFSET = 0;
+	private static final int SIDE_OFFSET = 4;
+	private static final int TIMESTAMP_OFFSET = 8;
+	private static final int QUANTITY_OFFSET = 16;
+	private static final int PRICE_OFFSET = 24;
+
+	//number of messages read from a channel at a time
+	private static final int BUFFER_MESSAGES = 1 << 12;
+	//number of messages of each memory mapped region of a replayed file
+	private static final int REPLAY_REGION_MESSAGES = 1 << 20;
+
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	private final StockManager stockManager;
+	private final ByteBuffer buffer;
+
+	private long decodedCount;
+	private long rejectedCount;
+
+	/**
+	 * @param stockManager manager saving the decoded trades
+	 */
+	public StockTradeFeedDecoder(StockManager stockManager) {
+		this.stockManager = stockManager;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_MESSAGES * MESSAGE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Decodes the messages of a channel until the end of the stream
+	 * @param channel a blocking channel, like a SocketChannel of the gateway or a FileChannel
+	 * @return the number of messages decoded, rejected ones included
+	 * @throws IOException if the channel fails or the stream ends in the middle of a message
+	 */
+	public long decode(ReadableByteChannel channel) throws IOException {
+		long count = 0;
+		buffer.clear();
+		while (channel.read(buffer) >= 0) {
+			buffer.flip();
+			count += decode(buffer);
+			//a partial message is moved to the start of the buffer and completed by the next read
+			buffer.compact();
+		}
+		if (buffer.position() > 0) {
+			throw new IOException("Trade feed ended in the middle of a message");
+		}
+		return count;
+	}
+
+	/**
+	 * Replays a file of feed messages, mapping it in regions
+	 * @param file
+	 * @return the number of messages decoded, rejected ones included
+	 * @throws IOException if the file cannot be read or does not hold whole messages
+	 */
+	public long replay(Path file) throws IOException {
+		long count = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size % MESSAGE_LENGTH != 0) {
+				throw new IOException("Trade feed file " + file + " does not hold whole messages");
+			}
+			for (long position = 0; position < size; position += (long) REPLAY_REGION_MESSAGES * MESSAGE_LENGTH) {
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min((long) REPLAY_REGION_MESSAGES * MESSAGE_LENGTH, size - position));
+				region.order(ByteOrder.LITTLE_ENDIAN);
+				count += decode(region);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes the whole messages between the position and the limit of a buffer, leaving the position after the last one
+	 * @param messages a little-endian buffer
+	 * @return the number of messages decoded, rejected ones included
+	 */
+	public int decode(ByteBuffer messages) {
+		int count = 0;
+		int position = messages.position();
+		int limit = messages.limit() - MESSAGE_LENGTH;
+		for (; position <= limit; position += MESSAGE_LENGTH) {
+			int symbolId = messages.getInt(position + SYMBOL_OFFSET);
+			int side = messages.getInt(position + SIDE_OFFSET);
+			long timestamp = messages.getLong(position + TIMESTAMP_OFFSET);
+			long quantity = messages.getLong(position + QUANTITY_OFFSET);
+			long priceTicks = messages.getLong(position + PRICE_OFFSET);
+			if (symbolId < 0 || symbolId >= StockSymbols.count() || side < 0 || side >= TRADE_TYPES.length || quantity <= 0 || priceTicks <= 0) {
+				rejectedCount++;
+			}
+			else {
+				stockManager.saveStockTrade(StockSymbols.fromId(symbolId), timestamp, quantity, priceTicks, TRADE_TYPES[side]);
+			}
+			count++;
+		}
+		messages.position(position);
+		decodedCount += count;
+		return count;
+	}
+
+	/**
+	 * Encodes a trade message at the position of a buffer, as the gateway does
+	 * @param messages a little-endian buffer
+	 * @param stockSymbol
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param type
+	 */
+	public static void encode(ByteBuffer messages, StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, TradeType type) {
+		messages.putInt(stockSymbol.getId());
+		messages.putInt(type.ordinal());
+		messages.putLong(timestamp);
+		messages.putLong(quantity);
+		messages.putLong(priceTicks);
+	}
+
+	/**
+	 * @return the number of messages decoded, rejected ones included
+	 */
+	public long getDecodedCount() {
+		return decodedCount;
+	}
+
+	/**
+	 * @return the number of invalid messages skipped
+	 */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+}
@@ -0,0 +1,315 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.ingest;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeRejectReason;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockManager;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Ingest pipeline in front of a stock manager: producers publish trades into a preallocated ring of slots
+ * and return, while a thread for each stage processes them in sequence order: validate, record, notify.
+ * Recording adds the trade to the store and to the running sums of its symbol in one step, under the lane lock,
+ * so queries never see a stored trade missing from the sums. Trades are recorded as primitive values, with the price
+ * rounded HALF_EVEN to ticks; a trade that cannot be recorded is rejected with RECORD_FAILED.
+ * Every stage sequence is written by its own thread only, and a stage processes a slot only after the previous stage
+ * released it; producers reuse a slot only after the last stage released it. When the ring is full tryPublish fails,
+ * so a slow consumer pushes back on the feed instead of growing a queue.
+ * The pipeline allocates no trade objects: only the store keeps a record, if it stores objects
+ *
+ */
+public class StockTradeIngestPipeline implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(StockTradeIngestPipeline.class.getName());
+
+	private static final String[] STAGE_NAMES = { "validate", "record", "notify" };
+	private static final int VALIDATE_STAGE = 0;
+	private static final int RECORD_STAGE = 1;
+	private static final int NOTIFY_STAGE = 2;
+	private static final int LAST_STAGE = NOTIFY_STAGE;
+
+	//stage sequences are this number of longs apart, so each one is on its own cache line
+	private static final int SEQUENCE_PADDING = 16;
+
+	private final StockManager stockManager;
+	private final StockTradeEventHandler stockTradeEventHandler;
+	private final WaitStrategy waitStrategy;
+	private final StockTradeEvent[] ring;
+	private final int mask;
+
+	//sequence of the last published slot, written by the producers holding the pipeline lock
+	private final AtomicLong publishedSequence;
+	//sequence of the last slot processed by each stage
+	private final AtomicLongArray stageSequences;
+	private final Thread[] stageThreads;
+
+	private final AtomicLong rejectedCount;
+	private final AtomicLong backPressureCount;
+	private volatile boolean started;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a pipeline with ConfigurationConstants.INGEST_RING_SIZE slots and the PARK wait strategy
+	 * @param stockManager manager recording the trades
+	 * @param stockTradeEventHandler receives the trades once recorded or rejected, can be null
+	 */
+	public StockTradeIngestPipeline(StockManager stockManager, StockTradeEventHandler stockTradeEventHandler) {
+		this(stockManager, ConfigurationConstants.INGEST_RING_SIZE, WaitStrategy.PARK, stockTradeEventHandler);
+	}
+
+	/**
+	 * @param stockManager manager recording the trades
+	 * @param ringSize number of slots, a power of two
+	 * @param waitStrategy
+	 * @param stockTradeEventHandler receives the trades once recorded or rejected, can be null
+	 */
+	public StockTradeIngestPipeline(StockManager stockManager, int ringSize, WaitStrategy waitStrategy, StockTradeEventHandler stockTradeEventHandler) {
+		if (ringSize < 1 || Integer.bitCount(ringSize) != 1) {
+			throw new IllegalArgumentException("Ring size must be a power of two");
+		}
+		this.stockManager = stockManager;
+		this.stockTradeEventHandler = stockTradeEventHandler;
+		this.waitStrategy = waitStrategy;
+		this.ring = new StockTradeEvent[ringSize];
+		for (int index = 0; index < ringSize; index++) {
+			ring[index] = new StockTradeEvent();
+		}
+		this.mask = ringSize - 1;
+		this.publishedSequence = new AtomicLong(-1);
+		this.stageSequences = new AtomicLongArray(STAGE_NAMES.length * SEQUENCE_PADDING);
+		this.stageThreads = new Thread[STAGE_NAMES.length];
+		for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+			stageSequences.set(stage * SEQUENCE_PADDING, -1);
+			int threadStage = stage;
+			stageThreads[stage] = new Thread(() -> runStage(threadStage), "stock-ingest-" + STAGE_NAMES[stage]);
+			stageThreads[stage].setDaemon(true);
+		}
+		this.rejectedCount = new AtomicLong();
+		this.backPressureCount = new AtomicLong();
+	}
+
+	/**
+	 * Starts the stage threads. Trades published before are kept in the ring
+	 */
+	public synchronized void start() {
+		if (started) {
+			throw new IllegalStateException("Ingest pipeline already started");
+		}
+		started = true;
+		for (Thread stageThread: stageThreads) {
+			stageThread.start();
+		}
+	}
+
+	/**
+	 * Publishes a trade if there is a free slot
+	 * @param stockSymbol
+	 * @param timestamp
+	 * @param quantity
+	 * @param price
+	 * @param type
+	 * @return false if the ring is full: the trade has not been published
+	 */
+	public synchronized boolean tryPublish(StockSymbols stockSymbol, LocalDateTime timestamp, long quantity, BigDecimal price, TradeType type) {
+		if (closed) {
+			throw new IllegalStateException("Ingest pipeline is closed");
+		}
+		long sequence = publishedSequence.get() + 1;
+		if (sequence - ring.length > getStageSequence(LAST_STAGE)) {
+			backPressureCount.incrementAndGet();
+			return false;
+		}
+		ring[(int) sequence & mask].set(stockSymbol, timestamp, quantity, price, type);
+		//the slot is written before the sequence is released to the stages
+		publishedSequence.lazySet(sequence);
+		return true;
+	}
+
+	/**
+	 * Publishes a trade, waiting with the wait strategy of the pipeline while the ring is full
+	 * @param stockSymbol
+	 * @param timestamp
+	 * @param quantity
+	 * @param price
+	 * @param type
+	 * @throws InterruptedException
+	 */
+	public void publish(StockSymbols stockSymbol, LocalDateTime timestamp, long quantity, BigDecimal price, TradeType type) throws InterruptedException {
+		int idleCount = 0;
+		while (!tryPublish(stockSymbol, timestamp, quantity, price, type)) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waitStrategy.idle(idleCount++);
+		}
+	}
+
+	/**
+	 * Stops accepting trades, waits until the stages have processed all the published ones and stops the stage threads.
+	 * The wait is not interrupted, so no published trade is lost: the interrupt status of the caller is restored on return
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		boolean interrupted = false;
+		for (Thread stageThread: stageThreads) {
+			while (stageThread.isAlive()) {
+				try {
+					stageThread.join();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of free slots: 0 means producers are being pushed back
+	 */
+	public int getRemainingCapacity() {
+		return (int) (ring.length - (publishedSequence.get() - getStageSequence(LAST_STAGE)));
+	}
+
+	/**
+	 * @return the number of trades processed by all the stages
+	 */
+	public long getProcessedCount() {
+		return getStageSequence(LAST_STAGE) + 1;
+	}
+
+	/**
+	 * @return the number of trades rejected by the validate stage or failed by the record stage
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return the number of times a producer found the ring full
+	 */
+	public long getBackPressureCount() {
+		return backPressureCount.get();
+	}
+
+	private long getStageSequence(int stage) {
+		return stageSequences.get(stage * SEQUENCE_PADDING);
+	}
+
+	/**
+	 * Processes the slots released by the previous stage, in batches, until the pipeline is closed and drained
+	 * @param stage
+	 */
+	private void runStage(int stage) {
+		long processed = -1;
+		int idleCount = 0;
+		while (true) {
+			//the end of the previous stage is read before its sequence, so its last slots are not missed
+			boolean previousDone = stage == VALIDATE_STAGE ? closed : !stageThreads[stage - 1].isAlive();
+			long available = stage == VALIDATE_STAGE ? publishedSequence.get() : getStageSequence(stage - 1);
+			if (available > processed) {
+				for (long sequence = processed + 1; sequence <= available; sequence++) {
+					process(stage, ring[(int) sequence & mask], sequence, sequence == available);
+				}
+				processed = available;
+				stageSequences.lazySet(stage * SEQUENCE_PADDING, processed);
+				idleCount = 0;
+			}
+			else if (previousDone) {
+				return;
+			}
+			else {
+				waitStrategy.idle(idleCount++);
+			}
+		}
+	}
+
+	private void process(int stage, StockTradeEvent event, long sequence, boolean endOfBatch) {
+		try {
+			switch (stage) {
+				case VALIDATE_STAGE:
+					TradeRejectReason rejectReason = validate(event);
+					if (rejectReason != null) {
+						event.setRejectReason(rejectReason);
+						rejectedCount.incrementAndGet();
+					}
+					break;
+				case RECORD_STAGE:
+					if (event.getRejectReason() == null) {
+						record(event);
+					}
+					break;
+				case NOTIFY_STAGE:
+					if (stockTradeEventHandler != null) {
+						stockTradeEventHandler.onStockTradeEvent(event, sequence, endOfBatch);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		catch (RuntimeException e) {
+			//a failure must not stop the stage, or the pipeline would stall
+			LOGGER.log(Level.SEVERE, "Ingest stage " + STAGE_NAMES[stage] + " failed on trade " + sequence, e);
+		}
+	}
+
+	/**
+	 * Records the trade of a slot as primitive values, or rejects it if the manager fails
+	 * @param event
+	 */
+	private void record(StockTradeEvent event) {
+		try {
+			stockManager.saveStockTrade(event.getStockSymbol(), StockUtils.toEpochNanos(event.getTimestamp()), event.getQuantity(),
+					StockUtils.toPriceTicks(event.getPrice()), event.getType());
+		}
+		catch (RuntimeException e) {
+			event.setRejectReason(TradeRejectReason.RECORD_FAILED);
+			rejectedCount.incrementAndGet();
+			LOGGER.log(Level.WARNING, "Ingest pipeline failed to record " + event, e);
+		}
+	}
+
+	/**
+	 * Checks the validity of the trade of a slot, like the stock service does for trade records
+	 * @param event
+	 * @return the reason the trade is not valid, or null if it is valid
+	 */
+	private static TradeRejectReason validate(StockTradeEvent event) {
+		if (event.getStockSymbol() == null) {
+			return TradeRejectReason.MISSING_SYMBOL;
+		}
+		if (event.getPrice() == null || !StockUtils.isPriceInTicksRange(event.getPrice())) {
+			return TradeRejectReason.INVALID_PRICE;
+		}
+		if (event.getQuantity() <= 0) {
+			return TradeRejectReason.INVALID_QUANTITY;
+		}
+		if (event.getTimestamp() == null) {
+			return TradeRejectReason.MISSING_TIMESTAMP;
+		}
+		if (event.getType() != TradeType.BUY && event.getType() != TradeType.SELL) {
+			return TradeRejectReason.INVALID_TYPE;
+		}
+		return null;
+	}
+
+}
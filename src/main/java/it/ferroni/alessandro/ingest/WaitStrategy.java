@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.ingest;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * How the stages of an ingest pipeline, and the producers waiting for free slots, wait for the next sequence.
+ * BUSY_SPIN has the lowest latency but keeps a core busy for every stage; YIELD lets other threads run;
+ * PARK spins and yields for a while, then sleeps, and leaves the cores to other work when the feed is idle
+ *
+ */
+public enum WaitStrategy {
+	BUSY_SPIN {
+		@Override
+		void idle(int idleCount) {
+		}
+	},
+	YIELD {
+		@Override
+		void idle(int idleCount) {
+			if (idleCount >= SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+	},
+	PARK {
+		@Override
+		void idle(int idleCount) {
+			if (idleCount >= 2 * SPIN_TRIES) {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+			else if (idleCount >= SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+	};
+
+	//number of empty checks before the strategy starts yielding
+	private static final int SPIN_TRIES = 100;
+	private static final long PARK_NANOS = 50_000L;
+
+	/**
+	 * Waits after a check found no sequence available
+	 * @param idleCount number of consecutive empty checks, starting from 0
+	 */
+	abstract void idle(int idleCount);
+}
@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager;
+
+import it.ferroni.alessandro.models.StockBar;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Receives the OHLCV bars completed by a stock manager. A bar is completed when the first trade of a later bar
+ * of the same symbol and resolution is recorded. Listeners are called on the recording thread while the symbol
+ * is locked, so the bars of a symbol arrive in time order and listeners should return quickly
+ *
+ */
+public interface StockBarListener {
+
+	/**
+	 * @param bar
+	 */
+	public void barCompleted(StockBar bar);
+
+}
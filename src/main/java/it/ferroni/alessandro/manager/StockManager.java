@@ -4,12 +4,24 @@
 package it.ferroni.alessandro.manager;
 
 import java.math.BigDecimal;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.TreeMap;
 
+import it.ferroni.alessandro.constants.BarResolution;
 import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
 import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockBar;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockPriceLogSum;
+import it.ferroni.alessandro.models.StockPriceWindowSum;
+import it.ferroni.alessandro.models.StockTickerPrice;
 import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.models.StockTradeBucket;
 
 /**
  * @author Alessandro Ferroni
@@ -24,12 +36,52 @@ public interface StockManager {
 	 */
 	public List<Stock> selectStockTable();
 	
+	/**
+	 * Loads a stock
+	 * @param stockSymbol
+	 * @return the stock, null if it is not listed
+	 */
+	public Stock selectStock(StockSymbols stockSymbol);
+	
+	/**
+	 * Lists a stock, or replaces its data if it is already listed
+	 * @param stock
+	 * @param tickerPrice the ticker price of the stock, null to keep the current one. It is updated like updateTickerPrice
+	 */
+	public void saveStock(Stock stock, BigDecimal tickerPrice);
+	
 	/**
 	 * Loads all ticker prices
 	 * @return
 	 */
 	public TreeMap<StockSymbols, BigDecimal> selectTickerPrices();
 	
+	/**
+	 * Loads the ticker price of a stock
+	 * @param stockSymbol
+	 * @return the ticker price, null if the stock has none
+	 */
+	public StockTickerPrice selectTickerPrice(StockSymbols stockSymbol);
+	
+	/**
+	 * Publishes a new ticker price of a stock. Readers see either the previous price or the new one.
+	 * If the price is different from the current one, the ticker price listeners are notified
+	 * @param tickerPrice
+	 * @return true if the price changed
+	 */
+	public boolean updateTickerPrice(StockTickerPrice tickerPrice);
+	
+	/**
+	 * Adds a listener notified of every ticker price change
+	 * @param listener
+	 */
+	public void addTickerPriceListener(StockTickerPriceListener listener);
+	
+	/**
+	 * @param listener
+	 */
+	public void removeTickerPriceListener(StockTickerPriceListener listener);
+	
 	/**
 	 * Save Dividend Yield data
 	 * @param dividendYieldMap
@@ -58,11 +110,127 @@ public interface StockManager {
 	 */
 	public void saveStockTrade(StockTrade record);
 	
+	/**
+	 * Save a single stock trade record given as primitive values, without creating a trade object
+	 * @param stockSymbol
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param type
+	 */
+	public void saveStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, TradeType type);
+	
+	/**
+	 * Save a batch of stock trade records. The records of each stock symbol are saved together
+	 * @param records
+	 */
+	public void saveStockTrades(List<StockTrade> records);
+	
 	/**
 	 * @return
 	 */
 	public TreeMap<StockSymbols, List<StockTrade>> selectStockTradeRecords();
 	
+	/**
+	 * Loads the trade records of the given stock symbol in the range [startDate, endDate), ordered by timestamp.
+	 * A null date means no bound
+	 * @param stockSymbol
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	public List<StockTrade> selectStockTrades(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate);
+	
+	/**
+	 * Loads the trade buckets of the given stock symbol, ordered by time.
+	 * Dates are aligned to the bucket width: the range is [startDate, endDate) and a null date means no bound
+	 * @param stockSymbol
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	public Collection<StockTradeBucket> selectStockTradeBuckets(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate);
+	
+	/**
+	 * Loads all the trade records of the given stock symbol as primitive columns, ordered by timestamp
+	 * @param stockSymbol
+	 * @return
+	 */
+	public StockTradeColumns selectStockTradeColumns(StockSymbols stockSymbol);
+	
+	/**
+	 * Loads the running sum of the logarithms of the trade prices recorded for the given stock symbol
+	 * @param stockSymbol
+	 * @return
+	 */
+	public StockPriceLogSum selectStockPriceLogSum(StockSymbols stockSymbol);
+	
+	/**
+	 * Loads the running sums of the trades of the given stock symbol in the sliding price window,
+	 * which ends with the most recent trade of the symbol
+	 * @param stockSymbol
+	 * @return
+	 */
+	public StockPriceWindowSum selectStockPriceWindowSum(StockSymbols stockSymbol);
+	
+	/**
+	 * Loads the buy and sell sums of the trades of the given stock symbol in the sliding price window
+	 * @param stockSymbol
+	 * @return
+	 */
+	public StockOrderFlow selectStockOrderFlow(StockSymbols stockSymbol);
+	
+	/**
+	 * Loads the last completed OHLCV bars of the given stock symbol and resolution, oldest first.
+	 * At most ConfigurationConstants.STOCK_BAR_HISTORY_SIZE bars are kept
+	 * @param stockSymbol
+	 * @param resolution
+	 * @return
+	 */
+	public List<StockBar> selectStockBars(StockSymbols stockSymbol, BarResolution resolution);
+	
+	/**
+	 * Loads the OHLCV bar of the given stock symbol and resolution that is still receiving trades
+	 * @param stockSymbol
+	 * @param resolution
+	 * @return the open bar, null if no trades have been recorded
+	 */
+	public StockBar selectOpenStockBar(StockSymbols stockSymbol, BarResolution resolution);
+	
+	/**
+	 * Adds a listener notified of every completed OHLCV bar
+	 * @param listener
+	 */
+	public void addStockBarListener(StockBarListener listener);
+	
+	/**
+	 * @param listener
+	 */
+	public void removeStockBarListener(StockBarListener listener);
+	
+	/**
+	 * Writes all the trade records to a columnar snapshot file (see StockTradeSnapshot)
+	 * @param file created or overwritten
+	 * @return the number of trades written
+	 * @throws IOException
+	 */
+	public long exportStockTradeSnapshot(Path file) throws IOException;
+	
+	/**
+	 * Records the trades of a snapshot file, registering its symbols, and updates the running sums
+	 * @param file
+	 * @return the number of trades read
+	 * @throws IOException
+	 */
+	public long importStockTradeSnapshot(Path file) throws IOException;
+	
+	/**
+	 * Removes the stock trade records before the given date and their running sums, keeping the others
+	 * @param endDate
+	 * @return the number of removed records
+	 */
+	public long removeStockTradeRecords(LocalDateTime endDate);
+
 	/**
 	 * Reset stock trade records
 	 */
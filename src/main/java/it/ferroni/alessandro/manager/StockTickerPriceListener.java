@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager;
+
+import it.ferroni.alessandro.models.StockTickerPrice;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Receives the ticker price changes of a stock manager. Listeners are called on the thread that updated the price,
+ * after the new price is published, so they should return quickly.
+ * Concurrent updates of the same stock can be notified in any order: a listener that needs the latest price
+ * should select it from the manager
+ *
+ */
+public interface StockTickerPriceListener {
+
+	/**
+	 * @param previous the replaced ticker price, null if the stock had none
+	 * @param current the new ticker price
+	 */
+	public void tickerPriceChanged(StockTickerPrice previous, StockTickerPrice current);
+
+}
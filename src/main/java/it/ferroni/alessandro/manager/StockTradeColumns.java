@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Primitive, read only view of the trade records of a stock symbol, ordered by timestamp.
+ * Timestamps are epoch-nanos, prices are fixed-point ticks of 10^-ConfigurationConstants.PRICE_SCALE
+ * and trade types are TradeType ordinals. Calculations can run over it without boxing.
+ *
+ */
+public interface StockTradeColumns {
+
+	/**
+	 * @return the number of trade records in the view
+	 */
+	public int size();
+
+	/**
+	 * Gets the index of the first trade with a timestamp greater than or equal to the given one
+	 * @param timestamp epoch-nanos
+	 * @return
+	 */
+	public int indexOf(long timestamp);
+
+	/**
+	 * @param index
+	 * @return the trade timestamp in epoch-nanos
+	 */
+	public long getTimestamp(int index);
+
+	/**
+	 * @param index
+	 * @return the trade quantity
+	 */
+	public long getQuantity(int index);
+
+	/**
+	 * @param index
+	 * @return the trade price in ticks
+	 */
+	public long getPriceTicks(int index);
+
+	/**
+	 * @param index
+	 * @return the ordinal of the trade type
+	 */
+	public byte getTradeType(int index);
+
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.models.StockTrade;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Trade records of a single stock symbol, kept ordered by timestamp
+ *
+ */
+public interface StockTradeStore {
+
+	/**
+	 * Adds a trade record to the store
+	 * @param record
+	 */
+	public void addStockTrade(StockTrade record);
+
+	/**
+	 * Adds a trade record given as primitive values, without creating a trade object if the store does not keep them
+	 * @param stockSymbol symbol of the store
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param tradeType ordinal of the trade type
+	 */
+	public void addStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, byte tradeType);
+
+	/**
+	 * Selects all the trade records, ordered by timestamp
+	 * @return
+	 */
+	public List<StockTrade> selectStockTrades();
+
+	/**
+	 * Selects the trade records in the range [startDate, endDate), ordered by timestamp.
+	 * A null date means no bound
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	public List<StockTrade> selectStockTrades(LocalDateTime startDate, LocalDateTime endDate);
+
+	/**
+	 * Selects all the trade records as primitive columns, ordered by timestamp
+	 * @return
+	 */
+	public StockTradeColumns selectStockTradeColumns();
+
+	/**
+	 * @return the number of trade records in the store
+	 */
+	public int size();
+
+	/**
+	 * Removes the trade records before the given date, keeping the others
+	 * @param endDate
+	 * @return the number of removed records
+	 */
+	public int removeStockTrades(LocalDateTime endDate);
+
+	/**
+	 * Removes all the trade records
+	 */
+	public void clear();
+
+}
@@ -0,0 +1,272 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Trade records are kept in parallel primitive arrays sorted by timestamp: epoch-nanos, quantity,
+ * fixed-point price ticks and trade type ordinal. A trade costs 25 bytes and no object is kept for it;
+ * StockTrade objects are only built when a trade list is read.
+ *
+ * Segments are published like in StockTradeStoreImpl: one writer at a time, readers without locks.
+ *
+ */
+public class ColumnarStockTradeStoreImpl implements StockTradeStore {
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	private final StockSymbols stockSymbol;
+	private volatile Segment segment;
+
+	public ColumnarStockTradeStoreImpl(StockSymbols stockSymbol) {
+		this.stockSymbol = stockSymbol;
+		this.segment = new Segment(INITIAL_CAPACITY);
+	}
+
+	@Override
+	public void addStockTrade(StockTrade record) {
+		addStockTrade(StockUtils.toEpochNanos(record.getTimestamp()), record.getQuantity().longValue(),
+				StockUtils.toPriceTicks(record.getPrice()), (byte) record.getType().ordinal());
+	}
+
+	@Override
+	public void addStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, byte tradeType) {
+		addStockTrade(timestamp, quantity, priceTicks, tradeType);
+	}
+
+	/**
+	 * Adds a trade record given as primitive values
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param tradeType ordinal of the trade type
+	 */
+	public void addStockTrade(long timestamp, long quantity, long priceTicks, byte tradeType) {
+		Segment current = segment;
+		int count = current.size;
+
+		if (count == 0 || current.timestamps[count - 1] <= timestamp) {
+			//trade in time order: append it
+			if (count == current.timestamps.length) {
+				current = current.copyOf(count + (count >> 1));
+				segment = current;
+			}
+			current.set(count, timestamp, quantity, priceTicks, tradeType);
+			current.size = count + 1;
+		}
+		else {
+			//late trade: insert it after the trades with the same timestamp in a new segment
+			int position = current.indexOf(count, timestamp + 1);
+			Segment inserted = new Segment(count == current.timestamps.length ? count + (count >> 1) : current.timestamps.length);
+			inserted.copyFrom(current, 0, 0, position);
+			inserted.set(position, timestamp, quantity, priceTicks, tradeType);
+			inserted.copyFrom(current, position, position + 1, count - position);
+			inserted.size = count + 1;
+			segment = inserted;
+		}
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades() {
+		Segment current = segment;
+		return new StockTradeView(stockSymbol, current, 0, current.size);
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades(LocalDateTime startDate, LocalDateTime endDate) {
+		Segment current = segment;
+		int count = current.size;
+		int fromIndex = startDate == null ? 0 : current.indexOf(count, StockUtils.toEpochNanos(startDate));
+		int toIndex = endDate == null ? count : current.indexOf(count, StockUtils.toEpochNanos(endDate));
+		if (toIndex < fromIndex) {
+			toIndex = fromIndex;
+		}
+		return new StockTradeView(stockSymbol, current, fromIndex, toIndex);
+	}
+
+	@Override
+	public StockTradeColumns selectStockTradeColumns() {
+		Segment current = segment;
+		return new SegmentColumns(current, current.size);
+	}
+
+	@Override
+	public int size() {
+		return segment.size;
+	}
+
+	@Override
+	public int removeStockTrades(LocalDateTime endDate) {
+		Segment current = segment;
+		int count = current.size;
+		int removed = current.indexOf(count, StockUtils.toEpochNanos(endDate));
+		if (removed > 0) {
+			//the kept records are moved to a new segment, so the views of the readers do not change
+			Segment kept = new Segment(Math.max(INITIAL_CAPACITY, count - removed));
+			kept.copyFrom(current, removed, 0, count - removed);
+			kept.size = count - removed;
+			segment = kept;
+		}
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		segment = new Segment(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return the stock symbol of the stored trades
+	 */
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	/**
+	 * Column arrays with the number of published records
+	 */
+	private static class Segment {
+
+		private final long[] timestamps;
+		private final long[] quantities;
+		private final long[] priceTicks;
+		private final byte[] tradeTypes;
+		private volatile int size;
+
+		Segment(int capacity) {
+			timestamps = new long[capacity];
+			quantities = new long[capacity];
+			priceTicks = new long[capacity];
+			tradeTypes = new byte[capacity];
+		}
+
+		void set(int index, long timestamp, long quantity, long price, byte tradeType) {
+			timestamps[index] = timestamp;
+			quantities[index] = quantity;
+			priceTicks[index] = price;
+			tradeTypes[index] = tradeType;
+		}
+
+		void copyFrom(Segment source, int sourceIndex, int index, int length) {
+			System.arraycopy(source.timestamps, sourceIndex, timestamps, index, length);
+			System.arraycopy(source.quantities, sourceIndex, quantities, index, length);
+			System.arraycopy(source.priceTicks, sourceIndex, priceTicks, index, length);
+			System.arraycopy(source.tradeTypes, sourceIndex, tradeTypes, index, length);
+		}
+
+		Segment copyOf(int capacity) {
+			Segment copy = new Segment(capacity);
+			copy.copyFrom(this, 0, 0, size);
+			copy.size = size;
+			return copy;
+		}
+
+		int indexOf(int count, long timestamp) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (timestamps[middle] < timestamp) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Primitive view on the first records of a segment
+	 */
+	private static class SegmentColumns implements StockTradeColumns {
+
+		private final Segment segment;
+		private final int size;
+
+		SegmentColumns(Segment segment, int size) {
+			this.segment = segment;
+			this.size = size;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public int indexOf(long timestamp) {
+			return segment.indexOf(size, timestamp);
+		}
+
+		@Override
+		public long getTimestamp(int index) {
+			return segment.timestamps[index];
+		}
+
+		@Override
+		public long getQuantity(int index) {
+			return segment.quantities[index];
+		}
+
+		@Override
+		public long getPriceTicks(int index) {
+			return segment.priceTicks[index];
+		}
+
+		@Override
+		public byte getTradeType(int index) {
+			return segment.tradeTypes[index];
+		}
+	}
+
+	/**
+	 * Read only view on a range of a segment, building a StockTrade for each read record
+	 */
+	private static class StockTradeView extends AbstractList<StockTrade> implements RandomAccess {
+
+		private final StockSymbols stockSymbol;
+		private final Segment segment;
+		private final int fromIndex;
+		private final int toIndex;
+
+		StockTradeView(StockSymbols stockSymbol, Segment segment, int fromIndex, int toIndex) {
+			this.stockSymbol = stockSymbol;
+			this.segment = segment;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		public StockTrade get(int index) {
+			if (index < 0 || index >= toIndex - fromIndex) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (toIndex - fromIndex));
+			}
+			int position = fromIndex + index;
+			return new StockTrade(stockSymbol, StockUtils.fromEpochNanos(segment.timestamps[position]), segment.quantities[position],
+					StockUtils.fromPriceTicks(segment.priceTicks[position]), TRADE_TYPES[segment.tradeTypes[position]]);
+		}
+
+		@Override
+		public int size() {
+			return toIndex - fromIndex;
+		}
+	}
+
+}
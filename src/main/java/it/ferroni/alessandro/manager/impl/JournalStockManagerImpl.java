@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Stock manager whose trades are persisted in one journal file per stock symbol in the given directory.
+ * When the manager is created the symbols of the journals in the directory are registered, the journals are loaded
+ * and the running sums are rebuilt from them, so a restarted process continues with the trades recorded before.
+ * Journals keep price ticks, so trade prices are rounded to ticks when they are recorded: the running sums of a restarted
+ * process are the same of the process that recorded the trades.
+ *
+ */
+public class JournalStockManagerImpl extends StockManagerImpl implements Closeable {
+
+	private final JournalStoreFactory journalStoreFactory;
+
+	public JournalStockManagerImpl(Path directory) {
+		this(new JournalStoreFactory(directory));
+	}
+
+	private JournalStockManagerImpl(JournalStoreFactory journalStoreFactory) {
+		super(journalStoreFactory);
+		this.journalStoreFactory = journalStoreFactory;
+	}
+
+	@Override
+	public void saveStockTrade(StockTrade record) {
+		super.saveStockTrade(toPriceTicks(record));
+	}
+
+	@Override
+	public void saveStockTrades(List<StockTrade> records) {
+		List<StockTrade> rounded = new ArrayList<>(records.size());
+		for (StockTrade record: records) {
+			rounded.add(toPriceTicks(record));
+		}
+		super.saveStockTrades(rounded);
+	}
+
+	/**
+	 * Writes all the journals to the storage device
+	 */
+	public void force() {
+		for (JournalStockTradeStoreImpl store: journalStoreFactory.stores) {
+			store.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (JournalStockTradeStoreImpl store: journalStoreFactory.stores) {
+			store.close();
+		}
+	}
+
+	/**
+	 * @param record
+	 * @return the record, or a copy of it with the price rounded to ticks if it has more decimal digits than a tick
+	 */
+	private static StockTrade toPriceTicks(StockTrade record) {
+		if (record.getPrice() == null || record.getPrice().scale() <= ConfigurationConstants.PRICE_SCALE) {
+			return record;
+		}
+		return new StockTrade(record.getStockSymbol(), record.getTimestamp(), record.getQuantity(),
+				StockUtils.fromPriceTicks(StockUtils.toPriceTicks(record.getPrice())), record.getType());
+	}
+
+	/**
+	 * Creates the journal stores and keeps them, so they can be forced and closed
+	 */
+	private static class JournalStoreFactory implements Function<StockSymbols, StockTradeStore> {
+
+		private final Path directory;
+		private final List<JournalStockTradeStoreImpl> stores;
+
+		JournalStoreFactory(Path directory) {
+			this.directory = directory;
+			//stores of new symbols can be created while the journals are forced
+			this.stores = new CopyOnWriteArrayList<>();
+			
+			//register the symbols of the existing journals, so the manager loads them
+			try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, "*" + JournalStockTradeStoreImpl.JOURNAL_EXTENSION)) {
+				for (Path journal: journals) {
+					String fileName = journal.getFileName().toString();
+					StockSymbols.register(fileName.substring(0, fileName.length() - JournalStockTradeStoreImpl.JOURNAL_EXTENSION.length()));
+				}
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException("Unable to list the trade journals in " + directory, e);
+			}
+		}
+
+		@Override
+		public StockTradeStore apply(StockSymbols stockSymbol) {
+			JournalStockTradeStoreImpl store = new JournalStockTradeStoreImpl(stockSymbol, directory);
+			stores.add(store);
+			return store;
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Columnar trade store persisted in a StockTradeJournal file named after the stock symbol.
+ * Each trade is appended to the journal before it is stored in memory; when the store is created
+ * the journal records are loaded back into the columns, without parsing or deserializing objects.
+ *
+ */
+public class JournalStockTradeStoreImpl implements StockTradeStore, Closeable {
+
+	public static final String JOURNAL_EXTENSION = ".journal";
+
+	//replaced when the journal is rewritten; volatile because the manager forces the journals from other threads
+	private volatile StockTradeJournal journal;
+	private final ColumnarStockTradeStoreImpl columns;
+
+	public JournalStockTradeStoreImpl(StockSymbols stockSymbol, Path directory) {
+		columns = new ColumnarStockTradeStoreImpl(stockSymbol);
+		try {
+			journal = new StockTradeJournal(directory.resolve(stockSymbol.name() + JOURNAL_EXTENSION));
+			journal.replay(columns::addStockTrade);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Unable to open the trade journal of stock " + stockSymbol, e);
+		}
+	}
+
+	@Override
+	public void addStockTrade(StockTrade record) {
+		long timestamp = StockUtils.toEpochNanos(record.getTimestamp());
+		long quantity = record.getQuantity().longValue();
+		long priceTicks = StockUtils.toPriceTicks(record.getPrice());
+		byte tradeType = (byte) record.getType().ordinal();
+		addStockTrade(record.getStockSymbol(), timestamp, quantity, priceTicks, tradeType);
+	}
+
+	@Override
+	public void addStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, byte tradeType) {
+		try {
+			journal.append(timestamp, quantity, priceTicks, tradeType);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Unable to write the trade journal of stock " + stockSymbol, e);
+		}
+		columns.addStockTrade(timestamp, quantity, priceTicks, tradeType);
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades() {
+		return columns.selectStockTrades();
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades(LocalDateTime startDate, LocalDateTime endDate) {
+		return columns.selectStockTrades(startDate, endDate);
+	}
+
+	@Override
+	public StockTradeColumns selectStockTradeColumns() {
+		return columns.selectStockTradeColumns();
+	}
+
+	@Override
+	public int size() {
+		return columns.size();
+	}
+
+	@Override
+	public int removeStockTrades(LocalDateTime endDate) {
+		StockTradeColumns current = columns.selectStockTradeColumns();
+		int removed = current.indexOf(StockUtils.toEpochNanos(endDate));
+		if (removed > 0) {
+			//the journal is append only: it is rewritten with the kept records before they are removed from memory,
+			//so a failed rewrite leaves both the journal and the columns unchanged
+			try {
+				journal = journal.rewrite(current, removed);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException("Unable to write the trade journal of stock " + columns.getStockSymbol(), e);
+			}
+			columns.removeStockTrades(endDate);
+		}
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		journal.clear();
+		columns.clear();
+	}
+
+	/**
+	 * Writes the journal to the storage device
+	 */
+	public void force() {
+		journal.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		journal.close();
+	}
+
+}
@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.manager.StockTradeStore;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Stock manager whose trades are kept off-heap, in direct buffer chunks of each stock symbol,
+ * so the heap used by the manager does not grow with the trade volume. resetStockTradeRecords releases
+ * the chunks of all the symbols in bulk.
+ *
+ */
+public class OffHeapStockManagerImpl extends StockManagerImpl {
+
+	private final OffHeapStoreFactory offHeapStoreFactory;
+
+	public OffHeapStockManagerImpl() {
+		this(new OffHeapStoreFactory());
+	}
+
+	private OffHeapStockManagerImpl(OffHeapStoreFactory offHeapStoreFactory) {
+		super(offHeapStoreFactory);
+		this.offHeapStoreFactory = offHeapStoreFactory;
+	}
+
+	/**
+	 * @return the number of off-heap bytes of the trade chunks of all the symbols
+	 */
+	public long getOffHeapBytes() {
+		long bytes = 0;
+		for (OffHeapStockTradeStoreImpl store: offHeapStoreFactory.stores) {
+			bytes += store.getAllocatedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Creates the off-heap stores and keeps them, so their memory can be reported
+	 */
+	private static class OffHeapStoreFactory implements Function<StockSymbols, StockTradeStore> {
+
+		//stores of new symbols can be created while the memory is reported
+		private final List<OffHeapStockTradeStoreImpl> stores = new CopyOnWriteArrayList<>();
+
+		@Override
+		public StockTradeStore apply(StockSymbols stockSymbol) {
+			OffHeapStockTradeStoreImpl store = new OffHeapStockTradeStoreImpl(stockSymbol);
+			stores.add(store);
+			return store;
+		}
+	}
+
+}
@@ -0,0 +1,575 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Trade records are kept sorted by timestamp in direct buffer chunks of up to OFF_HEAP_CHUNK_RECORDS records, outside the heap:
+ * <pre>
+ * offset  0  long  timestamp, epoch-nanos
+ * offset  8  long  quantity
+ * offset 16  long  price ticks
+ * offset 24  byte  trade type ordinal, followed by padding
+ * </pre>
+ * The heap only holds one buffer object for each chunk, so it does not grow with the number of trades and the
+ * collector has nothing to scan or copy for them. StockTrade objects are only built when a trade list is read.
+ *
+ * Segments are published like in ColumnarStockTradeStoreImpl: one writer at a time, readers without locks.
+ * Trades in time order are appended in place. A late trade copies only the chunk it falls in, and splits it in two
+ * halves if it is full, so chunks before a late trade can be partially filled. Removing old trades drops whole chunks.
+ * Chunks replaced this way are retired and recycled through a free list of at most OFF_HEAP_FREE_CHUNKS chunks.
+ * A chunk no reader took a view of is recycled at once; otherwise readers may still hold a view on it,
+ * and it is recycled only once every segment that could read it has been collected.
+ *
+ */
+public class OffHeapStockTradeStoreImpl implements StockTradeStore {
+
+	public static final int RECORD_LENGTH = 32;
+
+	private static final int TIMESTAMP_OFFSET = 0;
+	private static final int QUANTITY_OFFSET = 8;
+	private static final int PRICE_OFFSET = 16;
+	private static final int TYPE_OFFSET = 24;
+
+	private static final int CHUNK_RECORDS = ConfigurationConstants.OFF_HEAP_CHUNK_RECORDS;
+	private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_RECORDS);
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	private final StockSymbols stockSymbol;
+	private volatile Segment segment;
+
+	//version of the first segment of each chunk, and version of the last segment a reader took a view of; writer only
+	private final Map<ByteBuffer, Long> chunkVersions;
+	private long readVersion;
+	//retired chunks waiting for the segments that could read them to be collected, and chunks ready to be reused; writer only
+	private final ReferenceQueue<Segment> retiredQueue;
+	private final Set<RetiredChunks> retiredChunks;
+	private final ArrayDeque<ByteBuffer> freeChunks;
+
+	public OffHeapStockTradeStoreImpl(StockSymbols stockSymbol) {
+		if (CHUNK_RECORDS < 2 || Integer.bitCount(CHUNK_RECORDS) != 1) {
+			throw new IllegalStateException("OFF_HEAP_CHUNK_RECORDS must be a power of two, at least 2");
+		}
+		this.stockSymbol = stockSymbol;
+		this.segment = new Segment(new ByteBuffer[0], null);
+		//buffers are compared by content: chunks are tracked by identity
+		this.chunkVersions = new IdentityHashMap<>();
+		this.readVersion = -1;
+		this.retiredQueue = new ReferenceQueue<>();
+		this.retiredChunks = new HashSet<>();
+		this.freeChunks = new ArrayDeque<>();
+	}
+
+	@Override
+	public void addStockTrade(StockTrade record) {
+		addStockTrade(StockUtils.toEpochNanos(record.getTimestamp()), record.getQuantity().longValue(),
+				StockUtils.toPriceTicks(record.getPrice()), (byte) record.getType().ordinal());
+	}
+
+	@Override
+	public void addStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, byte tradeType) {
+		addStockTrade(timestamp, quantity, priceTicks, tradeType);
+	}
+
+	/**
+	 * Adds a trade record given as primitive values
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param tradeType ordinal of the trade type
+	 */
+	public void addStockTrade(long timestamp, long quantity, long priceTicks, byte tradeType) {
+		Segment current = segment;
+		int count = current.size;
+
+		if (count == 0 || current.getTimestamp(count - 1) <= timestamp) {
+			//trade in time order: append it, adding a chunk if the last one is full
+			int last = current.chunks.length - 1;
+			if (last < 0 || current.chunkFill(last, count) == CHUNK_RECORDS) {
+				ByteBuffer[] chunks = Arrays.copyOf(current.chunks, current.chunks.length + 1);
+				chunks[++last] = allocateChunk();
+				int[] chunkStarts = current.chunkStarts == null ? null : Arrays.copyOf(current.chunkStarts, chunks.length);
+				if (chunkStarts != null) {
+					chunkStarts[last] = count;
+				}
+				current = publish(current, new Segment(chunks, chunkStarts), count);
+			}
+			putRecord(current.chunks[last], count - current.chunkStart(last), timestamp, quantity, priceTicks, tradeType);
+			current.size = count + 1;
+		}
+		else {
+			insertStockTrade(current, count, timestamp, quantity, priceTicks, tradeType);
+		}
+	}
+
+	/**
+	 * Inserts a late trade after the trades with the same timestamp, copying only the chunk it falls in
+	 */
+	private void insertStockTrade(Segment current, int count, long timestamp, long quantity, long priceTicks, byte tradeType) {
+		int position = current.indexOf(count, timestamp + 1);
+		int chunk = current.chunkOf(position);
+		int fill = current.chunkFill(chunk, count);
+		int record = position - current.chunkStart(chunk);
+		ByteBuffer source = current.chunks[chunk];
+
+		ByteBuffer[] chunks;
+		int[] chunkStarts = new int[current.chunks.length + (fill == CHUNK_RECORDS ? 1 : 0)];
+		for (int index = 0; index <= chunk; index++) {
+			chunkStarts[index] = current.chunkStart(index);
+		}
+		if (fill < CHUNK_RECORDS) {
+			ByteBuffer copy = allocateChunk();
+			copyRecords(source, 0, copy, 0, record);
+			putRecord(copy, record, timestamp, quantity, priceTicks, tradeType);
+			copyRecords(source, record, copy, record + 1, fill - record);
+			chunks = current.chunks.clone();
+			chunks[chunk] = copy;
+		}
+		else {
+			//full chunk: split it in two halves, the trade goes in the half of its position
+			int half = CHUNK_RECORDS >>> 1;
+			ByteBuffer left = allocateChunk();
+			ByteBuffer right = allocateChunk();
+			if (record < half) {
+				copyRecords(source, 0, left, 0, record);
+				putRecord(left, record, timestamp, quantity, priceTicks, tradeType);
+				copyRecords(source, record, left, record + 1, half - record);
+				copyRecords(source, half, right, 0, CHUNK_RECORDS - half);
+				chunkStarts[chunk + 1] = chunkStarts[chunk] + half + 1;
+			}
+			else {
+				copyRecords(source, 0, left, 0, half);
+				copyRecords(source, half, right, 0, record - half);
+				putRecord(right, record - half, timestamp, quantity, priceTicks, tradeType);
+				copyRecords(source, record, right, record - half + 1, CHUNK_RECORDS - record);
+				chunkStarts[chunk + 1] = chunkStarts[chunk] + half;
+			}
+			chunks = new ByteBuffer[chunkStarts.length];
+			System.arraycopy(current.chunks, 0, chunks, 0, chunk);
+			chunks[chunk] = left;
+			chunks[chunk + 1] = right;
+			System.arraycopy(current.chunks, chunk + 1, chunks, chunk + 2, current.chunks.length - chunk - 1);
+		}
+		//the chunks after the trade are shared, their records move one position on
+		for (int index = chunk + 1; index < current.chunks.length; index++) {
+			chunkStarts[index + chunkStarts.length - current.chunks.length] = current.chunkStart(index) + 1;
+		}
+		publish(current, new Segment(chunks, chunkStarts), count + 1, source);
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades() {
+		Segment current = acquire();
+		return new StockTradeView(stockSymbol, current, 0, current.size);
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades(LocalDateTime startDate, LocalDateTime endDate) {
+		Segment current = acquire();
+		int count = current.size;
+		int fromIndex = startDate == null ? 0 : current.indexOf(count, StockUtils.toEpochNanos(startDate));
+		int toIndex = endDate == null ? count : current.indexOf(count, StockUtils.toEpochNanos(endDate));
+		if (toIndex < fromIndex) {
+			toIndex = fromIndex;
+		}
+		return new StockTradeView(stockSymbol, current, fromIndex, toIndex);
+	}
+
+	@Override
+	public StockTradeColumns selectStockTradeColumns() {
+		Segment current = acquire();
+		return new SegmentColumns(current, current.size);
+	}
+
+	@Override
+	public int size() {
+		return segment.size;
+	}
+
+	@Override
+	public int removeStockTrades(LocalDateTime endDate) {
+		Segment current = segment;
+		int count = current.size;
+		int removed = current.indexOf(count, StockUtils.toEpochNanos(endDate));
+		if (removed == count) {
+			if (count > 0) {
+				clear();
+			}
+			return removed;
+		}
+		if (removed > 0) {
+			//the chunks before the first kept record are dropped, the others are shared
+			int chunk = current.chunkOf(removed);
+			int start = current.chunkStart(chunk);
+			ByteBuffer[] chunks = Arrays.copyOfRange(current.chunks, chunk, current.chunks.length);
+			int[] chunkStarts = new int[chunks.length];
+			for (int index = 1; index < chunks.length; index++) {
+				chunkStarts[index] = current.chunkStart(chunk + index) - removed;
+			}
+			ByteBuffer[] retired = Arrays.copyOf(current.chunks, removed > start ? chunk + 1 : chunk);
+			if (removed > start) {
+				//the kept records of the first chunk are moved to a new chunk, so the views of the readers do not change
+				chunks[0] = allocateChunk();
+				copyRecords(current.chunks[chunk], removed - start, chunks[0], 0, current.chunkFill(chunk, count) - (removed - start));
+			}
+			publish(current, new Segment(chunks, chunkStarts), count - removed, retired);
+		}
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		Segment current = segment;
+		publish(current, new Segment(new ByteBuffer[0], null), 0, current.chunks);
+	}
+
+	/**
+	 * @return the stock symbol of the stored trades
+	 */
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	/**
+	 * @return the number of off-heap bytes of the chunks of the current segment
+	 */
+	public long getAllocatedBytes() {
+		return (long) segment.chunks.length * CHUNK_RECORDS * RECORD_LENGTH;
+	}
+
+	/**
+	 * Marks the current segment as read before a view is taken on it. If the segment is replaced meanwhile, the new one is read:
+	 * the writer checks the mark after publishing, so either it sees the mark or the reader sees the new segment
+	 * @return the current segment
+	 */
+	private Segment acquire() {
+		Segment current = segment;
+		while (true) {
+			current.read = true;
+			Segment latest = segment;
+			if (latest == current) {
+				return current;
+			}
+			current = latest;
+		}
+	}
+
+	/**
+	 * Publishes a segment replacing the current one and retires the chunks it does not use
+	 * @param previous the current segment
+	 * @param next
+	 * @param size number of records of the new segment
+	 * @param retired chunks of the previous segment not used by the new one
+	 * @return the new segment
+	 */
+	private Segment publish(Segment previous, Segment next, int size, ByteBuffer... retired) {
+		next.size = size;
+		next.version = previous.version + 1;
+		previous.next = next;
+		segment = next;
+
+		if (previous.read) {
+			readVersion = previous.version;
+		}
+		ByteBuffer[] exposed = new ByteBuffer[retired.length];
+		int exposedCount = 0;
+		for (ByteBuffer chunk: retired) {
+			//a chunk is in the segments from its first one to the previous one: if none of them was read, no reader can see it
+			if (chunkVersions.remove(chunk) <= readVersion) {
+				exposed[exposedCount++] = chunk;
+			}
+			else {
+				release(chunk);
+			}
+		}
+		if (exposedCount > 0) {
+			retiredChunks.add(new RetiredChunks(previous, Arrays.copyOf(exposed, exposedCount), retiredQueue));
+		}
+		return next;
+	}
+
+	/**
+	 * @return a chunk of the free list, or a new one
+	 */
+	private ByteBuffer allocateChunk() {
+		recycleRetiredChunks();
+		ByteBuffer chunk = freeChunks.poll();
+		if (chunk == null) {
+			try {
+				chunk = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_LENGTH).order(ByteOrder.nativeOrder());
+			}
+			catch (OutOfMemoryError e) {
+				//the allocation collects the heap before failing: segments collected meanwhile give their chunks back
+				recycleRetiredChunks();
+				chunk = freeChunks.poll();
+				if (chunk == null) {
+					throw e;
+				}
+			}
+		}
+		//the chunk is first used by the next segment
+		chunkVersions.put(chunk, segment.version + 1);
+		return chunk;
+	}
+
+	/**
+	 * Moves the chunks of the collected segments to the free list. Chunks beyond OFF_HEAP_FREE_CHUNKS are dropped,
+	 * and their memory is released when their buffer objects are collected
+	 */
+	private void recycleRetiredChunks() {
+		RetiredChunks retired;
+		while ((retired = (RetiredChunks) retiredQueue.poll()) != null) {
+			retiredChunks.remove(retired);
+			for (ByteBuffer chunk: retired.chunks) {
+				release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Adds a chunk no reader can see to the free list, or drops it if the list is full
+	 * @param chunk
+	 */
+	private void release(ByteBuffer chunk) {
+		if (freeChunks.size() < ConfigurationConstants.OFF_HEAP_FREE_CHUNKS) {
+			freeChunks.push(chunk);
+		}
+	}
+
+	private static void putRecord(ByteBuffer chunk, int record, long timestamp, long quantity, long priceTicks, byte tradeType) {
+		int offset = record * RECORD_LENGTH;
+		chunk.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+		chunk.putLong(offset + QUANTITY_OFFSET, quantity);
+		chunk.putLong(offset + PRICE_OFFSET, priceTicks);
+		chunk.put(offset + TYPE_OFFSET, tradeType);
+	}
+
+	private static void copyRecords(ByteBuffer source, int sourceRecord, ByteBuffer target, int targetRecord, int length) {
+		if (length > 0) {
+			ByteBuffer from = source.duplicate();
+			from.limit((sourceRecord + length) * RECORD_LENGTH);
+			from.position(sourceRecord * RECORD_LENGTH);
+			ByteBuffer to = target.duplicate();
+			to.position(targetRecord * RECORD_LENGTH);
+			to.put(from);
+		}
+	}
+
+	/**
+	 * Chunks with the number of published records. Chunks not changed by a late trade are shared with the previous segment
+	 */
+	private static class Segment {
+
+		private final ByteBuffer[] chunks;
+		//index of the first record of each chunk, null while every chunk but the last is full
+		private final int[] chunkStarts;
+		private volatile int size;
+		//set by the writer before the segment is published
+		private long version;
+		//true once a reader took a view of the segment
+		private volatile boolean read;
+		//the segment that replaced this one: while a reader holds this segment the next ones stay reachable,
+		//so a retired chunk is recycled only after every segment that could read it has been collected
+		private Segment next;
+
+		Segment(ByteBuffer[] chunks, int[] chunkStarts) {
+			this.chunks = chunks;
+			this.chunkStarts = isFull(chunkStarts) ? null : chunkStarts;
+		}
+
+		private static boolean isFull(int[] chunkStarts) {
+			if (chunkStarts == null) {
+				return true;
+			}
+			for (int chunk = 0; chunk < chunkStarts.length; chunk++) {
+				if (chunkStarts[chunk] != chunk << CHUNK_SHIFT) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		int chunkOf(int index) {
+			if (chunkStarts == null) {
+				return index >>> CHUNK_SHIFT;
+			}
+			int low = 0;
+			int high = chunkStarts.length - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (chunkStarts[middle] <= index) {
+					low = middle;
+				}
+				else {
+					high = middle - 1;
+				}
+			}
+			return low;
+		}
+
+		int chunkStart(int chunk) {
+			return chunkStarts == null ? chunk << CHUNK_SHIFT : chunkStarts[chunk];
+		}
+
+		int chunkFill(int chunk, int count) {
+			return (chunk == chunks.length - 1 ? count : chunkStart(chunk + 1)) - chunkStart(chunk);
+		}
+
+		private int offsetOf(int chunk, int index) {
+			return (chunkStarts == null ? index & CHUNK_MASK : index - chunkStarts[chunk]) * RECORD_LENGTH;
+		}
+
+		long getTimestamp(int index) {
+			int chunk = chunkOf(index);
+			return chunks[chunk].getLong(offsetOf(chunk, index) + TIMESTAMP_OFFSET);
+		}
+
+		long getQuantity(int index) {
+			int chunk = chunkOf(index);
+			return chunks[chunk].getLong(offsetOf(chunk, index) + QUANTITY_OFFSET);
+		}
+
+		long getPriceTicks(int index) {
+			int chunk = chunkOf(index);
+			return chunks[chunk].getLong(offsetOf(chunk, index) + PRICE_OFFSET);
+		}
+
+		byte getTradeType(int index) {
+			int chunk = chunkOf(index);
+			return chunks[chunk].get(offsetOf(chunk, index) + TYPE_OFFSET);
+		}
+
+		int indexOf(int count, long timestamp) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (getTimestamp(middle) < timestamp) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Chunks retired when a segment was replaced, enqueued once that segment has been collected
+	 */
+	private static class RetiredChunks extends PhantomReference<Segment> {
+
+		private final ByteBuffer[] chunks;
+
+		RetiredChunks(Segment segment, ByteBuffer[] chunks, ReferenceQueue<Segment> queue) {
+			super(segment, queue);
+			this.chunks = chunks;
+		}
+	}
+
+	/**
+	 * Primitive view on the first records of a segment
+	 */
+	private static class SegmentColumns implements StockTradeColumns {
+
+		private final Segment segment;
+		private final int size;
+
+		SegmentColumns(Segment segment, int size) {
+			this.segment = segment;
+			this.size = size;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public int indexOf(long timestamp) {
+			return segment.indexOf(size, timestamp);
+		}
+
+		@Override
+		public long getTimestamp(int index) {
+			return segment.getTimestamp(index);
+		}
+
+		@Override
+		public long getQuantity(int index) {
+			return segment.getQuantity(index);
+		}
+
+		@Override
+		public long getPriceTicks(int index) {
+			return segment.getPriceTicks(index);
+		}
+
+		@Override
+		public byte getTradeType(int index) {
+			return segment.getTradeType(index);
+		}
+	}
+
+	/**
+	 * Read only view on a range of a segment, building a StockTrade for each read record
+	 */
+	private static class StockTradeView extends AbstractList<StockTrade> implements RandomAccess {
+
+		private final StockSymbols stockSymbol;
+		private final Segment segment;
+		private final int fromIndex;
+		private final int toIndex;
+
+		StockTradeView(StockSymbols stockSymbol, Segment segment, int fromIndex, int toIndex) {
+			this.stockSymbol = stockSymbol;
+			this.segment = segment;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		public StockTrade get(int index) {
+			if (index < 0 || index >= toIndex - fromIndex) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (toIndex - fromIndex));
+			}
+			int position = fromIndex + index;
+			return new StockTrade(stockSymbol, StockUtils.fromEpochNanos(segment.getTimestamp(position)), segment.getQuantity(position),
+					StockUtils.fromPriceTicks(segment.getPriceTicks(position)), TRADE_TYPES[segment.getTradeType(position)]);
+		}
+
+		@Override
+		public int size() {
+			return toIndex - fromIndex;
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Stock manager whose trade history is kept in time partitions (see PartitionedStockTradeStoreImpl) with a retention policy:
+ * when the first trade of a new partition is recorded, the trades and running sums of the partitions older than
+ * the retained ones are removed for all the symbols.
+ *
+ */
+public class PartitionedStockManagerImpl extends StockManagerImpl {
+
+	private final long partitionNanos;
+	private final int retainedPartitions;
+	//key of the latest partition that received a trade
+	private final AtomicLong latestPartition;
+
+	public PartitionedStockManagerImpl() {
+		this(ConfigurationConstants.TRADE_PARTITION_SECONDS, ConfigurationConstants.TRADE_RETENTION_PARTITIONS);
+	}
+
+	/**
+	 * @param partitionSeconds width of the time partitions
+	 * @param retainedPartitions number of partitions kept, the current one included; 0 keeps all of them
+	 */
+	public PartitionedStockManagerImpl(long partitionSeconds, int retainedPartitions) {
+		super(stockSymbol -> new PartitionedStockTradeStoreImpl(stockSymbol, partitionSeconds));
+		if (retainedPartitions < 0) {
+			throw new IllegalArgumentException("Retained partitions must not be negative");
+		}
+		this.partitionNanos = Math.multiplyExact(partitionSeconds, 1_000_000_000L);
+		this.retainedPartitions = retainedPartitions;
+		this.latestPartition = new AtomicLong(Long.MIN_VALUE);
+	}
+
+	@Override
+	public void saveStockTrade(StockTrade record) {
+		super.saveStockTrade(record);
+		applyRetention(StockUtils.toEpochNanos(record.getTimestamp()));
+	}
+
+	@Override
+	public void saveStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, TradeType type) {
+		super.saveStockTrade(stockSymbol, timestamp, quantity, priceTicks, type);
+		applyRetention(timestamp);
+	}
+
+	@Override
+	public void saveStockTrades(List<StockTrade> records) {
+		super.saveStockTrades(records);
+		long latest = Long.MIN_VALUE;
+		for (StockTrade record: records) {
+			latest = Math.max(latest, StockUtils.toEpochNanos(record.getTimestamp()));
+		}
+		if (!records.isEmpty()) {
+			applyRetention(latest);
+		}
+	}
+
+	@Override
+	public void resetStockTradeRecords() {
+		super.resetStockTradeRecords();
+		latestPartition.set(Long.MIN_VALUE);
+	}
+
+	/**
+	 * @return the start of the oldest retained partition, null if no trade has been recorded or all the partitions are kept
+	 */
+	public LocalDateTime getRetentionStart() {
+		long latest = latestPartition.get();
+		if (latest == Long.MIN_VALUE || retainedPartitions == 0) {
+			return null;
+		}
+		return StockUtils.fromEpochNanos((latest - retainedPartitions + 1) * partitionNanos);
+	}
+
+	/**
+	 * Removes the expired partitions if the trade opened a new one. The thread that moves the latest partition forward removes them
+	 * @param timestamp epoch-nanos of the recorded trade
+	 */
+	private void applyRetention(long timestamp) {
+		long partition = Math.floorDiv(timestamp, partitionNanos);
+		long latest = latestPartition.get();
+		while (partition > latest) {
+			if (latestPartition.compareAndSet(latest, partition)) {
+				if (retainedPartitions > 0) {
+					removeStockTradeRecords(StockUtils.fromEpochNanos((partition - retainedPartitions + 1) * partitionNanos));
+				}
+				return;
+			}
+			latest = latestPartition.get();
+		}
+	}
+
+}
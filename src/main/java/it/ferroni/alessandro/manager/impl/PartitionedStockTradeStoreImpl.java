@@ -0,0 +1,515 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Trade records are kept in time partitions of the given width, a trading day by default, aligned to the epoch in UTC.
+ * The latest partition is open and keeps its trades in a ColumnarStockTradeStoreImpl; when a trade of a later partition
+ * arrives it is sealed into exact-sized read only columns, without the spare capacity of the open one.
+ * Late trades of a sealed partition are inserted in a copy of it.
+ * Range selections only search the partitions overlapping the range, and selections across partitions
+ * are views on their columns, so no record is copied. Expired partitions are dropped whole by removeStockTrades.
+ *
+ * The partition list is published like the segments of the other stores: one writer at a time, readers without locks.
+ *
+ */
+public class PartitionedStockTradeStoreImpl implements StockTradeStore {
+
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+	private static final Partition[] NO_PARTITIONS = new Partition[0];
+	private static final SealedColumns NO_COLUMNS = new SealedColumns(0);
+
+	private final StockSymbols stockSymbol;
+	private final long partitionNanos;
+	//partitions ordered by key, only the last one can be open
+	private volatile Partition[] partitions;
+
+	public PartitionedStockTradeStoreImpl(StockSymbols stockSymbol) {
+		this(stockSymbol, ConfigurationConstants.TRADE_PARTITION_SECONDS);
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @param partitionSeconds width of the time partitions
+	 */
+	public PartitionedStockTradeStoreImpl(StockSymbols stockSymbol, long partitionSeconds) {
+		if (partitionSeconds <= 0) {
+			throw new IllegalArgumentException("Partition width must be positive");
+		}
+		this.stockSymbol = stockSymbol;
+		this.partitionNanos = Math.multiplyExact(partitionSeconds, 1_000_000_000L);
+		this.partitions = NO_PARTITIONS;
+	}
+
+	@Override
+	public void addStockTrade(StockTrade record) {
+		addStockTrade(StockUtils.toEpochNanos(record.getTimestamp()), record.getQuantity().longValue(),
+				StockUtils.toPriceTicks(record.getPrice()), (byte) record.getType().ordinal());
+	}
+
+	@Override
+	public void addStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, byte tradeType) {
+		addStockTrade(timestamp, quantity, priceTicks, tradeType);
+	}
+
+	/**
+	 * Adds a trade record given as primitive values
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param tradeType ordinal of the trade type
+	 */
+	public void addStockTrade(long timestamp, long quantity, long priceTicks, byte tradeType) {
+		Partition[] current = partitions;
+		int count = current.length;
+		long key = Math.floorDiv(timestamp, partitionNanos);
+		Partition last = count == 0 ? null : current[count - 1];
+
+		if (last != null && last.key == key && last.open != null) {
+			//trade of the open partition
+			last.open.addStockTrade(timestamp, quantity, priceTicks, tradeType);
+		}
+		else if (last == null || last.key < key) {
+			//trade of a new partition: the open one is sealed and a new one is opened
+			Partition[] rolled = Arrays.copyOf(current, count + 1);
+			if (last != null && last.open != null) {
+				rolled[count - 1] = new Partition(last.key, SealedColumns.copyOf(last.open.selectStockTradeColumns()));
+			}
+			ColumnarStockTradeStoreImpl open = new ColumnarStockTradeStoreImpl(stockSymbol);
+			open.addStockTrade(timestamp, quantity, priceTicks, tradeType);
+			rolled[count] = new Partition(key, open);
+			partitions = rolled;
+		}
+		else {
+			//late trade of a sealed partition: it is inserted in a copy of the partition, created if missing
+			int position = indexOfPartition(current, key);
+			Partition[] inserted;
+			if (position < count && current[position].key == key) {
+				inserted = current.clone();
+				inserted[position] = new Partition(key, current[position].sealed.insert(timestamp, quantity, priceTicks, tradeType));
+			}
+			else {
+				inserted = new Partition[count + 1];
+				System.arraycopy(current, 0, inserted, 0, position);
+				inserted[position] = new Partition(key, NO_COLUMNS.insert(timestamp, quantity, priceTicks, tradeType));
+				System.arraycopy(current, position, inserted, position + 1, count - position);
+			}
+			partitions = inserted;
+		}
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades() {
+		Partition[] current = partitions;
+		StockTradeColumns columns = selectColumns(current, 0, current.length);
+		return new StockTradeView(stockSymbol, columns, 0, columns.size());
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades(LocalDateTime startDate, LocalDateTime endDate) {
+		Partition[] current = partitions;
+		long startTimestamp = startDate == null ? 0 : StockUtils.toEpochNanos(startDate);
+		long endTimestamp = endDate == null ? 0 : StockUtils.toEpochNanos(endDate);
+
+		//only the partitions overlapping the range are searched
+		int fromPartition = startDate == null ? 0 : indexOfPartition(current, Math.floorDiv(startTimestamp, partitionNanos));
+		int toPartition = endDate == null ? current.length : indexOfPartition(current, Math.floorDiv(endTimestamp - 1, partitionNanos) + 1);
+		if (toPartition <= fromPartition) {
+			return Collections.emptyList();
+		}
+
+		StockTradeColumns columns = selectColumns(current, fromPartition, toPartition);
+		int fromIndex = startDate == null ? 0 : columns.indexOf(startTimestamp);
+		int toIndex = endDate == null ? columns.size() : columns.indexOf(endTimestamp);
+		if (toIndex < fromIndex) {
+			toIndex = fromIndex;
+		}
+		return new StockTradeView(stockSymbol, columns, fromIndex, toIndex);
+	}
+
+	@Override
+	public StockTradeColumns selectStockTradeColumns() {
+		Partition[] current = partitions;
+		return selectColumns(current, 0, current.length);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Partition partition: partitions) {
+			size += partition.size();
+		}
+		return size;
+	}
+
+	@Override
+	public int removeStockTrades(LocalDateTime endDate) {
+		Partition[] current = partitions;
+		long endTimestamp = StockUtils.toEpochNanos(endDate);
+		int removed = 0;
+		List<Partition> kept = new ArrayList<>(current.length);
+		for (Partition partition: current) {
+			long partitionStart = partition.key * partitionNanos;
+			if (partitionStart + partitionNanos <= endTimestamp) {
+				//expired partition: dropped whole
+				removed += partition.size();
+			}
+			else if (partitionStart < endTimestamp) {
+				//partition across the date: only its older trades are removed
+				if (partition.open != null) {
+					removed += partition.open.removeStockTrades(endDate);
+					kept.add(partition);
+				}
+				else {
+					int from = partition.sealed.indexOf(endTimestamp);
+					removed += from;
+					if (from < partition.sealed.size()) {
+						kept.add(new Partition(partition.key, SealedColumns.copyOf(partition.sealed, from)));
+					}
+				}
+			}
+			else {
+				kept.add(partition);
+			}
+		}
+		if (kept.size() < current.length || removed > 0) {
+			partitions = kept.toArray(NO_PARTITIONS);
+		}
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		partitions = NO_PARTITIONS;
+	}
+
+	/**
+	 * @return the stock symbol of the stored trades
+	 */
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	/**
+	 * @return the number of time partitions holding trades, the open one included
+	 */
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	/**
+	 * Gets the index of the first partition with a key greater than or equal to the given one
+	 * @param current
+	 * @param key
+	 * @return
+	 */
+	private static int indexOfPartition(Partition[] current, long key) {
+		int low = 0;
+		int high = current.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (current[middle].key < key) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Selects the columns of a range of partitions: the columns of the partition itself when there is only one
+	 */
+	private StockTradeColumns selectColumns(Partition[] current, int fromPartition, int toPartition) {
+		if (toPartition == fromPartition) {
+			return NO_COLUMNS;
+		}
+		if (toPartition - fromPartition == 1) {
+			return current[fromPartition].columns();
+		}
+		return new PartitionedColumns(partitionNanos, current, fromPartition, toPartition);
+	}
+
+	/**
+	 * Time partition: open while it receives trades in order, then sealed
+	 */
+	private static class Partition {
+
+		private final long key;
+		private final ColumnarStockTradeStoreImpl open;
+		private final SealedColumns sealed;
+
+		Partition(long key, ColumnarStockTradeStoreImpl open) {
+			this.key = key;
+			this.open = open;
+			this.sealed = null;
+		}
+
+		Partition(long key, SealedColumns sealed) {
+			this.key = key;
+			this.open = null;
+			this.sealed = sealed;
+		}
+
+		StockTradeColumns columns() {
+			return open != null ? open.selectStockTradeColumns() : sealed;
+		}
+
+		int size() {
+			return open != null ? open.size() : sealed.size();
+		}
+	}
+
+	/**
+	 * Exact-sized read only columns of a sealed partition
+	 */
+	private static class SealedColumns implements StockTradeColumns {
+
+		private final long[] timestamps;
+		private final long[] quantities;
+		private final long[] priceTicks;
+		private final byte[] tradeTypes;
+
+		SealedColumns(int size) {
+			timestamps = new long[size];
+			quantities = new long[size];
+			priceTicks = new long[size];
+			tradeTypes = new byte[size];
+		}
+
+		static SealedColumns copyOf(StockTradeColumns source) {
+			return copyOf(source, 0);
+		}
+
+		static SealedColumns copyOf(StockTradeColumns source, int fromIndex) {
+			SealedColumns copy = new SealedColumns(source.size() - fromIndex);
+			for (int index = 0; index < copy.size(); index++) {
+				copy.set(index, source.getTimestamp(fromIndex + index), source.getQuantity(fromIndex + index),
+						source.getPriceTicks(fromIndex + index), source.getTradeType(fromIndex + index));
+			}
+			return copy;
+		}
+
+		/**
+		 * @return a copy of the columns with the given trade inserted after the trades with the same timestamp
+		 */
+		SealedColumns insert(long timestamp, long quantity, long price, byte tradeType) {
+			int count = size();
+			int position = indexOf(timestamp + 1);
+			SealedColumns inserted = new SealedColumns(count + 1);
+			inserted.copyFrom(this, 0, 0, position);
+			inserted.set(position, timestamp, quantity, price, tradeType);
+			inserted.copyFrom(this, position, position + 1, count - position);
+			return inserted;
+		}
+
+		private void set(int index, long timestamp, long quantity, long price, byte tradeType) {
+			timestamps[index] = timestamp;
+			quantities[index] = quantity;
+			priceTicks[index] = price;
+			tradeTypes[index] = tradeType;
+		}
+
+		private void copyFrom(SealedColumns source, int sourceIndex, int index, int length) {
+			System.arraycopy(source.timestamps, sourceIndex, timestamps, index, length);
+			System.arraycopy(source.quantities, sourceIndex, quantities, index, length);
+			System.arraycopy(source.priceTicks, sourceIndex, priceTicks, index, length);
+			System.arraycopy(source.tradeTypes, sourceIndex, tradeTypes, index, length);
+		}
+
+		@Override
+		public int size() {
+			return timestamps.length;
+		}
+
+		@Override
+		public int indexOf(long timestamp) {
+			int low = 0;
+			int high = timestamps.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (timestamps[middle] < timestamp) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		@Override
+		public long getTimestamp(int index) {
+			return timestamps[index];
+		}
+
+		@Override
+		public long getQuantity(int index) {
+			return quantities[index];
+		}
+
+		@Override
+		public long getPriceTicks(int index) {
+			return priceTicks[index];
+		}
+
+		@Override
+		public byte getTradeType(int index) {
+			return tradeTypes[index];
+		}
+	}
+
+	/**
+	 * Primitive view on the columns of consecutive partitions, indexed as a single sequence of trades
+	 */
+	private static class PartitionedColumns implements StockTradeColumns {
+
+		private final long partitionNanos;
+		private final long[] keys;
+		private final StockTradeColumns[] columns;
+		//index of the first trade of each partition, followed by the total size
+		private final int[] offsets;
+		//partition of the last read trade: trades are usually read in order
+		private int lastPartition;
+
+		PartitionedColumns(long partitionNanos, Partition[] partitions, int fromPartition, int toPartition) {
+			int count = toPartition - fromPartition;
+			this.partitionNanos = partitionNanos;
+			this.keys = new long[count];
+			this.columns = new StockTradeColumns[count];
+			this.offsets = new int[count + 1];
+			for (int partition = 0; partition < count; partition++) {
+				keys[partition] = partitions[fromPartition + partition].key;
+				columns[partition] = partitions[fromPartition + partition].columns();
+				offsets[partition + 1] = offsets[partition] + columns[partition].size();
+			}
+		}
+
+		private int partitionOf(int index) {
+			int partition = lastPartition;
+			if (index < offsets[partition] || index >= offsets[partition + 1]) {
+				if (index < 0 || index >= offsets[columns.length]) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + offsets[columns.length]);
+				}
+				//last partition starting at or before the index, so empty partitions are skipped
+				int low = 0;
+				int high = columns.length;
+				while (low < high) {
+					int middle = (low + high) >>> 1;
+					if (offsets[middle] <= index) {
+						low = middle + 1;
+					}
+					else {
+						high = middle;
+					}
+				}
+				partition = low - 1;
+				lastPartition = partition;
+			}
+			return partition;
+		}
+
+		@Override
+		public int size() {
+			return offsets[columns.length];
+		}
+
+		@Override
+		public int indexOf(long timestamp) {
+			long key = Math.floorDiv(timestamp, partitionNanos);
+			int low = 0;
+			int high = keys.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (keys[middle] < key) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			if (low < keys.length && keys[low] == key) {
+				return offsets[low] + columns[low].indexOf(timestamp);
+			}
+			return offsets[low];
+		}
+
+		@Override
+		public long getTimestamp(int index) {
+			int partition = partitionOf(index);
+			return columns[partition].getTimestamp(index - offsets[partition]);
+		}
+
+		@Override
+		public long getQuantity(int index) {
+			int partition = partitionOf(index);
+			return columns[partition].getQuantity(index - offsets[partition]);
+		}
+
+		@Override
+		public long getPriceTicks(int index) {
+			int partition = partitionOf(index);
+			return columns[partition].getPriceTicks(index - offsets[partition]);
+		}
+
+		@Override
+		public byte getTradeType(int index) {
+			int partition = partitionOf(index);
+			return columns[partition].getTradeType(index - offsets[partition]);
+		}
+	}
+
+	/**
+	 * Read only view on a range of trade columns, building a StockTrade for each read record
+	 */
+	private static class StockTradeView extends AbstractList<StockTrade> implements RandomAccess {
+
+		private final StockSymbols stockSymbol;
+		private final StockTradeColumns columns;
+		private final int fromIndex;
+		private final int toIndex;
+
+		StockTradeView(StockSymbols stockSymbol, StockTradeColumns columns, int fromIndex, int toIndex) {
+			this.stockSymbol = stockSymbol;
+			this.columns = columns;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		public StockTrade get(int index) {
+			if (index < 0 || index >= toIndex - fromIndex) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (toIndex - fromIndex));
+			}
+			int position = fromIndex + index;
+			return new StockTrade(stockSymbol, StockUtils.fromEpochNanos(columns.getTimestamp(position)), columns.getQuantity(position),
+					StockUtils.fromPriceTicks(columns.getPriceTicks(position)), TRADE_TYPES[columns.getTradeType(position)]);
+		}
+
+		@Override
+		public int size() {
+			return toIndex - fromIndex;
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import it.ferroni.alessandro.constants.BarResolution;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.models.StockBar;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * OHLCV bars of a stock symbol at one resolution: the open bar and a ring with the last completed bars.
+ * Trades are added by the lane writer only. Readers do not lock: bars are immutable, the open bar is volatile
+ * and the ring is read again if the writer overwrote the bars being read.
+ * Trades of a bar that is already completed are not added, since the bar has been delivered
+ *
+ */
+class StockBarSeries {
+
+	private static final int INITIAL_RING_LENGTH = 16;
+
+	private final StockSymbols stockSymbol;
+	private final BarResolution resolution;
+	private final int historySize;
+	//ring of completed bars: it grows with the bars up to one slot more than the history,
+	//the slot written while the oldest bar of the history can still be read
+	private volatile AtomicReferenceArray<StockBar> completedBars;
+
+	//number of bars completed since the last clear: the last one is at (completedCount - 1) % ring length
+	private volatile long completedCount;
+	private volatile StockBar openBar;
+
+	StockBarSeries(StockSymbols stockSymbol, BarResolution resolution, int historySize) {
+		this.stockSymbol = stockSymbol;
+		this.resolution = resolution;
+		this.historySize = historySize;
+		this.completedBars = new AtomicReferenceArray<>(Math.min(INITIAL_RING_LENGTH, historySize + 1));
+	}
+
+	/**
+	 * Adds a trade to its bar
+	 * @param timestamp
+	 * @param quantity
+	 * @param price
+	 * @return the bar completed by the trade, null if none
+	 */
+	StockBar add(LocalDateTime timestamp, long quantity, BigDecimal price) {
+		long epochSecond = timestamp.toEpochSecond(ZoneOffset.UTC);
+		long startSecond = epochSecond - Math.floorMod(epochSecond, resolution.getSeconds());
+		StockBar bar = openBar;
+		if (bar == null) {
+			openBar = new StockBar(stockSymbol, resolution, LocalDateTime.ofEpochSecond(startSecond, 0, ZoneOffset.UTC), quantity, price);
+			return null;
+		}
+
+		long openStartSecond = bar.getStartTime().toEpochSecond(ZoneOffset.UTC);
+		if (startSecond == openStartSecond) {
+			openBar = bar.add(quantity, price);
+			return null;
+		}
+		if (startSecond < openStartSecond) {
+			//late trade of a completed bar
+			return null;
+		}
+
+		//the trade opens a new bar: the open one is completed
+		long count = completedCount;
+		AtomicReferenceArray<StockBar> ring = completedBars;
+		if (count == ring.length() && ring.length() < historySize + 1) {
+			//the ring has not wrapped yet, so the bars keep their slots in the grown ring
+			AtomicReferenceArray<StockBar> grown = new AtomicReferenceArray<>((int) Math.min(ring.length() * 2L, historySize + 1L));
+			for (int index = 0; index < ring.length(); index++) {
+				grown.set(index, ring.get(index));
+			}
+			completedBars = grown;
+			ring = grown;
+		}
+		ring.set((int) (count % ring.length()), bar);
+		completedCount = count + 1;
+		openBar = new StockBar(stockSymbol, resolution, LocalDateTime.ofEpochSecond(startSecond, 0, ZoneOffset.UTC), quantity, price);
+		return bar;
+	}
+
+	/**
+	 * Removes all the bars. Called by the lane writer
+	 */
+	void clear() {
+		openBar = null;
+		completedCount = 0;
+		completedBars = new AtomicReferenceArray<>(Math.min(INITIAL_RING_LENGTH, historySize + 1));
+	}
+
+	StockBar getOpenBar() {
+		return openBar;
+	}
+
+	/**
+	 * @return the completed bars in the history, oldest first
+	 */
+	List<StockBar> selectCompletedBars() {
+		while (true) {
+			//the ring is read after the count, so it holds at least count bars
+			long count = completedCount;
+			AtomicReferenceArray<StockBar> ring = completedBars;
+			long first = Math.max(0, count - historySize);
+			List<StockBar> bars = new ArrayList<>((int) (count - first));
+			for (long index = first; index < count; index++) {
+				bars.add(ring.get((int) (index % ring.length())));
+			}
+			//the writer overwrites the oldest bars first: if it did not reach the first one read, all the bars are valid.
+			//The bar of index newCount can already be written, so it must not be in the slot of the first one
+			long newCount = completedCount;
+			if (newCount >= count && newCount - first < ring.length()) {
+				return bars;
+			}
+		}
+	}
+
+}
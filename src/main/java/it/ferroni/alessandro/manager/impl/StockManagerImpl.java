@@ -1,61 +1,152 @@
 package it.ferroni.alessandro.manager.impl;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
+import it.ferroni.alessandro.constants.BarResolution;
+import it.ferroni.alessandro.constants.ConfigurationConstants;
 import it.ferroni.alessandro.constants.StockSymbols;
 import it.ferroni.alessandro.constants.StockType;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockBarListener;
 import it.ferroni.alessandro.manager.StockManager;
+import it.ferroni.alessandro.manager.StockTickerPriceListener;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.StockTradeStore;
 import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockBar;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockPriceLogSum;
+import it.ferroni.alessandro.models.StockPriceWindowSum;
+import it.ferroni.alessandro.models.StockTickerPrice;
 import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.models.StockTradeBucket;
 import it.ferroni.alessandro.utils.StockUtils;
 
 /**
  * @author Alessandro Ferroni
  *
+ * All per-symbol data is kept in tables indexed by the symbol id, so lookups do not depend on the number of symbols.
+ * Trades are recorded in one writer lane per stock symbol, so trades of different symbols can be recorded in parallel.
+ * Each lane also builds the OHLCV bars of its symbol and delivers the completed ones to the bar listeners.
+ * Selections never block writers. Lanes of symbols registered after the manager was created are created on first use.
+ * The trade store of each lane is created by the given factory: StockTradeStoreImpl keeps StockTrade objects,
+ * ColumnarStockTradeStoreImpl keeps primitive columns.
+ *
  */
 public class StockManagerImpl implements StockManager {
 	
-	private TreeMap<StockSymbols, BigDecimal> stockTickerPrices;
-	private List<Stock> stockTable;
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+	
+	private final StockSymbolTable<Stock> stockTable;
+	private final StockSymbolTable<StockTickerPrice> stockTickerPrices;
+	private final List<StockTickerPriceListener> tickerPriceListeners;
+	private final List<StockBarListener> stockBarListeners;
 	
-	private TreeMap<StockSymbols, BigDecimal> dividendYieldMap;
-	private TreeMap<StockSymbols, BigDecimal> stockPERatingMap;
-	private TreeMap<StockSymbols, List<StockTrade>> stockTradeRecordsMap;
+	private final StockSymbolTable<BigDecimal> dividendYieldMap;
+	private final StockSymbolTable<BigDecimal> stockPERatingMap;
+	private final StockSymbolTable<StockTradeLane> stockTradeLanes;
+	private final Function<StockSymbols, StockTradeLane> stockTradeLaneFactory;
 	
 	public StockManagerImpl() {
-		//inizialize stock ticker prices
-		stockTickerPrices = new TreeMap<>();
-		stockTickerPrices.put(StockSymbols.TEA, StockUtils.getRandomPrice());
-		stockTickerPrices.put(StockSymbols.POP, StockUtils.getRandomPrice());
-		stockTickerPrices.put(StockSymbols.ALE, StockUtils.getRandomPrice());
-		stockTickerPrices.put(StockSymbols.GIN, StockUtils.getRandomPrice());
-		stockTickerPrices.put(StockSymbols.JOE, StockUtils.getRandomPrice());
+		this(stockSymbol -> new StockTradeStoreImpl());
+	}
+	
+	public StockManagerImpl(Function<StockSymbols, StockTradeStore> stockTradeStoreFactory) {
+		this(stockTradeStoreFactory, ConfigurationConstants.STOCK_PRICE_WINDOW_SECONDS);
+	}
+	
+	/**
+	 * @param stockTradeStoreFactory creates the trade store of each symbol
+	 * @param priceWindowSeconds width of the sliding window of the current stock prices
+	 */
+	public StockManagerImpl(Function<StockSymbols, StockTradeStore> stockTradeStoreFactory, long priceWindowSeconds) {
+		//initialize stock table and stock ticker prices
+		stockTable = new StockSymbolTable<>();
+		stockTickerPrices = new StockSymbolTable<>();
+		tickerPriceListeners = new CopyOnWriteArrayList<>();
+		stockBarListeners = new CopyOnWriteArrayList<>();
+		saveStock(new Stock(StockSymbols.TEA, StockType.COMMON, new BigDecimal(0.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(100)), StockUtils.getRandomPrice());
+		saveStock(new Stock(StockSymbols.POP, StockType.COMMON, new BigDecimal(8.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(100)), StockUtils.getRandomPrice());
+		saveStock(new Stock(StockSymbols.ALE, StockType.COMMON, new BigDecimal(23.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(60)), StockUtils.getRandomPrice());
+		saveStock(new Stock(StockSymbols.GIN, StockType.PREFERRED, new BigDecimal(8.0).setScale(7,  RoundingMode.HALF_EVEN), new BigDecimal(0.02).setScale(2,  RoundingMode.HALF_EVEN), new Long(100)), StockUtils.getRandomPrice());
+		saveStock(new Stock(StockSymbols.JOE, StockType.COMMON, new BigDecimal(13.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(250)), StockUtils.getRandomPrice());
 		
-		//initialize stock table
-		stockTable = new ArrayList<>();
-		stockTable.add(new Stock(StockSymbols.TEA, StockType.COMMON, new BigDecimal(0.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(100)));
-		stockTable.add(new Stock(StockSymbols.POP, StockType.COMMON, new BigDecimal(8.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(100)));
-		stockTable.add(new Stock(StockSymbols.ALE, StockType.COMMON, new BigDecimal(23.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(60)));
-		stockTable.add(new Stock(StockSymbols.GIN, StockType.PREFERRED, new BigDecimal(8.0).setScale(7,  RoundingMode.HALF_EVEN), new BigDecimal(0.02).setScale(2,  RoundingMode.HALF_EVEN), new Long(100)));
-		stockTable.add(new Stock(StockSymbols.JOE, StockType.COMMON, new BigDecimal(13.0).setScale(7,  RoundingMode.HALF_EVEN), null, new Long(250)));
+		dividendYieldMap = new StockSymbolTable<>();
+		stockPERatingMap = new StockSymbolTable<>();
 		
-		dividendYieldMap = new TreeMap<>();
-		stockPERatingMap = new TreeMap<>();
-		stockTradeRecordsMap = new TreeMap<>();
+		//initialize one trade lane for each registered stock symbol, so existing trades are loaded now
+		stockTradeLanes = new StockSymbolTable<>();
+		stockTradeLaneFactory = stockSymbol -> new StockTradeLane(stockSymbol, stockTradeStoreFactory.apply(stockSymbol), priceWindowSeconds, stockBarListeners);
+		for (StockSymbols stockSymbol: StockSymbols.values()) {
+			stockTradeLanes.computeIfAbsent(stockSymbol, stockTradeLaneFactory);
+		}
 	}
 	
 	@Override
 	public List<Stock> selectStockTable() {
-		return this.stockTable;
+		return new ArrayList<>(this.stockTable.toTreeMap().values());
+	}
+	
+	@Override
+	public Stock selectStock(StockSymbols stockSymbol) {
+		return this.stockTable.get(stockSymbol);
+	}
+	
+	@Override
+	public void saveStock(Stock stock, BigDecimal tickerPrice) {
+		this.stockTable.put(stock.getStockSymbol(), stock);
+		if (tickerPrice != null) {
+			updateTickerPrice(new StockTickerPrice(stock.getStockSymbol(), tickerPrice));
+		}
 	}
 	
 	@Override
 	public TreeMap<StockSymbols, BigDecimal> selectTickerPrices() {
-		return this.stockTickerPrices;
+		return this.stockTickerPrices.toTreeMap(StockTickerPrice::getPrice);
+	}
+	
+	@Override
+	public StockTickerPrice selectTickerPrice(StockSymbols stockSymbol) {
+		return this.stockTickerPrices.get(stockSymbol);
+	}
+	
+	@Override
+	public boolean updateTickerPrice(StockTickerPrice tickerPrice) {
+		StockTickerPrice previous;
+		//the comparison and the publication are atomic, so each change is notified once
+		synchronized (stockTickerPrices) {
+			previous = this.stockTickerPrices.get(tickerPrice.getStockSymbol());
+			if (previous != null && previous.getPrice().compareTo(tickerPrice.getPrice()) == 0) {
+				return false;
+			}
+			this.stockTickerPrices.put(tickerPrice.getStockSymbol(), tickerPrice);
+		}
+		
+		for (StockTickerPriceListener listener: tickerPriceListeners) {
+			listener.tickerPriceChanged(previous, tickerPrice);
+		}
+		return true;
+	}
+	
+	@Override
+	public void addTickerPriceListener(StockTickerPriceListener listener) {
+		tickerPriceListeners.add(listener);
+	}
+	
+	@Override
+	public void removeTickerPriceListener(StockTickerPriceListener listener) {
+		tickerPriceListeners.remove(listener);
 	}
 	
 	@Override
@@ -65,7 +156,7 @@ public class StockManagerImpl implements StockManager {
 	
 	@Override
 	public TreeMap<StockSymbols, BigDecimal> selectDividendYield() {
-		return this.dividendYieldMap;
+		return this.dividendYieldMap.toTreeMap();
 	}
 	
 
@@ -76,30 +167,171 @@ public class StockManagerImpl implements StockManager {
 
 	@Override
 	public TreeMap<StockSymbols, BigDecimal> selectStockPERating() {
-		return this.stockPERatingMap;
+		return this.stockPERatingMap.toTreeMap();
 	}
 	
 	@Override
 	public void saveStockTrade(StockTrade record) {
-		if (stockTradeRecordsMap == null) {
-			stockTradeRecordsMap = new TreeMap<>();
+		selectStockTradeLane(record.getStockSymbol()).addStockTrade(record);
+	}
+	
+	@Override
+	public void saveStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, TradeType type) {
+		selectStockTradeLane(stockSymbol).addStockTrade(timestamp, quantity, priceTicks, type);
+	}
+	
+	@Override
+	public void saveStockTrades(List<StockTrade> records) {
+		//split the batch by lane, so each lane is locked once
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		List<StockTrade>[] laneRecords = new List[StockSymbols.count()];
+		for (StockTrade record: records) {
+			int lane = record.getStockSymbol().getId();
+			if (laneRecords[lane] == null) {
+				laneRecords[lane] = new ArrayList<>();
+			}
+			laneRecords[lane].add(record);
 		}
-		List<StockTrade> stockTradeRecords = stockTradeRecordsMap.get(record.getStockSymbol());
-		if (stockTradeRecords == null) {
-			stockTradeRecords = new ArrayList<>();
+		for (int lane = 0; lane < laneRecords.length; lane++) {
+			if (laneRecords[lane] != null) {
+				selectStockTradeLane(StockSymbols.fromId(lane)).addStockTrades(laneRecords[lane]);
+			}
 		}
-		stockTradeRecords.add(record);
-		stockTradeRecordsMap.put(record.getStockSymbol(), stockTradeRecords);
 	}
 	
 	@Override
 	public TreeMap<StockSymbols, List<StockTrade>> selectStockTradeRecords() {
-		return this.stockTradeRecordsMap;
+		TreeMap<StockSymbols, List<StockTrade>> stockTradeRecordsMap = new TreeMap<>();
+		for (int lane = 0; lane < stockTradeLanes.length(); lane++) {
+			StockTradeLane stockTradeLane = stockTradeLanes.get(lane);
+			if (stockTradeLane == null) {
+				continue;
+			}
+			List<StockTrade> stockTradeRecords = stockTradeLane.getStockTradeStore().selectStockTrades();
+			if (!stockTradeRecords.isEmpty()) {
+				stockTradeRecordsMap.put(stockTradeLane.getStockSymbol(), stockTradeRecords);
+			}
+		}
+		return stockTradeRecordsMap;
+	}
+	
+	@Override
+	public List<StockTrade> selectStockTrades(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) {
+		if (stockSymbol == null) {
+			return Collections.emptyList();
+		}
+		return selectStockTradeLane(stockSymbol).getStockTradeStore().selectStockTrades(startDate, endDate);
 	}
 	
+	@Override
+	public Collection<StockTradeBucket> selectStockTradeBuckets(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) {
+		if (stockSymbol == null) {
+			return Collections.emptyList();
+		}
+		return selectStockTradeLane(stockSymbol).selectStockTradeBuckets(startDate, endDate);
+	}
+	
+	@Override
+	public StockTradeColumns selectStockTradeColumns(StockSymbols stockSymbol) {
+		return selectStockTradeLane(stockSymbol).getStockTradeStore().selectStockTradeColumns();
+	}
+	
+	@Override
+	public StockPriceLogSum selectStockPriceLogSum(StockSymbols stockSymbol) {
+		if (stockSymbol == null) {
+			return StockPriceLogSum.EMPTY;
+		}
+		return selectStockTradeLane(stockSymbol).selectStockPriceLogSum();
+	}
+	
+	@Override
+	public StockPriceWindowSum selectStockPriceWindowSum(StockSymbols stockSymbol) {
+		return selectStockTradeLane(stockSymbol).selectStockPriceWindowSum();
+	}
+	
+	@Override
+	public StockOrderFlow selectStockOrderFlow(StockSymbols stockSymbol) {
+		return selectStockTradeLane(stockSymbol).selectStockOrderFlow();
+	}
+	
+	@Override
+	public List<StockBar> selectStockBars(StockSymbols stockSymbol, BarResolution resolution) {
+		return selectStockTradeLane(stockSymbol).selectStockBars(resolution);
+	}
+	
+	@Override
+	public StockBar selectOpenStockBar(StockSymbols stockSymbol, BarResolution resolution) {
+		return selectStockTradeLane(stockSymbol).selectOpenStockBar(resolution);
+	}
+	
+	@Override
+	public void addStockBarListener(StockBarListener listener) {
+		stockBarListeners.add(listener);
+	}
+	
+	@Override
+	public void removeStockBarListener(StockBarListener listener) {
+		stockBarListeners.remove(listener);
+	}
+	
+	@Override
+	public long exportStockTradeSnapshot(Path file) throws IOException {
+		//every store publishes a consistent view of its trades
+		List<StockSymbols> stockSymbols = new ArrayList<>();
+		List<StockTradeColumns> stockTradeColumns = new ArrayList<>();
+		for (int lane = 0; lane < stockTradeLanes.length(); lane++) {
+			StockTradeLane stockTradeLane = stockTradeLanes.get(lane);
+			if (stockTradeLane != null) {
+				StockTradeColumns columns = stockTradeLane.getStockTradeStore().selectStockTradeColumns();
+				if (columns.size() > 0) {
+					stockSymbols.add(stockTradeLane.getStockSymbol());
+					stockTradeColumns.add(columns);
+				}
+			}
+		}
+		return StockTradeSnapshot.write(file, stockSymbols, stockTradeColumns);
+	}
+	
+	@Override
+	public long importStockTradeSnapshot(Path file) throws IOException {
+		return StockTradeSnapshot.read(file, (stockSymbol, count, timestamps, quantities, priceTicks, tradeTypes) -> {
+			List<StockTrade> records = new ArrayList<>(count);
+			for (int index = 0; index < count; index++) {
+				records.add(new StockTrade(stockSymbol, StockUtils.fromEpochNanos(timestamps[index]), quantities[index],
+						StockUtils.fromPriceTicks(priceTicks[index]), TRADE_TYPES[tradeTypes[index]]));
+			}
+			selectStockTradeLane(stockSymbol).addStockTrades(records);
+		});
+	}
+	
+	@Override
+	public long removeStockTradeRecords(LocalDateTime endDate) {
+		long removed = 0;
+		for (int lane = 0; lane < stockTradeLanes.length(); lane++) {
+			StockTradeLane stockTradeLane = stockTradeLanes.get(lane);
+			if (stockTradeLane != null) {
+				removed += stockTradeLane.removeStockTrades(endDate);
+			}
+		}
+		return removed;
+	}
+
 	@Override
 	public void resetStockTradeRecords() {
-		this.stockTradeRecordsMap.clear();
+		for (int lane = 0; lane < stockTradeLanes.length(); lane++) {
+			StockTradeLane stockTradeLane = stockTradeLanes.get(lane);
+			if (stockTradeLane != null) {
+				stockTradeLane.clear();
+			}
+		}
+	}
+	
+	/**
+	 * @param stockSymbol
+	 * @return the trade lane of the given symbol, created if the symbol has none yet
+	 */
+	private StockTradeLane selectStockTradeLane(StockSymbols stockSymbol) {
+		return stockTradeLanes.computeIfAbsent(stockSymbol, stockTradeLaneFactory);
 	}
 
 }
@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockPriceWindowSum;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Running sums of the trades of a symbol in a sliding window that ends with the bucket of the most recent trade,
+ * so the window follows the trade timestamps rather than the clock of the process.
+ * Buckets are kept in a ring: a trade in a new bucket evicts the buckets that left the window and subtracts them
+ * from the window sums, so adding a trade and reading the sums do not depend on the number of trades.
+ * Buy trades are also summed apart: the sell sums are the window sums minus the buy ones.
+ * Trades older than the window are not added. Written by the lane writer only, read optimistically
+ *
+ */
+class StockPriceWindow {
+
+	private final StockSymbols stockSymbol;
+	private final int bucketCount;
+
+	//ring of bucket sums, indexed by bucket number modulo bucketCount. Empty buckets have a null price sum
+	private final long[] quantitySums;
+	private final BigDecimal[] quantityPriceSums;
+	private final long[] buyQuantitySums;
+	private final BigDecimal[] buyQuantityPriceSums;
+
+	private final StampedLock lock;
+	//number of the most recent bucket, Long.MIN_VALUE if the window is empty
+	private long lastBucketNumber;
+	private long quantitySum;
+	private BigDecimal quantityPriceSum;
+	private long buyQuantitySum;
+	private BigDecimal buyQuantityPriceSum;
+
+	/**
+	 * @param stockSymbol
+	 * @param windowSeconds width of the window, rounded up to whole buckets
+	 */
+	StockPriceWindow(StockSymbols stockSymbol, long windowSeconds) {
+		this.stockSymbol = stockSymbol;
+		this.bucketCount = (int) Math.max(1, (windowSeconds + ConfigurationConstants.TRADE_BUCKET_SECONDS - 1) / ConfigurationConstants.TRADE_BUCKET_SECONDS);
+		this.quantitySums = new long[bucketCount];
+		this.quantityPriceSums = new BigDecimal[bucketCount];
+		this.buyQuantitySums = new long[bucketCount];
+		this.buyQuantityPriceSums = new BigDecimal[bucketCount];
+		this.lock = new StampedLock();
+		reset();
+	}
+
+	/**
+	 * Adds a trade to the window
+	 * @param timestamp
+	 * @param quantity
+	 * @param price
+	 * @param buy true for a buy trade, false for a sell one
+	 */
+	void add(LocalDateTime timestamp, long quantity, BigDecimal price, boolean buy) {
+		long bucketNumber = Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), ConfigurationConstants.TRADE_BUCKET_SECONDS);
+		if (lastBucketNumber != Long.MIN_VALUE && bucketNumber <= lastBucketNumber - bucketCount) {
+			//the trade is older than the window
+			return;
+		}
+		BigDecimal quantityPrice = price.multiply(BigDecimal.valueOf(quantity));
+
+		long stamp = lock.writeLock();
+		try {
+			if (bucketNumber > lastBucketNumber) {
+				//evict the buckets that leave the window: at most the whole ring
+				long evictedFrom = lastBucketNumber == Long.MIN_VALUE ? bucketNumber : Math.max(lastBucketNumber + 1, bucketNumber - bucketCount + 1);
+				for (long evicted = evictedFrom; evicted <= bucketNumber; evicted++) {
+					int slot = (int) Math.floorMod(evicted, (long) bucketCount);
+					if (quantityPriceSums[slot] != null) {
+						quantitySum -= quantitySums[slot];
+						quantityPriceSum = quantityPriceSum.subtract(quantityPriceSums[slot]);
+						buyQuantitySum -= buyQuantitySums[slot];
+						buyQuantityPriceSum = buyQuantityPriceSum.subtract(buyQuantityPriceSums[slot]);
+					}
+					quantitySums[slot] = 0;
+					quantityPriceSums[slot] = null;
+					buyQuantitySums[slot] = 0;
+					buyQuantityPriceSums[slot] = BigDecimal.ZERO;
+				}
+				lastBucketNumber = bucketNumber;
+			}
+
+			int slot = (int) Math.floorMod(bucketNumber, (long) bucketCount);
+			quantitySums[slot] += quantity;
+			quantityPriceSums[slot] = quantityPriceSums[slot] == null ? quantityPrice : quantityPriceSums[slot].add(quantityPrice);
+			quantitySum += quantity;
+			quantityPriceSum = quantityPriceSum.add(quantityPrice);
+			if (buy) {
+				buyQuantitySums[slot] += quantity;
+				buyQuantityPriceSums[slot] = buyQuantityPriceSums[slot].add(quantityPrice);
+				buyQuantitySum += quantity;
+				buyQuantityPriceSum = buyQuantityPriceSum.add(quantityPrice);
+			}
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes all the trades from the window
+	 */
+	void clear() {
+		long stamp = lock.writeLock();
+		try {
+			reset();
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @return the sums of the trades in the window
+	 */
+	StockPriceWindowSum selectSum() {
+		long stamp = lock.tryOptimisticRead();
+		long bucketNumber = lastBucketNumber;
+		long quantity = quantitySum;
+		BigDecimal quantityPrice = quantityPriceSum;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				bucketNumber = lastBucketNumber;
+				quantity = quantitySum;
+				quantityPrice = quantityPriceSum;
+			}
+			finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if (bucketNumber == Long.MIN_VALUE) {
+			return new StockPriceWindowSum(stockSymbol, null, null, 0, BigDecimal.ZERO);
+		}
+		LocalDateTime startTime = LocalDateTime.ofEpochSecond((bucketNumber - bucketCount + 1) * ConfigurationConstants.TRADE_BUCKET_SECONDS, 0, ZoneOffset.UTC);
+		LocalDateTime endTime = LocalDateTime.ofEpochSecond((bucketNumber + 1) * ConfigurationConstants.TRADE_BUCKET_SECONDS, 0, ZoneOffset.UTC);
+		return new StockPriceWindowSum(stockSymbol, startTime, endTime, quantity, quantityPrice);
+	}
+
+	/**
+	 * @return the buy and sell sums of the trades in the window
+	 */
+	StockOrderFlow selectOrderFlow() {
+		long stamp = lock.tryOptimisticRead();
+		long bucketNumber = lastBucketNumber;
+		long quantity = quantitySum;
+		BigDecimal quantityPrice = quantityPriceSum;
+		long buyQuantity = buyQuantitySum;
+		BigDecimal buyQuantityPrice = buyQuantityPriceSum;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				bucketNumber = lastBucketNumber;
+				quantity = quantitySum;
+				quantityPrice = quantityPriceSum;
+				buyQuantity = buyQuantitySum;
+				buyQuantityPrice = buyQuantityPriceSum;
+			}
+			finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if (bucketNumber == Long.MIN_VALUE) {
+			return new StockOrderFlow(stockSymbol, null, null, 0, BigDecimal.ZERO, 0, BigDecimal.ZERO);
+		}
+		LocalDateTime startTime = LocalDateTime.ofEpochSecond((bucketNumber - bucketCount + 1) * ConfigurationConstants.TRADE_BUCKET_SECONDS, 0, ZoneOffset.UTC);
+		LocalDateTime endTime = LocalDateTime.ofEpochSecond((bucketNumber + 1) * ConfigurationConstants.TRADE_BUCKET_SECONDS, 0, ZoneOffset.UTC);
+		return new StockOrderFlow(stockSymbol, startTime, endTime, buyQuantity, buyQuantityPrice, quantity - buyQuantity, quantityPrice.subtract(buyQuantityPrice));
+	}
+
+	/**
+	 * Empties the ring and the sums. Called holding the write lock or from the constructor
+	 */
+	private void reset() {
+		Arrays.fill(quantitySums, 0);
+		Arrays.fill(quantityPriceSums, null);
+		Arrays.fill(buyQuantitySums, 0);
+		Arrays.fill(buyQuantityPriceSums, BigDecimal.ZERO);
+		lastBucketNumber = Long.MIN_VALUE;
+		quantitySum = 0;
+		quantityPriceSum = BigDecimal.ZERO;
+		buyQuantitySum = 0;
+		buyQuantityPriceSum = BigDecimal.ZERO;
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Per-symbol values in an array indexed by the symbol id, which grows with the registered symbols.
+ * Writes are synchronized, reads are lock-free: each value is published atomically
+ *
+ */
+class StockSymbolTable<T> {
+
+	private volatile AtomicReferenceArray<T> values;
+
+	StockSymbolTable() {
+		this.values = new AtomicReferenceArray<>(Math.max(StockSymbols.count(), 1));
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @return the value of the given symbol, null if it has none
+	 */
+	T get(StockSymbols stockSymbol) {
+		AtomicReferenceArray<T> values = this.values;
+		int id = stockSymbol.getId();
+		return id < values.length() ? values.get(id) : null;
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @param value
+	 * @return the previous value of the given symbol, null if it had none
+	 */
+	synchronized T put(StockSymbols stockSymbol, T value) {
+		return ensureCapacity(stockSymbol.getId()).getAndSet(stockSymbol.getId(), value);
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @param valueFactory creates the value if the symbol has none, called once per symbol
+	 * @return the value of the given symbol
+	 */
+	T computeIfAbsent(StockSymbols stockSymbol, Function<StockSymbols, T> valueFactory) {
+		T value = get(stockSymbol);
+		if (value != null) {
+			return value;
+		}
+		synchronized (this) {
+			AtomicReferenceArray<T> values = ensureCapacity(stockSymbol.getId());
+			value = values.get(stockSymbol.getId());
+			if (value == null) {
+				value = valueFactory.apply(stockSymbol);
+				values.set(stockSymbol.getId(), value);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * @return the number of ids covered by the table: symbols with greater ids have no value
+	 */
+	int length() {
+		return values.length();
+	}
+
+	/**
+	 * @param id
+	 * @return the value of the symbol with the given id, null if it has none
+	 */
+	T get(int id) {
+		AtomicReferenceArray<T> values = this.values;
+		return id < values.length() ? values.get(id) : null;
+	}
+
+	/**
+	 * @return a copy of the values, by symbol
+	 */
+	TreeMap<StockSymbols, T> toTreeMap() {
+		return toTreeMap(Function.identity());
+	}
+
+	/**
+	 * @param mapper
+	 * @return a copy of the mapped values, by symbol
+	 */
+	<R> TreeMap<StockSymbols, R> toTreeMap(Function<T, R> mapper) {
+		TreeMap<StockSymbols, R> map = new TreeMap<>();
+		AtomicReferenceArray<T> values = this.values;
+		for (int id = 0; id < values.length(); id++) {
+			T value = values.get(id);
+			if (value != null) {
+				map.put(StockSymbols.fromId(id), mapper.apply(value));
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Grows the array, if needed, to hold the given id. Called holding the lock
+	 * @param id
+	 * @return
+	 */
+	private AtomicReferenceArray<T> ensureCapacity(int id) {
+		AtomicReferenceArray<T> values = this.values;
+		if (id >= values.length()) {
+			AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(Math.max(id + 1, values.length() * 2));
+			for (int index = 0; index < values.length(); index++) {
+				grown.set(index, values.get(index));
+			}
+			this.values = grown;
+			values = grown;
+		}
+		return values;
+	}
+
+}
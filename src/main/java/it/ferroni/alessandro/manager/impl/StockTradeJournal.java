@@ -0,0 +1,231 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Append only binary journal of the trades of a stock symbol, written through memory mapped regions of the file.
+ * The file starts with a header (magic, version, record size, record count) followed by fixed-width records:
+ * epoch-nanos, quantity and price ticks as longs, then the trade type ordinal, padded to RECORD_SIZE bytes.
+ * The record count in the header is written after the record, so a record is only read back once it is complete.
+ * Regions are mapped as the journal grows: the first one holds JOURNAL_INITIAL_REGION_RECORDS records and each next one
+ * doubles it up to JOURNAL_REGION_RECORDS, so the journal of a symbol with few trades stays small.
+ * Writes go to the page cache: call force() to make them durable.
+ * Records are removed by rewrite(), which replaces the file by an atomic rename, so a crash never leaves a partial journal.
+ *
+ */
+public class StockTradeJournal implements Closeable {
+
+	public static final int MAGIC = 0x53535354;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int RECORD_SIZE = 32;
+
+	//extension of the file a journal is rewritten to before it replaces the journal file
+	private static final String REWRITE_EXTENSION = ".rewrite";
+
+	private static final int COUNT_OFFSET = 16;
+
+	/**
+	 * Receives the records read from a journal
+	 */
+	public interface RecordConsumer {
+		public void accept(long timestamp, long quantity, long priceTicks, byte tradeType);
+	}
+
+	private final Path file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final List<MappedByteBuffer> regions;
+	//number of regions smaller than JOURNAL_REGION_RECORDS and number of records they hold
+	private final int growingRegions;
+	private final long growingRecords;
+	private long count;
+
+	public StockTradeJournal(Path file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		int initialRecords = ConfigurationConstants.JOURNAL_INITIAL_REGION_RECORDS;
+		int maxRecords = ConfigurationConstants.JOURNAL_REGION_RECORDS;
+		if (Integer.bitCount(initialRecords) != 1 || Integer.bitCount(maxRecords) != 1 || initialRecords > maxRecords) {
+			channel.close();
+			throw new IllegalStateException("Journal region sizes must be powers of two, the initial one not greater than the maximum one");
+		}
+		growingRegions = Integer.numberOfTrailingZeros(maxRecords / initialRecords);
+		growingRecords = (long) maxRecords - initialRecords;
+		regions = new ArrayList<>();
+
+		boolean created = channel.size() < HEADER_SIZE;
+		header = map(0, HEADER_SIZE);
+		if (created) {
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, RECORD_SIZE);
+			header.putLong(COUNT_OFFSET, 0);
+		}
+		else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+			channel.close();
+			throw new IOException("File " + file + " is not a trade journal of version " + VERSION);
+		}
+		count = header.getLong(COUNT_OFFSET);
+	}
+
+	/**
+	 * Appends a trade record
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param tradeType ordinal of the trade type
+	 * @throws IOException
+	 */
+	public void append(long timestamp, long quantity, long priceTicks, byte tradeType) throws IOException {
+		int regionIndex = regionOf(count);
+		MappedByteBuffer region = region(regionIndex);
+		int position = (int) (count - regionStart(regionIndex)) * RECORD_SIZE;
+		region.putLong(position, timestamp);
+		region.putLong(position + 8, quantity);
+		region.putLong(position + 16, priceTicks);
+		region.put(position + 24, tradeType);
+		count++;
+		header.putLong(COUNT_OFFSET, count);
+	}
+
+	/**
+	 * Reads all the records, in the order they were appended
+	 * @param consumer
+	 * @throws IOException
+	 */
+	public void replay(RecordConsumer consumer) throws IOException {
+		for (int regionIndex = 0; count > 0 && regionIndex <= regionOf(count - 1); regionIndex++) {
+			MappedByteBuffer region = region(regionIndex);
+			long start = regionStart(regionIndex);
+			int records = (int) Math.min(regionRecords(regionIndex), count - start);
+			for (int position = 0; position < records * RECORD_SIZE; position += RECORD_SIZE) {
+				consumer.accept(region.getLong(position), region.getLong(position + 8), region.getLong(position + 16), region.get(position + 24));
+			}
+		}
+	}
+
+	/**
+	 * Replaces the records of the journal with the given range of columns. The records are written and forced to a new file,
+	 * which then replaces the journal file by an atomic rename: a crash leaves either all the old records or all the new ones.
+	 * This journal is closed, the returned one must be used instead
+	 * @param columns
+	 * @param fromIndex index of the first record kept
+	 * @return the journal of the kept records
+	 * @throws IOException if the new file cannot be written, in which case this journal is still open and unchanged
+	 */
+	public StockTradeJournal rewrite(StockTradeColumns columns, int fromIndex) throws IOException {
+		Path rewritten = file.resolveSibling(file.getFileName() + REWRITE_EXTENSION);
+		//a file left by a rewrite interrupted by a crash is not part of the journal
+		Files.deleteIfExists(rewritten);
+		try (StockTradeJournal journal = new StockTradeJournal(rewritten)) {
+			for (int index = fromIndex; index < columns.size(); index++) {
+				journal.append(columns.getTimestamp(index), columns.getQuantity(index), columns.getPriceTicks(index), columns.getTradeType(index));
+			}
+		}
+		Files.move(rewritten, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		close();
+		return new StockTradeJournal(file);
+	}
+
+	/**
+	 * Discards all the records. The file keeps its size and regions are reused by the next appends
+	 */
+	public void clear() {
+		count = 0;
+		header.putLong(COUNT_OFFSET, count);
+	}
+
+	/**
+	 * @return the number of records in the journal
+	 */
+	public long size() {
+		return count;
+	}
+
+	/**
+	 * Writes the mapped regions to the storage device
+	 */
+	public void force() {
+		for (MappedByteBuffer region: regions) {
+			region.force();
+		}
+		header.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		force();
+		channel.close();
+	}
+
+	/**
+	 * Gets a mapped region, mapping the regions up to it when needed
+	 * @param regionIndex
+	 * @return
+	 * @throws IOException
+	 */
+	private MappedByteBuffer region(int regionIndex) throws IOException {
+		while (regions.size() <= regionIndex) {
+			int next = regions.size();
+			regions.add(map(HEADER_SIZE + regionStart(next) * RECORD_SIZE, (long) regionRecords(next) * RECORD_SIZE));
+		}
+		return regions.get(regionIndex);
+	}
+
+	/**
+	 * @param index
+	 * @return the index of the region containing the given record
+	 */
+	private int regionOf(long index) {
+		if (index < growingRecords) {
+			//growing region k starts at JOURNAL_INITIAL_REGION_RECORDS * (2^k - 1)
+			return 63 - Long.numberOfLeadingZeros(index / ConfigurationConstants.JOURNAL_INITIAL_REGION_RECORDS + 1);
+		}
+		return growingRegions + (int) ((index - growingRecords) / ConfigurationConstants.JOURNAL_REGION_RECORDS);
+	}
+
+	/**
+	 * @param regionIndex
+	 * @return the index of the first record of the given region
+	 */
+	private long regionStart(int regionIndex) {
+		if (regionIndex < growingRegions) {
+			return (long) ConfigurationConstants.JOURNAL_INITIAL_REGION_RECORDS * ((1L << regionIndex) - 1);
+		}
+		return growingRecords + (long) (regionIndex - growingRegions) * ConfigurationConstants.JOURNAL_REGION_RECORDS;
+	}
+
+	/**
+	 * @param regionIndex
+	 * @return the number of records of the given region
+	 */
+	private int regionRecords(int regionIndex) {
+		return regionIndex < growingRegions ? ConfigurationConstants.JOURNAL_INITIAL_REGION_RECORDS << regionIndex : ConfigurationConstants.JOURNAL_REGION_RECORDS;
+	}
+
+	private MappedByteBuffer map(long position, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+}
@@ -0,0 +1,333 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.StampedLock;
+
+import it.ferroni.alessandro.constants.BarResolution;
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockBarListener;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.models.StockBar;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockPriceLogSum;
+import it.ferroni.alessandro.models.StockPriceWindowSum;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.models.StockTradeBucket;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Writer lane of a single stock symbol: the trade store and the running sums of the symbol.
+ * Writes are serialized on the lane, so trades of different symbols are recorded in parallel.
+ * Reads do not take the lane lock: the store publishes immutable snapshots and buckets are immutable.
+ * The price window and the price log sum are read optimistically through a stamped lock and read again if a trade was added meanwhile.
+ *
+ */
+class StockTradeLane {
+
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	private final StockSymbols stockSymbol;
+	private final StockTradeStore stockTradeStore;
+	private final ConcurrentSkipListMap<LocalDateTime, StockTradeBucket> stockTradeBuckets;
+	private final StockPriceWindow stockPriceWindow;
+	private final StockBarSeries[] stockBarSeries;
+	private final List<StockBarListener> stockBarListeners;
+
+	private final StampedLock logSumLock;
+	private double logPriceSum;
+	//Kahan compensation of logPriceSum, keeps the sum accurate over millions of trades
+	private double logPriceCompensation;
+	private long priceCount;
+
+	/**
+	 * @param stockSymbol
+	 * @param stockTradeStore
+	 * @param priceWindowSeconds width of the sliding price window
+	 * @param stockBarListeners receive the completed bars, shared with the manager
+	 */
+	StockTradeLane(StockSymbols stockSymbol, StockTradeStore stockTradeStore, long priceWindowSeconds, List<StockBarListener> stockBarListeners) {
+		this.stockSymbol = stockSymbol;
+		this.stockTradeStore = stockTradeStore;
+		this.stockTradeBuckets = new ConcurrentSkipListMap<>();
+		this.stockPriceWindow = new StockPriceWindow(stockSymbol, priceWindowSeconds);
+		this.stockBarSeries = new StockBarSeries[BarResolution.values().length];
+		for (BarResolution resolution: BarResolution.values()) {
+			stockBarSeries[resolution.ordinal()] = new StockBarSeries(stockSymbol, resolution, ConfigurationConstants.STOCK_BAR_HISTORY_SIZE);
+		}
+		this.stockBarListeners = stockBarListeners;
+		this.logSumLock = new StampedLock();
+
+		//the store can already contain trades (for example loaded from a journal): rebuild the running sums from its columns,
+		//without building the trade objects. The bars of these trades were delivered when they were recorded, so listeners are not notified
+		StockTradeColumns columns = stockTradeStore.selectStockTradeColumns();
+		for (int index = 0; index < columns.size(); index++) {
+			long priceTicks = columns.getPriceTicks(index);
+			updateRunningSums(StockUtils.fromEpochNanos(columns.getTimestamp(index)), columns.getQuantity(index),
+					StockUtils.fromPriceTicks(priceTicks), priceTicks, TRADE_TYPES[columns.getTradeType(index)], false);
+		}
+	}
+
+	/**
+	 * Adds a trade record to the store and to the running sums
+	 * @param record
+	 */
+	synchronized void addStockTrade(StockTrade record) {
+		stockTradeStore.addStockTrade(record);
+		updateRunningSums(record, true);
+	}
+
+	/**
+	 * Adds a trade record given as primitive values to the store and to the running sums, without creating a trade object
+	 * @param timestamp epoch-nanos
+	 * @param quantity
+	 * @param priceTicks
+	 * @param type
+	 */
+	synchronized void addStockTrade(long timestamp, long quantity, long priceTicks, TradeType type) {
+		stockTradeStore.addStockTrade(stockSymbol, timestamp, quantity, priceTicks, (byte) type.ordinal());
+		updateRunningSums(StockUtils.fromEpochNanos(timestamp), quantity, StockUtils.fromPriceTicks(priceTicks), priceTicks, type, true);
+	}
+
+	/**
+	 * Adds a batch of trade records of the lane symbol, taking the lane lock once
+	 * @param records
+	 */
+	synchronized void addStockTrades(List<StockTrade> records) {
+		for (StockTrade record: records) {
+			stockTradeStore.addStockTrade(record);
+			updateRunningSums(record, true);
+		}
+	}
+
+	/**
+	 * Adds a trade record to the running sums
+	 * @param record
+	 * @param notifyBars true to deliver the bars completed by the trade to the listeners
+	 */
+	private void updateRunningSums(StockTrade record, boolean notifyBars) {
+		updateRunningSums(record.getTimestamp(), record.getQuantity().longValue(), record.getPrice(), StockUtils.toPriceTicks(record.getPrice()), record.getType(), notifyBars);
+	}
+
+	/**
+	 * Adds a trade to the running sums of its bucket, to the price window, to the bars and to the price log sum.
+	 * The log sum adds the price in ticks, the one the store keeps, so the same logarithm is subtracted when the trade is removed
+	 * @param timestamp
+	 * @param quantity
+	 * @param price
+	 * @param priceTicks the price in ticks
+	 * @param type
+	 * @param notifyBars true to deliver the bars completed by the trade to the listeners
+	 */
+	private void updateRunningSums(LocalDateTime timestamp, long quantity, BigDecimal price, long priceTicks, TradeType type, boolean notifyBars) {
+		LocalDateTime bucketStart = StockUtils.getTradeBucketStart(timestamp);
+		StockTradeBucket bucket = stockTradeBuckets.get(bucketStart);
+		if (bucket == null) {
+			bucket = new StockTradeBucket(stockSymbol, bucketStart);
+		}
+		stockTradeBuckets.put(bucketStart, bucket.add(quantity, price));
+		stockPriceWindow.add(timestamp, quantity, price, type == TradeType.BUY);
+		for (StockBarSeries series: stockBarSeries) {
+			StockBar completedBar = series.add(timestamp, quantity, price);
+			if (completedBar != null && notifyBars) {
+				for (StockBarListener listener: stockBarListeners) {
+					listener.barCompleted(completedBar);
+				}
+			}
+		}
+
+		double logPrice = logPrice(priceTicks);
+		long stamp = logSumLock.writeLock();
+		try {
+			double term = logPrice - logPriceCompensation;
+			double sum = logPriceSum + term;
+			logPriceCompensation = (sum - logPriceSum) - term;
+			logPriceSum = sum;
+			priceCount++;
+		}
+		finally {
+			logSumLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @param priceTicks
+	 * @return the logarithm of the price of the given ticks
+	 */
+	private static double logPrice(long priceTicks) {
+		return Math.log((double) priceTicks / StockUtils.TICKS_PER_UNIT);
+	}
+
+	/**
+	 * Removes the trade records and the buckets before the given date, and subtracts the logarithms of the removed prices
+	 * from the price log sum. The prices are read from the columns of the store before the removal, without building the trades.
+	 * The bucket containing the date is rebuilt from the trades the store keeps in it.
+	 * The price window and the bars only hold recent trades, so they are not changed
+	 * @param endDate
+	 * @return the number of removed records
+	 */
+	synchronized int removeStockTrades(LocalDateTime endDate) {
+		StockTradeColumns columns = stockTradeStore.selectStockTradeColumns();
+		int removed = stockTradeStore.removeStockTrades(endDate);
+		LocalDateTime bucketStart = StockUtils.getTradeBucketStart(endDate);
+		stockTradeBuckets.headMap(bucketStart).clear();
+		if (removed > 0) {
+			if (bucketStart.isBefore(endDate)) {
+				StockTradeBucket bucket = new StockTradeBucket(stockSymbol, bucketStart);
+				for (StockTrade record: stockTradeStore.selectStockTrades(bucketStart, bucketStart.plusSeconds(ConfigurationConstants.TRADE_BUCKET_SECONDS))) {
+					bucket = bucket.add(record.getQuantity().longValue(), record.getPrice());
+				}
+				if (bucket.getQuantitySum() == 0) {
+					stockTradeBuckets.remove(bucketStart);
+				}
+				else {
+					stockTradeBuckets.put(bucketStart, bucket);
+				}
+			}
+
+			double removedSum = 0.0;
+			double removedCompensation = 0.0;
+			for (int index = 0; index < removed; index++) {
+				double term = logPrice(columns.getPriceTicks(index)) - removedCompensation;
+				double next = removedSum + term;
+				removedCompensation = (next - removedSum) - term;
+				removedSum = next;
+			}
+
+			long stamp = logSumLock.writeLock();
+			try {
+				if (removed >= priceCount) {
+					logPriceSum = 0.0;
+					logPriceCompensation = 0.0;
+					priceCount = 0;
+				}
+				else {
+					double term = -removedSum - (logPriceCompensation - removedCompensation);
+					double sum = logPriceSum + term;
+					logPriceCompensation = (sum - logPriceSum) - term;
+					logPriceSum = sum;
+					priceCount -= removed;
+				}
+			}
+			finally {
+				logSumLock.unlockWrite(stamp);
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes all the trade records and running sums
+	 */
+	synchronized void clear() {
+		stockTradeStore.clear();
+		stockTradeBuckets.clear();
+		stockPriceWindow.clear();
+		for (StockBarSeries series: stockBarSeries) {
+			series.clear();
+		}
+
+		long stamp = logSumLock.writeLock();
+		try {
+			logPriceSum = 0.0;
+			logPriceCompensation = 0.0;
+			priceCount = 0;
+		}
+		finally {
+			logSumLock.unlockWrite(stamp);
+		}
+	}
+
+	StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	StockTradeStore getStockTradeStore() {
+		return stockTradeStore;
+	}
+
+	/**
+	 * Selects the sum of the logarithms of all the trade prices recorded in the lane
+	 * @return
+	 */
+	StockPriceLogSum selectStockPriceLogSum() {
+		long stamp = logSumLock.tryOptimisticRead();
+		double sum = logPriceSum;
+		long count = priceCount;
+		if (!logSumLock.validate(stamp)) {
+			stamp = logSumLock.readLock();
+			try {
+				sum = logPriceSum;
+				count = priceCount;
+			}
+			finally {
+				logSumLock.unlockRead(stamp);
+			}
+		}
+		return count == 0 ? StockPriceLogSum.EMPTY : new StockPriceLogSum(sum, count);
+	}
+
+	/**
+	 * Selects the sums of the trades in the sliding price window
+	 * @return
+	 */
+	StockPriceWindowSum selectStockPriceWindowSum() {
+		return stockPriceWindow.selectSum();
+	}
+
+	/**
+	 * Selects the buy and sell sums of the trades in the sliding price window
+	 * @return
+	 */
+	StockOrderFlow selectStockOrderFlow() {
+		return stockPriceWindow.selectOrderFlow();
+	}
+
+	/**
+	 * Selects the completed bars of the given resolution, oldest first
+	 * @param resolution
+	 * @return
+	 */
+	List<StockBar> selectStockBars(BarResolution resolution) {
+		return stockBarSeries[resolution.ordinal()].selectCompletedBars();
+	}
+
+	/**
+	 * Selects the bar of the given resolution that is still receiving trades
+	 * @param resolution
+	 * @return the open bar, null if no trades have been recorded
+	 */
+	StockBar selectOpenStockBar(BarResolution resolution) {
+		return stockBarSeries[resolution.ordinal()].getOpenBar();
+	}
+
+	/**
+	 * Selects the buckets in the range [startDate, endDate), aligned to the bucket width
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	Collection<StockTradeBucket> selectStockTradeBuckets(LocalDateTime startDate, LocalDateTime endDate) {
+		NavigableMap<LocalDateTime, StockTradeBucket> buckets = stockTradeBuckets;
+		if (startDate != null) {
+			buckets = buckets.tailMap(StockUtils.getTradeBucketStart(startDate), true);
+		}
+		if (endDate != null) {
+			buckets = buckets.headMap(StockUtils.getTradeBucketStart(endDate), false);
+		}
+		return buckets.values();
+	}
+
+}
@@ -0,0 +1,284 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Columnar binary snapshot of the trade history, for archiving and for warm-starting a new process.
+ * The file starts with a header (magic, version, price scale, symbol count) followed by a block for each symbol:
+ * the symbol name, the trade count and the columns of its trades, ordered by timestamp.
+ * Timestamps are written as varint deltas from the previous trade, quantities as varints, prices as zigzag varint deltas
+ * of the price ticks and trade types as one bit per trade (the TradeType ordinal), so a typical trade takes a few bytes.
+ * Symbols are written by name, since ids depend on the registration order of each process.
+ * Files are read and written through large buffers with sequential channel I/O.
+ *
+ */
+public class StockTradeSnapshot {
+
+	public static final int MAGIC = 0x5353534E;
+	public static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Receives the symbol blocks read from a snapshot. Arrays are reused for the next block
+	 */
+	public interface BlockConsumer {
+		public void accept(StockSymbols stockSymbol, int count, long[] timestamps, long[] quantities, long[] priceTicks, byte[] tradeTypes);
+	}
+
+	private StockTradeSnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot of the given trade columns
+	 * @param file created or overwritten
+	 * @param stockSymbols
+	 * @param stockTradeColumns trade columns of each symbol
+	 * @return the number of trades written
+	 * @throws IOException
+	 */
+	public static long write(Path file, List<StockSymbols> stockSymbols, List<StockTradeColumns> stockTradeColumns) throws IOException {
+		long tradeCount = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			Output output = new Output(channel);
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(ConfigurationConstants.PRICE_SCALE);
+			output.writeInt(stockSymbols.size());
+
+			for (int block = 0; block < stockSymbols.size(); block++) {
+				StockTradeColumns columns = stockTradeColumns.get(block);
+				int count = columns.size();
+				byte[] name = stockSymbols.get(block).name().getBytes(StandardCharsets.UTF_8);
+				output.writeVarLong(name.length);
+				for (byte nameByte: name) {
+					output.writeByte(nameByte);
+				}
+				output.writeVarLong(count);
+
+				long previous = 0;
+				for (int index = 0; index < count; index++) {
+					long timestamp = columns.getTimestamp(index);
+					if (index == 0) {
+						output.writeVarLong(zigzag(timestamp));
+					}
+					else if (timestamp < previous) {
+						throw new IOException("Trades of stock " + stockSymbols.get(block) + " are not ordered by timestamp");
+					}
+					else {
+						output.writeVarLong(timestamp - previous);
+					}
+					previous = timestamp;
+				}
+				for (int index = 0; index < count; index++) {
+					output.writeVarLong(columns.getQuantity(index));
+				}
+				previous = 0;
+				for (int index = 0; index < count; index++) {
+					long priceTicks = columns.getPriceTicks(index);
+					output.writeVarLong(zigzag(priceTicks - previous));
+					previous = priceTicks;
+				}
+				for (int index = 0; index < count; index += 8) {
+					int bits = 0;
+					for (int bit = 0; bit < 8 && index + bit < count; bit++) {
+						bits |= (columns.getTradeType(index + bit) & 1) << bit;
+					}
+					output.writeByte((byte) bits);
+				}
+				tradeCount += count;
+			}
+			output.flush();
+		}
+		return tradeCount;
+	}
+
+	/**
+	 * Reads a snapshot, registering the symbols that are not registered yet
+	 * @param file
+	 * @param consumer receives the trades of each symbol
+	 * @return the number of trades read
+	 * @throws IOException
+	 */
+	public static long read(Path file, BlockConsumer consumer) throws IOException {
+		long tradeCount = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Input input = new Input(channel);
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("File " + file + " is not a trade snapshot of version " + VERSION);
+			}
+			if (input.readInt() != ConfigurationConstants.PRICE_SCALE) {
+				throw new IOException("Trade snapshot " + file + " has a different price scale");
+			}
+			int symbolCount = input.readInt();
+
+			long[] timestamps = new long[0];
+			long[] quantities = new long[0];
+			long[] priceTicks = new long[0];
+			byte[] tradeTypes = new byte[0];
+			for (int block = 0; block < symbolCount; block++) {
+				byte[] name = new byte[(int) input.readVarLong()];
+				for (int index = 0; index < name.length; index++) {
+					name[index] = input.readByte();
+				}
+				StockSymbols stockSymbol = StockSymbols.register(new String(name, StandardCharsets.UTF_8));
+				int count = (int) input.readVarLong();
+				if (timestamps.length < count) {
+					timestamps = new long[count];
+					quantities = new long[count];
+					priceTicks = new long[count];
+					tradeTypes = new byte[count];
+				}
+
+				long previous = 0;
+				for (int index = 0; index < count; index++) {
+					previous = index == 0 ? unzigzag(input.readVarLong()) : previous + input.readVarLong();
+					timestamps[index] = previous;
+				}
+				for (int index = 0; index < count; index++) {
+					quantities[index] = input.readVarLong();
+				}
+				previous = 0;
+				for (int index = 0; index < count; index++) {
+					previous += unzigzag(input.readVarLong());
+					priceTicks[index] = previous;
+				}
+				for (int index = 0; index < count; index += 8) {
+					int bits = input.readByte();
+					for (int bit = 0; bit < 8 && index + bit < count; bit++) {
+						tradeTypes[index + bit] = (byte) ((bits >>> bit) & 1);
+					}
+				}
+
+				consumer.accept(stockSymbol, count, timestamps, quantities, priceTicks, tradeTypes);
+				tradeCount += count;
+			}
+		}
+		return tradeCount;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Buffered sequential writer of a channel
+	 */
+	private static final class Output {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+
+		void writeByte(byte value) throws IOException {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			buffer.put(value);
+		}
+
+		void writeInt(int value) throws IOException {
+			for (int shift = 0; shift < 32; shift += 8) {
+				writeByte((byte) (value >>> shift));
+			}
+		}
+
+		/**
+		 * Writes an unsigned varint: 7 bits per byte, the high bit set on all the bytes but the last
+		 * @param value
+		 * @throws IOException
+		 */
+		void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				writeByte((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((byte) value);
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+	}
+
+	/**
+	 * Buffered sequential reader of a channel
+	 */
+	private static final class Input {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		Input(FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			this.buffer.limit(0);
+		}
+
+		byte readByte() throws IOException {
+			if (!buffer.hasRemaining()) {
+				buffer.clear();
+				int read;
+				do {
+					read = channel.read(buffer);
+				} while (read == 0);
+				buffer.flip();
+				if (read < 0) {
+					throw new EOFException("Trade snapshot is truncated");
+				}
+			}
+			return buffer.get();
+		}
+
+		int readInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 8) {
+				value |= (readByte() & 0xFF) << shift;
+			}
+			return value;
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte next = readByte();
+				value |= (long) (next & 0x7F) << shift;
+				if (next >= 0) {
+					return value;
+				}
+			}
+			throw new IOException("Trade snapshot has a malformed varint");
+		}
+
+	}
+
+}
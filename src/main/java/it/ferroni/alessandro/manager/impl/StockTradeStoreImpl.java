@@ -0,0 +1,252 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.manager.impl;
+
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.StockTradeStore;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Trade records are kept in an array sorted by timestamp, with a parallel array of epoch-nanos keys.
+ * Trades usually arrive in time order, so adding a record is an append; a late trade is inserted at its position.
+ * Range selections are two binary searches on the keys and return a view on the array, without copying records.
+ *
+ * The store accepts one writer at a time and any number of readers without locks.
+ * Slots below the published size of a segment are never changed: appends write after it, while late trades,
+ * growth and clear publish a new segment. Readers always see a sorted and complete prefix,
+ * and the views they get never change.
+ *
+ */
+public class StockTradeStoreImpl implements StockTradeStore {
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	private volatile Segment segment;
+
+	public StockTradeStoreImpl() {
+		segment = new Segment(INITIAL_CAPACITY);
+	}
+
+	@Override
+	public void addStockTrade(StockSymbols stockSymbol, long timestamp, long quantity, long priceTicks, byte tradeType) {
+		//the store keeps trade objects
+		addStockTrade(new StockTrade(stockSymbol, StockUtils.fromEpochNanos(timestamp), quantity, StockUtils.fromPriceTicks(priceTicks), TRADE_TYPES[tradeType]));
+	}
+
+	@Override
+	public void addStockTrade(StockTrade record) {
+		long timestamp = StockUtils.toEpochNanos(record.getTimestamp());
+		Segment current = segment;
+		int count = current.size;
+
+		if (count == 0 || current.timestamps[count - 1] <= timestamp) {
+			//trade in time order: append it
+			if (count == current.trades.length) {
+				current = current.copyOf(count + (count >> 1));
+				segment = current;
+			}
+			current.timestamps[count] = timestamp;
+			current.trades[count] = record;
+			current.size = count + 1;
+		}
+		else {
+			//late trade: insert it after the trades with the same timestamp in a new segment
+			int position = indexOf(current, count, timestamp + 1);
+			Segment inserted = new Segment(count == current.trades.length ? count + (count >> 1) : current.trades.length);
+			System.arraycopy(current.timestamps, 0, inserted.timestamps, 0, position);
+			System.arraycopy(current.trades, 0, inserted.trades, 0, position);
+			inserted.timestamps[position] = timestamp;
+			inserted.trades[position] = record;
+			System.arraycopy(current.timestamps, position, inserted.timestamps, position + 1, count - position);
+			System.arraycopy(current.trades, position, inserted.trades, position + 1, count - position);
+			inserted.size = count + 1;
+			segment = inserted;
+		}
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades() {
+		Segment current = segment;
+		return new StockTradeView(current.trades, 0, current.size);
+	}
+
+	@Override
+	public List<StockTrade> selectStockTrades(LocalDateTime startDate, LocalDateTime endDate) {
+		Segment current = segment;
+		int count = current.size;
+		int fromIndex = startDate == null ? 0 : indexOf(current, count, StockUtils.toEpochNanos(startDate));
+		int toIndex = endDate == null ? count : indexOf(current, count, StockUtils.toEpochNanos(endDate));
+		if (toIndex < fromIndex) {
+			toIndex = fromIndex;
+		}
+		return new StockTradeView(current.trades, fromIndex, toIndex);
+	}
+
+	@Override
+	public StockTradeColumns selectStockTradeColumns() {
+		Segment current = segment;
+		return new SegmentColumns(current, current.size);
+	}
+
+	@Override
+	public int size() {
+		return segment.size;
+	}
+
+	@Override
+	public int removeStockTrades(LocalDateTime endDate) {
+		Segment current = segment;
+		int count = current.size;
+		int removed = indexOf(current, count, StockUtils.toEpochNanos(endDate));
+		if (removed > 0) {
+			//the kept records are moved to a new segment, so the views of the readers do not change
+			Segment kept = new Segment(Math.max(INITIAL_CAPACITY, count - removed));
+			System.arraycopy(current.timestamps, removed, kept.timestamps, 0, count - removed);
+			System.arraycopy(current.trades, removed, kept.trades, 0, count - removed);
+			kept.size = count - removed;
+			segment = kept;
+		}
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		segment = new Segment(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Gets the index of the first trade with a timestamp greater than or equal to the given one
+	 * @param current
+	 * @param count
+	 * @param timestamp
+	 * @return
+	 */
+	private static int indexOf(Segment current, int count, long timestamp) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (current.timestamps[middle] < timestamp) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Timestamp keys and trade records arrays with the number of published records
+	 */
+	private static class Segment {
+
+		private final long[] timestamps;
+		private final StockTrade[] trades;
+		private volatile int size;
+
+		Segment(int capacity) {
+			timestamps = new long[capacity];
+			trades = new StockTrade[capacity];
+		}
+
+		private Segment(long[] timestamps, StockTrade[] trades) {
+			this.timestamps = timestamps;
+			this.trades = trades;
+		}
+
+		Segment copyOf(int capacity) {
+			Segment copy = new Segment(Arrays.copyOf(timestamps, capacity), Arrays.copyOf(trades, capacity));
+			copy.size = size;
+			return copy;
+		}
+	}
+
+	/**
+	 * Primitive view on the first records of a segment. Values are converted from the trade records
+	 * on each read: use ColumnarStockTradeStoreImpl when calculations run over columns
+	 */
+	private static class SegmentColumns implements StockTradeColumns {
+
+		private final Segment segment;
+		private final int size;
+
+		SegmentColumns(Segment segment, int size) {
+			this.segment = segment;
+			this.size = size;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public int indexOf(long timestamp) {
+			return StockTradeStoreImpl.indexOf(segment, size, timestamp);
+		}
+
+		@Override
+		public long getTimestamp(int index) {
+			return segment.timestamps[index];
+		}
+
+		@Override
+		public long getQuantity(int index) {
+			return segment.trades[index].getQuantity().longValue();
+		}
+
+		@Override
+		public long getPriceTicks(int index) {
+			return StockUtils.toPriceTicks(segment.trades[index].getPrice());
+		}
+
+		@Override
+		public byte getTradeType(int index) {
+			return (byte) segment.trades[index].getType().ordinal();
+		}
+	}
+
+	/**
+	 * Read only view on a range of the trade records array
+	 */
+	private static class StockTradeView extends AbstractList<StockTrade> implements RandomAccess {
+
+		private final StockTrade[] trades;
+		private final int fromIndex;
+		private final int toIndex;
+
+		StockTradeView(StockTrade[] trades, int fromIndex, int toIndex) {
+			this.trades = trades;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		public StockTrade get(int index) {
+			if (index < 0 || index >= toIndex - fromIndex) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (toIndex - fromIndex));
+			}
+			return trades[fromIndex + index];
+		}
+
+		@Override
+		public int size() {
+			return toIndex - fromIndex;
+		}
+	}
+
+}
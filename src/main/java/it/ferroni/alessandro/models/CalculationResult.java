@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import it.ferroni.alessandro.constants.CalculationStatus;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Status and value of a calculation that reports missing data without throwing an exception.
+ * Failed results have no value and are shared, one per status, so a failure does not allocate
+ *
+ */
+public final class CalculationResult implements Serializable {
+	private static final long serialVersionUID = -6021788120446563921L;
+
+	//names of the calculations in the error messages
+	public static final String DIVIDEND_YIELD = "dividend yield";
+	public static final String PE_RATING = "P/E rating";
+
+	private static final CalculationResult[] FAILURES = new CalculationResult[CalculationStatus.values().length];
+	static {
+		for (CalculationStatus status: CalculationStatus.values()) {
+			FAILURES[status.ordinal()] = new CalculationResult(status, null);
+		}
+	}
+
+	private final CalculationStatus status;
+	private final BigDecimal value;
+
+	private CalculationResult(CalculationStatus status, BigDecimal value) {
+		this.status = status;
+		this.value = value;
+	}
+
+	/**
+	 * @param value
+	 * @return a result with status OK and the given value
+	 */
+	public static CalculationResult of(BigDecimal value) {
+		return new CalculationResult(CalculationStatus.OK, value);
+	}
+
+	/**
+	 * @param status
+	 * @return the shared result of the given failure status
+	 */
+	public static CalculationResult failure(CalculationStatus status) {
+		return FAILURES[status.ordinal()];
+	}
+
+	public boolean isOk() {
+		return status == CalculationStatus.OK;
+	}
+
+	public CalculationStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the calculated value, null if the status is not OK
+	 */
+	public BigDecimal getValue() {
+		return value;
+	}
+
+	private Object readResolve() {
+		return isOk() ? this : failure(status);
+	}
+
+	@Override
+	public String toString() {
+		return "CalculationResult [status=" + status + ", value=" + value + "]";
+	}
+
+}
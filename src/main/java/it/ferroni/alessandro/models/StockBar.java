@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+
+import it.ferroni.alessandro.constants.BarResolution;
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Open, high, low, close prices and volume of the trades of a stock symbol in a bar of the given resolution,
+ * starting at 'startTime'. Bars are immutable: a trade creates a new bar with the updated values
+ *
+ */
+public class StockBar implements Serializable {
+	private static final long serialVersionUID = -1407826315519322865L;
+
+	private final StockSymbols stockSymbol;
+	private final BarResolution resolution;
+	private final LocalDateTime startTime;
+	private final BigDecimal open;
+	private final BigDecimal high;
+	private final BigDecimal low;
+	private final BigDecimal close;
+	private final long volume;
+	private final BigDecimal quantityPriceSum;
+	private final long tradeCount;
+
+	/**
+	 * Creates the bar of a first trade
+	 * @param stockSymbol
+	 * @param resolution
+	 * @param startTime
+	 * @param quantity
+	 * @param price
+	 */
+	public StockBar(StockSymbols stockSymbol, BarResolution resolution, LocalDateTime startTime, long quantity, BigDecimal price) {
+		this(stockSymbol, resolution, startTime, price, price, price, price, quantity, price.multiply(BigDecimal.valueOf(quantity)), 1);
+	}
+
+	private StockBar(StockSymbols stockSymbol, BarResolution resolution, LocalDateTime startTime, BigDecimal open, BigDecimal high, BigDecimal low,
+			BigDecimal close, long volume, BigDecimal quantityPriceSum, long tradeCount) {
+		this.stockSymbol = stockSymbol;
+		this.resolution = resolution;
+		this.startTime = startTime;
+		this.open = open;
+		this.high = high;
+		this.low = low;
+		this.close = close;
+		this.volume = volume;
+		this.quantityPriceSum = quantityPriceSum;
+		this.tradeCount = tradeCount;
+	}
+
+	/**
+	 * Adds a trade to the bar. Trades are added in the order they are recorded: the last one is the close
+	 * @param quantity
+	 * @param price
+	 * @return a new bar with the updated values
+	 */
+	public StockBar add(long quantity, BigDecimal price) {
+		return new StockBar(stockSymbol, resolution, startTime, open, price.compareTo(high) > 0 ? price : high, price.compareTo(low) < 0 ? price : low,
+				price, volume + quantity, quantityPriceSum.add(price.multiply(BigDecimal.valueOf(quantity))), tradeCount + 1);
+	}
+
+	/**
+	 * @return the volume weighted price of the trades of the bar
+	 */
+	public BigDecimal getVolumeWeightedPrice() {
+		return quantityPriceSum.divide(BigDecimal.valueOf(volume), 7, RoundingMode.HALF_EVEN);
+	}
+
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	public BarResolution getResolution() {
+		return resolution;
+	}
+
+	public LocalDateTime getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the start time of the next bar
+	 */
+	public LocalDateTime getEndTime() {
+		return startTime.plusSeconds(resolution.getSeconds());
+	}
+
+	public BigDecimal getOpen() {
+		return open;
+	}
+
+	public BigDecimal getHigh() {
+		return high;
+	}
+
+	public BigDecimal getLow() {
+		return low;
+	}
+
+	public BigDecimal getClose() {
+		return close;
+	}
+
+	public long getVolume() {
+		return volume;
+	}
+
+	public BigDecimal getQuantityPriceSum() {
+		return quantityPriceSum;
+	}
+
+	public long getTradeCount() {
+		return tradeCount;
+	}
+
+	@Override
+	public String toString() {
+		return "StockBar [stockSymbol=" + stockSymbol + ", resolution=" + resolution + ", startTime=" + startTime + ", open=" + open
+				+ ", high=" + high + ", low=" + low + ", close=" + close + ", volume=" + volume + ", tradeCount=" + tradeCount + "]";
+	}
+
+}
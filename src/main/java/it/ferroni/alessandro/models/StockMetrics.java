@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import it.ferroni.alessandro.constants.CalculationStatus;
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Dividend yield and P/E rating of a stock, calculated from a ticker price.
+ * A metric that cannot be calculated is null and its status says why. Error messages are built only when requested
+ *
+ */
+public class StockMetrics implements Serializable {
+	private static final long serialVersionUID = 4391761370425236198L;
+
+	private final StockSymbols stockSymbol;
+	private final BigDecimal tickerPrice;
+	private final BigDecimal dividendYield;
+	private final CalculationStatus dividendYieldStatus;
+	private final BigDecimal peRating;
+	private final CalculationStatus peRatingStatus;
+
+	public StockMetrics(StockSymbols stockSymbol, BigDecimal tickerPrice, CalculationResult dividendYield, CalculationResult peRating) {
+		this.stockSymbol = stockSymbol;
+		this.tickerPrice = tickerPrice;
+		this.dividendYield = dividendYield.getValue();
+		this.dividendYieldStatus = dividendYield.getStatus();
+		this.peRating = peRating.getValue();
+		this.peRatingStatus = peRating.getStatus();
+	}
+
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	/**
+	 * @return the ticker price the metrics were calculated from
+	 */
+	public BigDecimal getTickerPrice() {
+		return tickerPrice;
+	}
+
+	public BigDecimal getDividendYield() {
+		return dividendYield;
+	}
+
+	public CalculationStatus getDividendYieldStatus() {
+		return dividendYieldStatus;
+	}
+
+	/**
+	 * @return why the dividend yield cannot be calculated, null if it is calculated
+	 */
+	public String getDividendYieldError() {
+		return dividendYieldStatus.getMessage(CalculationResult.DIVIDEND_YIELD, stockSymbol);
+	}
+
+	public BigDecimal getPERating() {
+		return peRating;
+	}
+
+	public CalculationStatus getPERatingStatus() {
+		return peRatingStatus;
+	}
+
+	/**
+	 * @return why the P/E rating cannot be calculated, null if it is calculated
+	 */
+	public String getPERatingError() {
+		return peRatingStatus.getMessage(CalculationResult.PE_RATING, stockSymbol);
+	}
+
+	@Override
+	public String toString() {
+		return "StockMetrics [stockSymbol=" + stockSymbol + ", tickerPrice=" + tickerPrice + ", dividendYield=" + dividendYield
+				+ ", peRating=" + peRating + "]";
+	}
+
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Immutable view of the metrics of all the listed stocks, indexed by symbol id.
+ * The version grows every time a metric changes, so two snapshots with the same version are equal
+ *
+ */
+public class StockMetricsSnapshot {
+
+	public static final StockMetricsSnapshot EMPTY = new StockMetricsSnapshot(0, new StockMetrics[0]);
+
+	private final long version;
+	private final StockMetrics[] metrics;
+
+	/**
+	 * @param version
+	 * @param metrics metrics by symbol id, not modified after this call
+	 */
+	public StockMetricsSnapshot(long version, StockMetrics[] metrics) {
+		this.version = version;
+		this.metrics = metrics;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @return the metrics of the given stock, null if the stock is not listed
+	 */
+	public StockMetrics get(StockSymbols stockSymbol) {
+		int id = stockSymbol.getId();
+		return id < metrics.length ? metrics[id] : null;
+	}
+
+	/**
+	 * @param length
+	 * @return a copy of the metrics by symbol id, with at least the given length
+	 */
+	public StockMetrics[] copyMetrics(int length) {
+		return Arrays.copyOf(metrics, Math.max(length, metrics.length));
+	}
+
+	/**
+	 * @return the metrics of all the listed stocks, ordered by symbol
+	 */
+	public List<StockMetrics> values() {
+		List<StockMetrics> values = new ArrayList<>();
+		for (StockMetrics stockMetrics: metrics) {
+			if (stockMetrics != null) {
+				values.add(stockMetrics);
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return "StockMetricsSnapshot [version=" + version + ", metrics=" + values() + "]";
+	}
+
+}
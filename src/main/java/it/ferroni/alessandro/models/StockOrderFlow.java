@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Buy and sell volume and notional (price x quantity) of the trades of a stock symbol in a sliding window [startTime, endTime).
+ * The order flow imbalance is (buy - sell) / (buy + sell): 1 if all the trades are buys, -1 if all are sells
+ *
+ */
+public class StockOrderFlow implements Serializable {
+	private static final long serialVersionUID = -3106582213484096614L;
+
+	private final StockSymbols stockSymbol;
+	private final LocalDateTime startTime;
+	private final LocalDateTime endTime;
+	private final long buyVolume;
+	private final BigDecimal buyNotional;
+	private final long sellVolume;
+	private final BigDecimal sellNotional;
+
+	/**
+	 * @param stockSymbol
+	 * @param startTime null if no trades have been added to the window
+	 * @param endTime null if no trades have been added to the window
+	 * @param buyVolume
+	 * @param buyNotional
+	 * @param sellVolume
+	 * @param sellNotional
+	 */
+	public StockOrderFlow(StockSymbols stockSymbol, LocalDateTime startTime, LocalDateTime endTime, long buyVolume, BigDecimal buyNotional,
+			long sellVolume, BigDecimal sellNotional) {
+		this.stockSymbol = stockSymbol;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.buyVolume = buyVolume;
+		this.buyNotional = buyNotional;
+		this.sellVolume = sellVolume;
+		this.sellNotional = sellNotional;
+	}
+
+	/**
+	 * @return the volume imbalance of the trades in the window, 0 if there are none
+	 */
+	public BigDecimal getVolumeImbalance() {
+		if (buyVolume + sellVolume == 0) {
+			return new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN);
+		}
+		return BigDecimal.valueOf(buyVolume - sellVolume).divide(BigDecimal.valueOf(buyVolume + sellVolume), 7, RoundingMode.HALF_EVEN);
+	}
+
+	/**
+	 * @return the notional imbalance of the trades in the window, 0 if there are none
+	 */
+	public BigDecimal getNotionalImbalance() {
+		BigDecimal notional = buyNotional.add(sellNotional);
+		if (notional.signum() == 0) {
+			return new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN);
+		}
+		return buyNotional.subtract(sellNotional).divide(notional, 7, RoundingMode.HALF_EVEN);
+	}
+
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	public LocalDateTime getStartTime() {
+		return startTime;
+	}
+
+	public LocalDateTime getEndTime() {
+		return endTime;
+	}
+
+	public long getBuyVolume() {
+		return buyVolume;
+	}
+
+	public BigDecimal getBuyNotional() {
+		return buyNotional;
+	}
+
+	public long getSellVolume() {
+		return sellVolume;
+	}
+
+	public BigDecimal getSellNotional() {
+		return sellNotional;
+	}
+
+	@Override
+	public String toString() {
+		return "StockOrderFlow [stockSymbol=" + stockSymbol + ", startTime=" + startTime + ", endTime=" + endTime + ", buyVolume=" + buyVolume
+				+ ", buyNotional=" + buyNotional + ", sellVolume=" + sellVolume + ", sellNotional=" + sellNotional + "]";
+	}
+
+}
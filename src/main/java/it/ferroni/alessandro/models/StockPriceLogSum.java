@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Sum of the natural logarithms of a set of trade prices, with the number of prices.
+ * The geometric mean of the prices is exp(logPriceSum / priceCount), so the GBCE All Share Index
+ * can be calculated without multiplying all the prices together.
+ * Sums of different symbols are combined by adding them.
+ *
+ */
+public class StockPriceLogSum implements Serializable {
+	private static final long serialVersionUID = -2305183400936574153L;
+
+	public static final StockPriceLogSum EMPTY = new StockPriceLogSum(0.0, 0);
+
+	private final double logPriceSum;
+	private final long priceCount;
+
+	public StockPriceLogSum(double logPriceSum, long priceCount) {
+		this.logPriceSum = logPriceSum;
+		this.priceCount = priceCount;
+	}
+
+	/**
+	 * Combines this sum with the given one
+	 * @param other
+	 * @return a new sum of both the price sets
+	 */
+	public StockPriceLogSum combine(StockPriceLogSum other) {
+		return new StockPriceLogSum(logPriceSum + other.logPriceSum, priceCount + other.priceCount);
+	}
+
+	/**
+	 * @return the geometric mean of the prices, or NaN if there are no prices
+	 */
+	public double getGeometricMean() {
+		return priceCount == 0 ? Double.NaN : Math.exp(logPriceSum / priceCount);
+	}
+
+	public double getLogPriceSum() {
+		return logPriceSum;
+	}
+
+	public long getPriceCount() {
+		return priceCount;
+	}
+
+	@Override
+	public String toString() {
+		return "StockPriceLogSum [logPriceSum=" + logPriceSum + ", priceCount=" + priceCount + "]";
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Quantity and price x quantity sums of the trades of a stock symbol in a sliding window [startTime, endTime).
+ * The volume weighted stock price of the window is quantityPriceSum / quantitySum.
+ *
+ */
+public class StockPriceWindowSum implements Serializable {
+	private static final long serialVersionUID = 5838710542311607405L;
+
+	private final StockSymbols stockSymbol;
+	private final LocalDateTime startTime;
+	private final LocalDateTime endTime;
+	private final long quantitySum;
+	private final BigDecimal quantityPriceSum;
+
+	/**
+	 * @param stockSymbol
+	 * @param startTime null if no trades have been added to the window
+	 * @param endTime null if no trades have been added to the window
+	 * @param quantitySum
+	 * @param quantityPriceSum
+	 */
+	public StockPriceWindowSum(StockSymbols stockSymbol, LocalDateTime startTime, LocalDateTime endTime, long quantitySum, BigDecimal quantityPriceSum) {
+		this.stockSymbol = stockSymbol;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.quantitySum = quantitySum;
+		this.quantityPriceSum = quantityPriceSum;
+	}
+
+	/**
+	 * @return the volume weighted price of the trades in the window, 0 if there are none
+	 */
+	public BigDecimal getVolumeWeightedPrice() {
+		if (quantitySum == 0) {
+			return new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN);
+		}
+		return quantityPriceSum.divide(BigDecimal.valueOf(quantitySum), 7, RoundingMode.HALF_EVEN);
+	}
+
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	public LocalDateTime getStartTime() {
+		return startTime;
+	}
+
+	public LocalDateTime getEndTime() {
+		return endTime;
+	}
+
+	public long getQuantitySum() {
+		return quantitySum;
+	}
+
+	public BigDecimal getQuantityPriceSum() {
+		return quantityPriceSum;
+	}
+
+	@Override
+	public String toString() {
+		return "StockPriceWindowSum [stockSymbol=" + stockSymbol + ", startTime=" + startTime + ", endTime=" + endTime
+				+ ", quantitySum=" + quantitySum + ", quantityPriceSum=" + quantityPriceSum + "]";
+	}
+
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.math.BigDecimal;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Results of a recalculation of all the stock symbols: the metrics of the listed stocks,
+ * the current stock price of every symbol and the GBCE All Share Index
+ *
+ */
+public class StockRecalculation {
+
+	private final StockMetrics[] stockMetrics;
+	private final BigDecimal[] stockPrices;
+	private final StockPriceLogSum priceLogSum;
+	private final BigDecimal gbceAllShareIndex;
+
+	/**
+	 * @param stockMetrics metrics by symbol id, null for symbols without a listed stock
+	 * @param stockPrices current stock prices by symbol id
+	 * @param priceLogSum price log sum of all the symbols
+	 * @param gbceAllShareIndex null if no prices have been recorded
+	 */
+	public StockRecalculation(StockMetrics[] stockMetrics, BigDecimal[] stockPrices, StockPriceLogSum priceLogSum, BigDecimal gbceAllShareIndex) {
+		this.stockMetrics = stockMetrics;
+		this.stockPrices = stockPrices;
+		this.priceLogSum = priceLogSum;
+		this.gbceAllShareIndex = gbceAllShareIndex;
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @return the metrics of the given stock, null if the stock is not listed
+	 */
+	public StockMetrics getStockMetrics(StockSymbols stockSymbol) {
+		int id = stockSymbol.getId();
+		return id < stockMetrics.length ? stockMetrics[id] : null;
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @return the current stock price of the given symbol, null if the symbol was registered after the recalculation
+	 */
+	public BigDecimal getStockPrice(StockSymbols stockSymbol) {
+		int id = stockSymbol.getId();
+		return id < stockPrices.length ? stockPrices[id] : null;
+	}
+
+	/**
+	 * @return the number of symbols recalculated
+	 */
+	public int getSymbolCount() {
+		return stockPrices.length;
+	}
+
+	public StockPriceLogSum getPriceLogSum() {
+		return priceLogSum;
+	}
+
+	/**
+	 * @return the GBCE All Share Index, null if no prices have been recorded
+	 */
+	public BigDecimal getGBCEAllShareIndex() {
+		return gbceAllShareIndex;
+	}
+
+}
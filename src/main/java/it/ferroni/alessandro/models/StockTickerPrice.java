@@ -3,18 +3,22 @@
  */
 package it.ferroni.alessandro.models;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 
 import it.ferroni.alessandro.constants.StockSymbols;
 
 /**
  * @author Alessandro Ferroni
+ * 
+ * Ticker price of a stock. Ticker prices are published to readers as they are, so they are immutable
  *
  */
-public class StockTickerPrice {
+public class StockTickerPrice implements Serializable {
+	private static final long serialVersionUID = -6915339920412655398L;
 	
-	private StockSymbols stockSymbol;
-	private BigDecimal price;
+	private final StockSymbols stockSymbol;
+	private final BigDecimal price;
 	
 	public StockTickerPrice(StockSymbols stockSymbol, BigDecimal price) {
 		this.stockSymbol = stockSymbol;
@@ -25,18 +29,13 @@ public class StockTickerPrice {
 		return stockSymbol;
 	}
 
-	public void setStockSymbol(StockSymbols stockSymbol) {
-		this.stockSymbol = stockSymbol;
-	}
-
 	public BigDecimal getPrice() {
 		return price;
 	}
 
-	public void setPrice(BigDecimal price) {
-		this.price = price;
+	@Override
+	public String toString() {
+		return "StockTickerPrice [stockSymbol=" + stockSymbol + ", price=" + price + "]";
 	}
-	
-	
 
 }
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import it.ferroni.alessandro.constants.TradeRejectReason;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Outcome of recording a batch of trades: the number of recorded trades and, for each rejected trade,
+ * its position in the batch and the reason it was rejected
+ *
+ */
+public class StockTradeBatchResult implements Serializable {
+	private static final long serialVersionUID = 4526870339641981322L;
+
+	private final int acceptedCount;
+	private final int[] rejectedIndexes;
+	private final TradeRejectReason[] rejectReasons;
+
+	public StockTradeBatchResult(int acceptedCount, int[] rejectedIndexes, TradeRejectReason[] rejectReasons) {
+		this.acceptedCount = acceptedCount;
+		this.rejectedIndexes = rejectedIndexes;
+		this.rejectReasons = rejectReasons;
+	}
+
+	/**
+	 * @return the number of recorded trades
+	 */
+	public int getAcceptedCount() {
+		return acceptedCount;
+	}
+
+	/**
+	 * @return the number of rejected trades
+	 */
+	public int getRejectedCount() {
+		return rejectedIndexes.length;
+	}
+
+	/**
+	 * @return true if all the trades of the batch have been recorded
+	 */
+	public boolean isAllAccepted() {
+		return rejectedIndexes.length == 0;
+	}
+
+	/**
+	 * @param rejected from 0 to getRejectedCount() - 1
+	 * @return the position in the batch of the rejected trade
+	 */
+	public int getRejectedIndex(int rejected) {
+		return rejectedIndexes[rejected];
+	}
+
+	/**
+	 * @param rejected from 0 to getRejectedCount() - 1
+	 * @return the reason the trade was rejected
+	 */
+	public TradeRejectReason getRejectReason(int rejected) {
+		return rejectReasons[rejected];
+	}
+
+	@Override
+	public String toString() {
+		return "StockTradeBatchResult [acceptedCount=" + acceptedCount + ", rejectedIndexes=" + Arrays.toString(rejectedIndexes)
+				+ ", rejectReasons=" + Arrays.toString(rejectReasons) + "]";
+	}
+
+}
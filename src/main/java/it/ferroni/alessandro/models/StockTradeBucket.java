@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.models;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.utils.Int128;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Running totals of the trades recorded for a stock symbol in a fixed time slot.
+ * The slot starts at 'startTime' and lasts ConfigurationConstants.TRADE_BUCKET_SECONDS seconds.
+ * Quantity and price x quantity sums are enough to calculate the volume weighted stock price
+ * of any window made of whole buckets, without reading single trades again.
+ * The price x quantity sum is also kept in price ticks, for the fixed-point calculations.
+ * Buckets are immutable, so they can be read while trades are being recorded.
+ *
+ */
+public class StockTradeBucket implements Serializable {
+	private static final long serialVersionUID = 3144720978915164817L;
+
+	private final StockSymbols stockSymbol;
+	private final LocalDateTime startTime;
+	private final long quantitySum;
+	private final BigDecimal quantityPriceSum;
+	private final long quantityPriceTicksSum;
+
+	public StockTradeBucket(StockSymbols stockSymbol, LocalDateTime startTime) {
+		this(stockSymbol, startTime, 0, BigDecimal.ZERO, 0);
+	}
+
+	private StockTradeBucket(StockSymbols stockSymbol, LocalDateTime startTime, long quantitySum, BigDecimal quantityPriceSum, long quantityPriceTicksSum) {
+		this.stockSymbol = stockSymbol;
+		this.startTime = startTime;
+		this.quantitySum = quantitySum;
+		this.quantityPriceSum = quantityPriceSum;
+		this.quantityPriceTicksSum = quantityPriceTicksSum;
+	}
+
+	/**
+	 * Adds a trade to the running totals of the bucket
+	 * @param quantity
+	 * @param price
+	 * @return a new bucket with the updated totals
+	 */
+	public StockTradeBucket add(long quantity, BigDecimal price) {
+		long ticksSum = quantityPriceTicksSum;
+		if (ticksSum != StockUtils.INEXACT_TICKS) {
+			long priceTicks = StockUtils.toExactPriceTicks(price);
+			ticksSum = priceTicks == StockUtils.INEXACT_TICKS ? StockUtils.INEXACT_TICKS : addTicks(ticksSum, quantity, priceTicks);
+		}
+		return new StockTradeBucket(stockSymbol, startTime, quantitySum + quantity, quantityPriceSum.add(price.multiply(BigDecimal.valueOf(quantity))), ticksSum);
+	}
+
+	/**
+	 * Adds a price x quantity product to a sum in ticks
+	 * @param ticksSum
+	 * @param quantity
+	 * @param priceTicks
+	 * @return the new sum, StockUtils.INEXACT_TICKS if it overflows
+	 */
+	private static long addTicks(long ticksSum, long quantity, long priceTicks) {
+		long product = quantity * priceTicks;
+		if (Int128.multiplyHigh(quantity, priceTicks) != product >> 63) {
+			return StockUtils.INEXACT_TICKS;
+		}
+		long sum = ticksSum + product;
+		if (((ticksSum ^ sum) & (product ^ sum)) < 0 || sum == StockUtils.INEXACT_TICKS) {
+			return StockUtils.INEXACT_TICKS;
+		}
+		return sum;
+	}
+
+	public StockSymbols getStockSymbol() {
+		return stockSymbol;
+	}
+
+	public LocalDateTime getStartTime() {
+		return startTime;
+	}
+
+	public long getQuantitySum() {
+		return quantitySum;
+	}
+
+	public BigDecimal getQuantityPriceSum() {
+		return quantityPriceSum;
+	}
+
+	/**
+	 * @return the price x quantity sum in price ticks, StockUtils.INEXACT_TICKS if a price is not a whole number of ticks
+	 * or the sum does not fit a long
+	 */
+	public long getQuantityPriceTicksSum() {
+		return quantityPriceTicksSum;
+	}
+
+	@Override
+	public String toString() {
+		return "StockTradeBucket [stockSymbol=" + stockSymbol + ", startTime=" + startTime + ", quantitySum="
+				+ quantitySum + ", quantityPriceSum=" + quantityPriceSum + "]";
+	}
+
+}
@@ -0,0 +1,77 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.monitoring;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import it.ferroni.alessandro.utils.LatencyHistogram;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Latency histogram that can be recorded from many threads: threads record into a fixed number of striped histograms,
+ * chosen by a hash of the thread id, and the histograms are added together when read.
+ * The stripes are twice the available processors, so threads rarely share one and the lock of a stripe is almost never contended.
+ * Memory does not grow with the number of threads: short lived threads, virtual threads included, leave nothing behind.
+ * Stripes are created on first use
+ *
+ */
+public class LatencyRecorder {
+
+	private final AtomicReferenceArray<LatencyHistogram> histograms;
+	private final int mask;
+
+	public LatencyRecorder() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * @param stripes minimum number of striped histograms, rounded up to a power of two
+	 */
+	public LatencyRecorder(int stripes) {
+		int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+		this.histograms = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Records a latency in the histogram of the stripe of the current thread
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		LatencyHistogram histogram = stripe();
+		synchronized (histogram) {
+			histogram.record(nanos);
+		}
+	}
+
+	/**
+	 * @return a new histogram with the values recorded by all the threads
+	 */
+	public LatencyHistogram selectHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int index = 0; index < histograms.length(); index++) {
+			LatencyHistogram recorded = histograms.get(index);
+			if (recorded != null) {
+				synchronized (recorded) {
+					histogram.add(recorded);
+				}
+			}
+		}
+		return histogram;
+	}
+
+	private LatencyHistogram stripe() {
+		//thread ids are sequential: the golden ratio multiplication spreads them over the stripes
+		long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		int index = (int) (hash >>> 32) & mask;
+		LatencyHistogram histogram = histograms.get(index);
+		if (histogram == null) {
+			histograms.compareAndSet(index, null, new LatencyHistogram());
+			histogram = histograms.get(index);
+		}
+		return histogram;
+	}
+
+}
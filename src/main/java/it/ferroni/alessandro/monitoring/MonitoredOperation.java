@@ -0,0 +1,18 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.monitoring;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Operations of the stock service whose latency is recorded
+ *
+ */
+public enum MonitoredOperation {
+	STOCK_TRADE_RECORD,
+	STOCK_TRADE_RECORDS,
+	CALCULATE_STOCK_PRICE,
+	CALCULATE_GBCE_ALL_SHARE_INDEX,
+	RECALCULATE_ALL
+}
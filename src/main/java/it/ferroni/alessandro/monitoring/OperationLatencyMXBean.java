@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.monitoring;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * JMX view of the latencies of an operation of the stock service, in nanoseconds
+ *
+ */
+public interface OperationLatencyMXBean {
+
+	public long getCount();
+
+	public double getMean();
+
+	public long getP50();
+
+	public long getP90();
+
+	public long getP99();
+
+	public long getP999();
+
+	public long getMax();
+
+}
@@ -0,0 +1,388 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeRejectReason;
+import it.ferroni.alessandro.utils.LatencyHistogram;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Instrumentation of a stock service: latency histograms of the main operations, accepted and rejected trade counters
+ * and trade counts by symbol. Recording an event costs two clock reads and a few increments, without allocation or locks:
+ * latencies go to striped histograms, counters are striped and symbol counts are atomic increments.
+ * The monitor can be disabled, then operations do not read the clock.
+ * Counters and latencies can be read through JMX and as a text snapshot, optionally logged periodically
+ *
+ */
+public class StockServiceMonitor implements StockServiceMonitorMXBean {
+
+	//start time returned while the monitor is disabled
+	private static final long DISABLED = Long.MIN_VALUE;
+	//number of symbols listed by rate in the text snapshot
+	private static final int SNAPSHOT_SYMBOL_COUNT = 10;
+	private static final String OBJECT_NAME_PREFIX = "it.ferroni.alessandro:type=StockServiceMonitor,name=";
+
+	private final LatencyRecorder[] latencyRecorders;
+	private final LongAdder acceptedTradeCount;
+	private final LongAdder[] rejectedTradeCounts;
+	//accepted trades by symbol id, grown with the registry
+	private volatile AtomicLongArray symbolTradeCounts;
+	private volatile boolean enabled;
+
+	//baseline of the rates of the text snapshot
+	private long[] snapshotSymbolTradeCounts;
+	private long snapshotTime;
+
+	private ScheduledExecutorService snapshotScheduler;
+	private final List<ObjectName> registeredNames;
+
+	public StockServiceMonitor() {
+		this.latencyRecorders = new LatencyRecorder[MonitoredOperation.values().length];
+		for (int index = 0; index < latencyRecorders.length; index++) {
+			latencyRecorders[index] = new LatencyRecorder();
+		}
+		this.acceptedTradeCount = new LongAdder();
+		this.rejectedTradeCounts = new LongAdder[TradeRejectReason.values().length];
+		for (int index = 0; index < rejectedTradeCounts.length; index++) {
+			rejectedTradeCounts[index] = new LongAdder();
+		}
+		this.symbolTradeCounts = new AtomicLongArray(StockSymbols.count());
+		this.enabled = true;
+		this.snapshotSymbolTradeCounts = new long[0];
+		this.snapshotTime = System.nanoTime();
+		this.registeredNames = new ArrayList<>();
+	}
+
+	/**
+	 * @return the start time of an operation, to be passed to the record methods
+	 */
+	public long startTime() {
+		return enabled ? System.nanoTime() : DISABLED;
+	}
+
+	/**
+	 * Records the latency of an operation
+	 * @param operation
+	 * @param startTime the value returned by startTime
+	 */
+	public void record(MonitoredOperation operation, long startTime) {
+		if (startTime != DISABLED) {
+			latencyRecorders[operation.ordinal()].record(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Records a trade, accepted if it has no reject reason
+	 * @param stockSymbol
+	 * @param rejectReason
+	 * @param startTime the value returned by startTime
+	 */
+	public void recordTrade(StockSymbols stockSymbol, TradeRejectReason rejectReason, long startTime) {
+		if (startTime == DISABLED) {
+			return;
+		}
+		countTrade(stockSymbol, rejectReason);
+		latencyRecorders[MonitoredOperation.STOCK_TRADE_RECORD.ordinal()].record(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Counts a trade of a batch, accepted if it has no reject reason. The latency of the batch is recorded apart
+	 * @param stockSymbol
+	 * @param rejectReason
+	 * @param startTime the value returned by startTime for the batch
+	 */
+	public void countTrade(StockSymbols stockSymbol, TradeRejectReason rejectReason, long startTime) {
+		if (startTime != DISABLED) {
+			countTrade(stockSymbol, rejectReason);
+		}
+	}
+
+	private void countTrade(StockSymbols stockSymbol, TradeRejectReason rejectReason) {
+		if (rejectReason != null) {
+			rejectedTradeCounts[rejectReason.ordinal()].increment();
+			return;
+		}
+		acceptedTradeCount.increment();
+		int id = stockSymbol.getId();
+		AtomicLongArray counts = symbolTradeCounts;
+		if (id >= counts.length()) {
+			counts = growSymbolTradeCounts(id);
+		}
+		counts.incrementAndGet(id);
+		AtomicLongArray current = symbolTradeCounts;
+		while (current != counts) {
+			//the counts grew meanwhile: move the increment left in the old array
+			long moved = counts.getAndSet(id, 0);
+			if (moved != 0) {
+				current.addAndGet(id, moved);
+			}
+			counts = current;
+			current = symbolTradeCounts;
+		}
+	}
+
+	/**
+	 * Grows the symbol counts to the registry size. The counts are moved after the new array is published,
+	 * so a writer that incremented the old array later sees the new one and moves its increment
+	 * @param id
+	 * @return
+	 */
+	private synchronized AtomicLongArray growSymbolTradeCounts(int id) {
+		AtomicLongArray counts = symbolTradeCounts;
+		if (id < counts.length()) {
+			return counts;
+		}
+		AtomicLongArray grown = new AtomicLongArray(Math.max(StockSymbols.count(), id + 1));
+		symbolTradeCounts = grown;
+		for (int index = 0; index < counts.length(); index++) {
+			grown.addAndGet(index, counts.getAndSet(index, 0));
+		}
+		return grown;
+	}
+
+	/**
+	 * @param operation
+	 * @return the latencies recorded for the given operation, in nanoseconds
+	 */
+	public LatencyHistogram selectLatencies(MonitoredOperation operation) {
+		return latencyRecorders[operation.ordinal()].selectHistogram();
+	}
+
+	/**
+	 * @param rejectReason
+	 * @return the number of trades rejected for the given reason
+	 */
+	public long getRejectedTradeCount(TradeRejectReason rejectReason) {
+		return rejectedTradeCounts[rejectReason.ordinal()].sum();
+	}
+
+	/**
+	 * @param stockSymbol
+	 * @return the number of accepted trades of the given symbol
+	 */
+	public long getSymbolTradeCount(StockSymbols stockSymbol) {
+		AtomicLongArray counts = symbolTradeCounts;
+		return stockSymbol.getId() < counts.length() ? counts.get(stockSymbol.getId()) : 0;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getAcceptedTradeCount() {
+		return acceptedTradeCount.sum();
+	}
+
+	@Override
+	public long getRejectedTradeCount() {
+		long count = 0;
+		for (LongAdder rejectedTradeCount: rejectedTradeCounts) {
+			count += rejectedTradeCount.sum();
+		}
+		return count;
+	}
+
+	@Override
+	public Map<String, Long> getRejectedTradeCounts() {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (TradeRejectReason rejectReason: TradeRejectReason.values()) {
+			counts.put(rejectReason.name(), getRejectedTradeCount(rejectReason));
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getSymbolTradeCounts() {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		AtomicLongArray symbolCounts = symbolTradeCounts;
+		for (int id = 0; id < symbolCounts.length(); id++) {
+			long count = symbolCounts.get(id);
+			if (count > 0) {
+				counts.put(StockSymbols.fromId(id).name(), count);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Builds the text snapshot: trade counters, trade rates since the previous snapshot (in total and for the busiest symbols)
+	 * and the latency percentiles of every operation
+	 */
+	@Override
+	public synchronized String getSnapshot() {
+		long now = System.nanoTime();
+		double elapsedSeconds = Math.max(1L, now - snapshotTime) / 1e9;
+		AtomicLongArray symbolCounts = symbolTradeCounts;
+		long[] counts = new long[symbolCounts.length()];
+		long[] deltas = new long[counts.length];
+		long totalDelta = 0;
+		for (int id = 0; id < counts.length; id++) {
+			counts[id] = symbolCounts.get(id);
+			deltas[id] = counts[id] - (id < snapshotSymbolTradeCounts.length ? snapshotSymbolTradeCounts[id] : 0);
+			totalDelta += deltas[id];
+		}
+		snapshotSymbolTradeCounts = counts;
+		snapshotTime = now;
+
+		StringBuilder snapshot = new StringBuilder();
+		snapshot.append("trades accepted=").append(getAcceptedTradeCount()).append(" rejected=").append(getRejectedTradeCount());
+		for (TradeRejectReason rejectReason: TradeRejectReason.values()) {
+			long count = getRejectedTradeCount(rejectReason);
+			if (count > 0) {
+				snapshot.append(' ').append(rejectReason.name()).append('=').append(count);
+			}
+		}
+		snapshot.append('\n').append("trade rate ").append(Math.round(totalDelta / elapsedSeconds)).append("/s");
+
+		//busiest symbols since the previous snapshot, selected without sorting the whole universe
+		boolean[] listed = new boolean[deltas.length];
+		for (int rank = 0; rank < SNAPSHOT_SYMBOL_COUNT; rank++) {
+			int busiest = -1;
+			for (int id = 0; id < deltas.length; id++) {
+				if (!listed[id] && deltas[id] > 0 && (busiest < 0 || deltas[id] > deltas[busiest])) {
+					busiest = id;
+				}
+			}
+			if (busiest < 0) {
+				break;
+			}
+			listed[busiest] = true;
+			snapshot.append(' ').append(StockSymbols.fromId(busiest)).append('=').append(Math.round(deltas[busiest] / elapsedSeconds)).append("/s");
+		}
+
+		for (MonitoredOperation operation: MonitoredOperation.values()) {
+			snapshot.append('\n').append(operation).append(" ns ").append(selectLatencies(operation).toSummary());
+		}
+		return snapshot.toString();
+	}
+
+	/**
+	 * Sends a text snapshot to the given output at a fixed rate, from a daemon thread
+	 * @param period
+	 * @param unit
+	 * @param output for example a logger
+	 */
+	public synchronized void startSnapshots(long period, TimeUnit unit, Consumer<String> output) {
+		stopSnapshots();
+		snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "stock-service-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotScheduler.scheduleAtFixedRate(() -> output.accept(getSnapshot()), period, period, unit);
+	}
+
+	/**
+	 * Stops the periodic snapshots
+	 */
+	public synchronized void stopSnapshots() {
+		if (snapshotScheduler != null) {
+			snapshotScheduler.shutdownNow();
+			snapshotScheduler = null;
+		}
+	}
+
+	/**
+	 * Registers the monitor and the latencies of every operation in the platform MBean server
+	 * @param name name of the monitored service, unique in the MBean server
+	 * @throws JMException
+	 */
+	public synchronized void registerMBeans(String name) throws JMException {
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName monitorName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+		mBeanServer.registerMBean(this, monitorName);
+		registeredNames.add(monitorName);
+		for (MonitoredOperation operation: MonitoredOperation.values()) {
+			ObjectName operationName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name) + ",operation=" + operation);
+			mBeanServer.registerMBean(new OperationLatency(latencyRecorders[operation.ordinal()]), operationName);
+			registeredNames.add(operationName);
+		}
+	}
+
+	/**
+	 * Removes the MBeans registered by registerMBeans
+	 * @throws JMException
+	 */
+	public synchronized void unregisterMBeans() throws JMException {
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName registeredName: registeredNames) {
+			mBeanServer.unregisterMBean(registeredName);
+		}
+		registeredNames.clear();
+	}
+
+	/**
+	 * MBean of the latencies of an operation. Every attribute read adds the striped histograms together
+	 */
+	private static class OperationLatency implements OperationLatencyMXBean {
+
+		private final LatencyRecorder latencyRecorder;
+
+		OperationLatency(LatencyRecorder latencyRecorder) {
+			this.latencyRecorder = latencyRecorder;
+		}
+
+		@Override
+		public long getCount() {
+			return latencyRecorder.selectHistogram().getCount();
+		}
+
+		@Override
+		public double getMean() {
+			return latencyRecorder.selectHistogram().getMean();
+		}
+
+		@Override
+		public long getP50() {
+			return latencyRecorder.selectHistogram().getValueAtPercentile(50.0);
+		}
+
+		@Override
+		public long getP90() {
+			return latencyRecorder.selectHistogram().getValueAtPercentile(90.0);
+		}
+
+		@Override
+		public long getP99() {
+			return latencyRecorder.selectHistogram().getValueAtPercentile(99.0);
+		}
+
+		@Override
+		public long getP999() {
+			return latencyRecorder.selectHistogram().getValueAtPercentile(99.9);
+		}
+
+		@Override
+		public long getMax() {
+			return latencyRecorder.selectHistogram().getMax();
+		}
+
+	}
+
+}
@@ -0,0 +1,39 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.monitoring;
+
+import java.util.Map;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * JMX view of the trade counters of the stock service
+ *
+ */
+public interface StockServiceMonitorMXBean {
+
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	public long getAcceptedTradeCount();
+
+	public long getRejectedTradeCount();
+
+	/**
+	 * @return the number of rejected trades by reject reason
+	 */
+	public Map<String, Long> getRejectedTradeCounts();
+
+	/**
+	 * @return the number of accepted trades by stock symbol, for the symbols with trades
+	 */
+	public Map<String, Long> getSymbolTradeCounts();
+
+	/**
+	 * @return the text snapshot of the counters and latencies
+	 */
+	public String getSnapshot();
+
+}
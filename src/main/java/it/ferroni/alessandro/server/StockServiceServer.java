@@ -0,0 +1,402 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeRejectReason;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.models.CalculationResult;
+import it.ferroni.alessandro.models.StockMetrics;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.service.StockService;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Long-lived HTTP server mapping requests onto the methods of a stock service, for the clients of the same host.
+ * Every request runs on its own virtual thread when the JDK has them, so tens of thousands of concurrent queries do not wait for a thread;
+ * the latency recorders of the service are striped, so these short-lived threads leave no state behind.
+ * Older JDKs fall back to a fixed pool of platform threads, where a burst of clients queues on the executor instead of creating threads.
+ * Queries read the lock-free running sums and metrics snapshots of the service and answer with a small JSON object:
+ * <ul>
+ * <li>GET /price?symbol=TEA[&amp;start=...&amp;end=...] volume weighted price of the current window, or of the given range</li>
+ * <li>GET /index GBCE All Share Index</li>
+ * <li>GET /metrics?symbol=TEA ticker price, dividend yield and P/E rating</li>
+ * <li>GET /orderFlow?symbol=TEA buy and sell volume of the current window</li>
+ * <li>POST /trade?symbol=TEA&amp;quantity=10&amp;price=1.5&amp;type=BUY[&amp;timestamp=...] records a trade</li>
+ * <li>GET /monitor counters and latencies of the service, as text</li>
+ * </ul>
+ * Invalid parameters are answered with 400, calculations without data and rejected trades with 422
+ *
+ */
+public class StockServiceServer implements AutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(StockServiceServer.class.getName());
+
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+	private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+
+	private final StockService stockService;
+	private final HttpServer httpServer;
+	private final ExecutorService requestExecutor;
+
+	/**
+	 * Creates a server on the loopback address and ConfigurationConstants.SERVER_PORT, with the default request executor
+	 * @param stockService
+	 * @throws IOException if the port cannot be bound
+	 */
+	public StockServiceServer(StockService stockService) throws IOException {
+		this(stockService, new InetSocketAddress(InetAddress.getLoopbackAddress(), ConfigurationConstants.SERVER_PORT), newRequestExecutor());
+	}
+
+	/**
+	 * @param stockService
+	 * @param address address to bind, port 0 for any free port
+	 * @param requestExecutor runs the requests, shut down when the server is closed
+	 * @throws IOException if the address cannot be bound
+	 */
+	public StockServiceServer(StockService stockService, InetSocketAddress address, ExecutorService requestExecutor) throws IOException {
+		this.stockService = stockService;
+		this.requestExecutor = requestExecutor;
+		this.httpServer = HttpServer.create(address, ConfigurationConstants.SERVER_BACKLOG);
+		this.httpServer.setExecutor(requestExecutor);
+		this.httpServer.createContext("/price", query(this::price));
+		this.httpServer.createContext("/index", query(this::index));
+		this.httpServer.createContext("/metrics", query(this::metrics));
+		this.httpServer.createContext("/orderFlow", query(this::orderFlow));
+		this.httpServer.createContext("/trade", exchange -> handle(exchange, "POST", this::trade));
+		this.httpServer.createContext("/monitor", exchange -> handle(exchange, "GET",
+				parameters -> new Response(200, TEXT_CONTENT_TYPE, stockService.getStockServiceMonitor().getSnapshot())));
+	}
+
+	/**
+	 * Creates an executor running each request on a new virtual thread, available from Java 21.
+	 * On older JDKs it falls back to a pool of ConfigurationConstants.SERVER_THREADS platform threads
+	 * @return
+	 */
+	public static ExecutorService newRequestExecutor() {
+		try {
+			//looked up by reflection, since the code is compiled for Java 8
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			LOGGER.config("Virtual threads are not available: requests run on " + ConfigurationConstants.SERVER_THREADS + " platform threads");
+			return newRequestExecutor(ConfigurationConstants.SERVER_THREADS);
+		}
+	}
+
+	/**
+	 * Creates an executor running the requests on a fixed pool of daemon platform threads
+	 * @param threadCount
+	 * @return
+	 */
+	public static ExecutorService newRequestExecutor(int threadCount) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "stock-server-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newFixedThreadPool(threadCount, threadFactory);
+	}
+
+	/**
+	 * Starts accepting connections
+	 */
+	public void start() {
+		httpServer.start();
+		LOGGER.info("Stock service server listening on " + getAddress());
+	}
+
+	/**
+	 * @return the bound address, with the actual port if port 0 was requested
+	 */
+	public InetSocketAddress getAddress() {
+		return httpServer.getAddress();
+	}
+
+	/**
+	 * Stops accepting connections, lets the running requests complete and shuts down the request executor
+	 */
+	@Override
+	public void close() {
+		httpServer.stop(0);
+		requestExecutor.shutdown();
+		try {
+			requestExecutor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Response price(Map<String, String> parameters) throws BadRequestException {
+		StockSymbols stockSymbol = symbol(parameters);
+		CalculationResult price;
+		if (parameters.containsKey("start") || parameters.containsKey("end")) {
+			price = stockService.tryCalculateStockPrice(stockSymbol, timestamp(parameters, "start"), timestamp(parameters, "end"));
+		}
+		else {
+			try {
+				price = CalculationResult.of(stockService.currentStockPrice(stockSymbol));
+			} catch (Exception e) {
+				throw new BadRequestException(e.getMessage());
+			}
+		}
+		if (!price.isOk()) {
+			return failure(422, price.getStatus().getMessage("stock price", stockSymbol));
+		}
+		return json(200, "symbol", stockSymbol, "price", price.getValue());
+	}
+
+	private Response index(Map<String, String> parameters) {
+		try {
+			return json(200, "index", stockService.calculateGBCEAllShareIndex());
+		} catch (Exception e) {
+			return failure(422, e.getMessage());
+		}
+	}
+
+	private Response metrics(Map<String, String> parameters) throws BadRequestException {
+		StockSymbols stockSymbol = symbol(parameters);
+		StockMetrics metrics = stockService.selectStockMetrics().get(stockSymbol);
+		if (metrics == null) {
+			//metrics are calculated the first time they are requested
+			metrics = stockService.refreshStockMetrics().get(stockSymbol);
+		}
+		if (metrics == null) {
+			return failure(404, "Stock " + stockSymbol + " is not listed");
+		}
+		return json(200, "symbol", stockSymbol, "tickerPrice", metrics.getTickerPrice(), "dividendYield", metrics.getDividendYield(),
+				"dividendYieldStatus", metrics.getDividendYieldStatus(), "peRating", metrics.getPERating(), "peRatingStatus", metrics.getPERatingStatus());
+	}
+
+	private Response orderFlow(Map<String, String> parameters) throws BadRequestException {
+		StockSymbols stockSymbol = symbol(parameters);
+		StockOrderFlow orderFlow;
+		try {
+			orderFlow = stockService.currentStockOrderFlow(stockSymbol);
+		} catch (Exception e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		return json(200, "symbol", stockSymbol, "buyVolume", orderFlow.getBuyVolume(), "sellVolume", orderFlow.getSellVolume(),
+				"volumeImbalance", orderFlow.getVolumeImbalance(), "notionalImbalance", orderFlow.getNotionalImbalance());
+	}
+
+	private Response trade(Map<String, String> parameters) throws BadRequestException {
+		StockSymbols stockSymbol = symbol(parameters);
+		LocalDateTime timestamp = parameters.containsKey("timestamp") ? timestamp(parameters, "timestamp") : LocalDateTime.now();
+		long quantity;
+		BigDecimal price;
+		TradeType type;
+		try {
+			quantity = Long.parseLong(required(parameters, "quantity"));
+			price = new BigDecimal(required(parameters, "price"));
+			type = TradeType.valueOf(required(parameters, "type"));
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("Invalid trade: " + e.getMessage());
+		}
+		TradeRejectReason rejectReason = stockService.tryStockTradeRecord(new StockTrade(stockSymbol, timestamp, quantity, price, type));
+		if (rejectReason != null) {
+			return failure(422, rejectReason.getMessage());
+		}
+		return json(200, "symbol", stockSymbol, "recorded", true);
+	}
+
+	private static StockSymbols symbol(Map<String, String> parameters) throws BadRequestException {
+		try {
+			return StockSymbols.valueOf(required(parameters, "symbol"));
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+	}
+
+	private static LocalDateTime timestamp(Map<String, String> parameters, String name) throws BadRequestException {
+		String value = parameters.get(name);
+		if (value == null) {
+			return null;
+		}
+		try {
+			return LocalDateTime.parse(value);
+		} catch (DateTimeParseException e) {
+			throw new BadRequestException("Parameter " + name + " is not an ISO date time: " + value);
+		}
+	}
+
+	private static String required(Map<String, String> parameters, String name) throws BadRequestException {
+		String value = parameters.get(name);
+		if (value == null || value.isEmpty()) {
+			throw new BadRequestException("Parameter " + name + " must be specified");
+		}
+		return value;
+	}
+
+	private HttpHandler query(RequestHandler requestHandler) {
+		return exchange -> handle(exchange, "GET", requestHandler);
+	}
+
+	/**
+	 * Runs a request on the request executor thread and always sends a response, so a failure never leaves a connection waiting
+	 * @param exchange
+	 * @param method accepted method
+	 * @param requestHandler
+	 * @throws IOException
+	 */
+	private static void handle(HttpExchange exchange, String method, RequestHandler requestHandler) throws IOException {
+		Response response;
+		try {
+			drain(exchange.getRequestBody());
+			if (!method.equals(exchange.getRequestMethod())) {
+				response = failure(405, "Method " + exchange.getRequestMethod() + " is not allowed");
+			}
+			else {
+				response = requestHandler.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+			}
+		} catch (BadRequestException e) {
+			response = failure(400, e.getMessage());
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Request " + exchange.getRequestURI() + " failed", e);
+			response = failure(500, "Internal error");
+		}
+
+		byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", response.contentType);
+		exchange.sendResponseHeaders(response.status, body.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+	}
+
+	private static void drain(InputStream input) throws IOException {
+		byte[] buffer = new byte[256];
+		while (input.read(buffer) >= 0) {
+			//the request body is not used: it is read so the connection can be reused
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws BadRequestException {
+		Map<String, String> parameters = new HashMap<>();
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return parameters;
+		}
+		try {
+			for (String pair: rawQuery.split("&")) {
+				int separator = pair.indexOf('=');
+				if (separator < 0) {
+					parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+				}
+				else {
+					parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+				}
+			}
+		} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			throw new BadRequestException("Malformed query: " + rawQuery);
+		}
+		return parameters;
+	}
+
+	private static Response failure(int status, String message) {
+		return json(status, "error", message);
+	}
+
+	/**
+	 * Builds a flat JSON object: numbers and booleans are written as they are, null as null, all the rest as strings
+	 * @param status
+	 * @param namesAndValues
+	 * @return
+	 */
+	private static Response json(int status, Object... namesAndValues) {
+		StringBuilder body = new StringBuilder(64).append('{');
+		for (int index = 0; index < namesAndValues.length; index += 2) {
+			if (index > 0) {
+				body.append(',');
+			}
+			appendString(body, namesAndValues[index].toString()).append(':');
+			Object value = namesAndValues[index + 1];
+			if (value == null || value instanceof Number || value instanceof Boolean) {
+				body.append(value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : String.valueOf(value));
+			}
+			else {
+				appendString(body, value.toString());
+			}
+		}
+		return new Response(status, JSON_CONTENT_TYPE, body.append('}').toString());
+	}
+
+	private static StringBuilder appendString(StringBuilder body, String value) {
+		body.append('"');
+		for (int index = 0; index < value.length(); index++) {
+			char character = value.charAt(index);
+			if (character == '"' || character == '\\') {
+				body.append('\\').append(character);
+			}
+			else if (character < ' ') {
+				body.append(String.format("\\u%04x", (int) character));
+			}
+			else {
+				body.append(character);
+			}
+		}
+		return body.append('"');
+	}
+
+	/**
+	 * Handles the parsed query parameters of a request
+	 */
+	private interface RequestHandler {
+		public Response handle(Map<String, String> parameters) throws BadRequestException;
+	}
+
+	private static final class Response {
+
+		private final int status;
+		private final String contentType;
+		private final String body;
+
+		Response(int status, String contentType, String body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+	}
+
+	/**
+	 * A request with missing or invalid parameters
+	 */
+	private static final class BadRequestException extends Exception {
+		private static final long serialVersionUID = 4632198012855381177L;
+
+		BadRequestException(String message) {
+			super(message);
+		}
+
+	}
+
+}
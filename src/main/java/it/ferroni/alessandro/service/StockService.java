@@ -3,20 +3,36 @@
  */
 package it.ferroni.alessandro.service;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.TreeMap;
 
+import it.ferroni.alessandro.constants.BarResolution;
 import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeRejectReason;
+import it.ferroni.alessandro.manager.StockBarListener;
+import it.ferroni.alessandro.manager.StockTickerPriceListener;
+import it.ferroni.alessandro.models.CalculationResult;
 import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockBar;
+import it.ferroni.alessandro.models.StockMetricsSnapshot;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockRecalculation;
+import it.ferroni.alessandro.models.StockTickerPrice;
 import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.models.StockTradeBatchResult;
+import it.ferroni.alessandro.monitoring.StockServiceMonitor;
 
 /**
  * @author Alessandro Ferroni
  *
  */
-public interface StockService {
+public interface StockService extends Closeable {
 	
 	/**
 	 * Selects stockTables
@@ -24,12 +40,53 @@ public interface StockService {
 	 */
 	public List<Stock> selectStockTable();
 	
+	/**
+	 * Selects a stock
+	 * @param stockSymbol
+	 * @return the stock, null if it is not listed
+	 */
+	public Stock selectStock(StockSymbols stockSymbol);
+	
+	/**
+	 * Lists a stock, or replaces its data if it is already listed. Its symbol is registered if needed.
+	 * Stocks are mutable: a stock changed in place must be saved again for its metrics to be refreshed
+	 * @param stock
+	 * @param tickerPrice the ticker price of the stock, null to keep the current one
+	 */
+	public void saveStock(Stock stock, BigDecimal tickerPrice);
+	
 	/**
 	 * Select ticker prices
 	 * @return
 	 */
 	public TreeMap<StockSymbols, BigDecimal> selectTickerPrices();
 	
+	/**
+	 * Select the ticker price of a stock
+	 * @param stockSymbol
+	 * @return the ticker price, null if the stock has none
+	 */
+	public StockTickerPrice selectTickerPrice(StockSymbols stockSymbol);
+	
+	/**
+	 * Publishes a new ticker price of a stock and notifies the ticker price listeners if the price changed
+	 * @param tickerPrice
+	 * @return true if the price changed
+	 * @throws Exception if the symbol is missing or the price is not positive
+	 */
+	public boolean updateTickerPrice(StockTickerPrice tickerPrice) throws Exception;
+	
+	/**
+	 * Adds a listener notified of every ticker price change
+	 * @param listener
+	 */
+	public void addTickerPriceListener(StockTickerPriceListener listener);
+	
+	/**
+	 * @param listener
+	 */
+	public void removeTickerPriceListener(StockTickerPriceListener listener);
+	
 	/**
 	 * Calculates dividend yield for a given stock
 	 * @param stock
@@ -39,6 +96,14 @@ public interface StockService {
 	 */
 	public BigDecimal calculateDividendYield(Stock stock, BigDecimal tickerPrice) throws Exception;
 	
+	/**
+	 * Calculates dividend yield for a given stock, without throwing an exception if the data of the stock is missing
+	 * @param stock
+	 * @param tickerPrice
+	 * @return the dividend yield, or the status that says why it cannot be calculated
+	 */
+	public CalculationResult tryCalculateDividendYield(Stock stock, BigDecimal tickerPrice);
+	
 	/**
 	 * @param stockSymbol
 	 * @param dividendYield
@@ -61,6 +126,15 @@ public interface StockService {
 	 */
 	public BigDecimal calculatePERating(Stock stock, BigDecimal tickerPrice, BigDecimal dividendYield) throws Exception;
 	
+	/**
+	 * Calculates a P/E rating for a given stock, without throwing an exception if the data of the stock is missing
+	 * @param stock
+	 * @param tickerPrice
+	 * @param dividendYield
+	 * @return the P/E rating, or the status that says why it cannot be calculated
+	 */
+	public CalculationResult tryCalculatePERating(Stock stock, BigDecimal tickerPrice, BigDecimal dividendYield);
+	
 	/**
 	 * Save stock pe rating
 	 * @param stockSymbol
@@ -68,6 +142,19 @@ public interface StockService {
 	 */
 	public void saveStockPERating(StockSymbols stockSymbol, BigDecimal pe_rating);
 	
+	/**
+	 * Recalculates dividend yield and P/E rating of the stocks whose ticker price or dividend data changed
+	 * since the last refresh, and saves them
+	 * @return the metrics of all the listed stocks
+	 */
+	public StockMetricsSnapshot refreshStockMetrics();
+	
+	/**
+	 * Select the metrics of the last refresh
+	 * @return
+	 */
+	public StockMetricsSnapshot selectStockMetrics();
+	
 	/**
 	 * Records a trade
 	 * @param record
@@ -75,20 +162,69 @@ public interface StockService {
 	 */
 	public void stockTradeRecord(StockTrade record) throws Exception;
 	
+	/**
+	 * Records a trade if it is valid, without throwing an exception if it is not
+	 * @param record
+	 * @return the reason the trade is not valid, null if it has been recorded
+	 */
+	public TradeRejectReason tryStockTradeRecord(StockTrade record);
+	
+	/**
+	 * Records a batch of trades. All the trades are validated in a single pass, then the valid ones are recorded.
+	 * Invalid trades do not raise exceptions: their positions and reject reasons are given in the result
+	 * @param records
+	 * @return
+	 */
+	public StockTradeBatchResult stockTradeRecords(Collection<StockTrade> records);
+	
 	/**
 	 * Selects stock trade records
 	 * @return
 	 */
 	public TreeMap<StockSymbols, List<StockTrade>> selectStockTradeRecords();
 	
+	/**
+	 * Selects the stock trade records of the given stock symbol in the range [startDate, endDate), ordered by timestamp.
+	 * A null date means no bound
+	 * @param stockSymbol
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	public List<StockTrade> selectStockTrades(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate);
+	
+	/**
+	 * Writes all the stock trade records to a columnar snapshot file, for example at the end of the day
+	 * @param file created or overwritten
+	 * @return the number of trades written
+	 * @throws IOException
+	 */
+	public long exportStockTradeSnapshot(Path file) throws IOException;
+	
+	/**
+	 * Records the trades of a snapshot file, for example to warm-start a new process with the trades of the day
+	 * @param file
+	 * @return the number of trades read
+	 * @throws IOException
+	 */
+	public long importStockTradeSnapshot(Path file) throws IOException;
+	
+	/**
+	 * Removes the stock trade records before the given date, keeping the others
+	 * @param endDate
+	 * @return the number of removed records
+	 */
+	public long removeStockTradeRecords(LocalDateTime endDate);
+
 	/**
 	 * Reset all stock trade records
 	 */
 	public void resetStockTradeRecords();
 	
 	/**
-	 * Calculates the stock price for the given stock trade records list.
-	 * All trade records in the list must be of the same stock symbol othervise an exception will be thrown
+	 * Calculates the stock price for the trades of the given stock trade records list strictly inside the range (startDate, endDate):
+	 * unlike the stock price of the recorded trades, a trade at startDate is not considered.
+	 * All trade records in the list must be of the same stock symbol othervise an exception will be thrown. A null date means no bound
 	 * @param stockSymbol
 	 * @param stockTrades
 	 * @param startDate
@@ -98,11 +234,136 @@ public interface StockService {
 	public BigDecimal calculateStockPrice(StockSymbols stockSymbol, List<StockTrade> stockTrades, LocalDateTime startDate, LocalDateTime endDate) throws Exception;
 	
 	/**
-	 * Calculates GBCE All Share Index
-	 * @param tradeMap
+	 * Calculates the stock price for the trades of the given stock trade records list strictly inside the range (startDate, endDate), without throwing an exception.
+	 * Pre-validated trades have been recorded and selected for the given stock symbol (for example by selectStockTrades),
+	 * so their symbol is not checked again
+	 * @param stockSymbol
+	 * @param stockTrades
+	 * @param startDate
+	 * @param endDate
+	 * @param prevalidated true to skip the check of the symbol of every trade
+	 * @return the stock price, 0 if there are no trades, or the status that says why it cannot be calculated
+	 */
+	public CalculationResult tryCalculateStockPrice(StockSymbols stockSymbol, List<StockTrade> stockTrades, LocalDateTime startDate, LocalDateTime endDate,
+			boolean prevalidated);
+	
+	/**
+	 * Calculates the stock price for the trades recorded for the given stock symbol in the range [startDate, endDate).
+	 * The price is calculated from the running sums of the buckets that are fully inside the range;
+	 * only the trades of the partial buckets at the edges of the range are read. A null date means no bound
+	 * @param stockSymbol
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 * @throws Exception
+	 */
+	public BigDecimal calculateStockPrice(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) throws Exception;
+	
+	/**
+	 * Calculates the stock price for the trades recorded for the given stock symbol in the range [startDate, endDate),
+	 * without throwing an exception
+	 * @param stockSymbol
+	 * @param startDate
+	 * @param endDate
+	 * @return the stock price, 0 if there are no trades, or the status that says why it cannot be calculated
+	 */
+	public CalculationResult tryCalculateStockPrice(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate);
+	
+	/**
+	 * Returns the stock price of the trades recorded for the given stock symbol in the sliding price window
+	 * (by default the last 15 minutes of trading, ending with the most recent trade of the symbol).
+	 * The price is read from running sums kept while recording, so the cost does not depend on the number of trades
+	 * @param stockSymbol
+	 * @return the stock price, 0 if no trades have been recorded
+	 * @throws Exception
+	 */
+	public BigDecimal currentStockPrice(StockSymbols stockSymbol) throws Exception;
+	
+	/**
+	 * Returns the buy and sell volume and notional of the trades recorded for the given stock symbol in the sliding price window,
+	 * with their order flow imbalance. Like the current stock price, it is read from running sums kept while recording
+	 * @param stockSymbol
+	 * @return
+	 * @throws Exception
+	 */
+	public StockOrderFlow currentStockOrderFlow(StockSymbols stockSymbol) throws Exception;
+	
+	/**
+	 * Select the last completed OHLCV bars of the given stock symbol and resolution, oldest first
+	 * @param stockSymbol
+	 * @param resolution
+	 * @return
+	 */
+	public List<StockBar> selectStockBars(StockSymbols stockSymbol, BarResolution resolution);
+	
+	/**
+	 * Select the OHLCV bar of the given stock symbol and resolution that is still receiving trades
+	 * @param stockSymbol
+	 * @param resolution
+	 * @return the open bar, null if no trades have been recorded
+	 */
+	public StockBar selectOpenStockBar(StockSymbols stockSymbol, BarResolution resolution);
+	
+	/**
+	 * Adds a listener notified of every completed OHLCV bar
+	 * @param listener
+	 */
+	public void addStockBarListener(StockBarListener listener);
+	
+	/**
+	 * @param listener
+	 */
+	public void removeStockBarListener(StockBarListener listener);
+	
+	/**
+	 * Fixed-point version of calculateStockPrice: the price of the trades recorded for the given stock symbol
+	 * in the range [startDate, endDate) is calculated over the primitive trade columns, without boxing.
+	 * Prices are ticks of 10^-ConfigurationConstants.PRICE_SCALE and the result is rounded HALF_EVEN.
+	 * A null date means no bound; if there are no trades the price is 0
+	 * @param stockSymbol
+	 * @param startDate
+	 * @param endDate
+	 * @return the stock price in ticks
+	 * @throws Exception
+	 */
+	public long calculateStockPriceTicks(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) throws Exception;
+	
+	/**
+	 * Fixed-point version of calculateGBCEAllShareIndex: the geometric mean of the prices is calculated
+	 * from the same running sums of the price logarithms, and rounded to ticks
+	 * @return the index in ticks of 10^-ConfigurationConstants.PRICE_SCALE
+	 * @throws Exception
+	 */
+	public long calculateGBCEAllShareIndexTicks() throws Exception;
+	
+	/**
+	 * Calculates GBCE All Share Index, as the geometric mean of the prices of all the recorded trades.
+	 * The mean is read from running sums of the price logarithms, so the cost does not depend on the number of trades
 	 * @return
 	 * @throws Exception
 	 */
 	public BigDecimal calculateGBCEAllShareIndex() throws Exception;
+	
+	/**
+	 * Recalculates dividend yield and P/E rating of all the listed stocks, the current stock price of all the symbols
+	 * and the GBCE All Share Index. Symbols are split across the threads of the recalculation pool;
+	 * results are the same of the single calculations
+	 * @return
+	 */
+	public StockRecalculation recalculateAll();
+	
+	/**
+	 * Returns the instrumentation of the service: latencies of trade recording and of the calculations,
+	 * accepted and rejected trade counters and trade counts by symbol
+	 * @return
+	 */
+	public StockServiceMonitor getStockServiceMonitor();
+	
+	/**
+	 * Shuts down the threads of the recalculation pool and of the monitor snapshots, unregisters the MBeans of the monitor
+	 * and stops listening to the ticker prices of the stock manager. The stock manager is not closed
+	 */
+	@Override
+	public void close();
 
 }
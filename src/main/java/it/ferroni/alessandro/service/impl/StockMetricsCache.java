@@ -0,0 +1,182 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.service.impl;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.StockType;
+import it.ferroni.alessandro.manager.StockTickerPriceListener;
+import it.ferroni.alessandro.models.CalculationResult;
+import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockMetrics;
+import it.ferroni.alessandro.models.StockMetricsSnapshot;
+import it.ferroni.alessandro.models.StockTickerPrice;
+import it.ferroni.alessandro.service.StockService;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Dividend yield and P/E rating of the listed stocks. The write path marks the symbols whose inputs changed:
+ * the cache listens to ticker price changes and the service notifies the saved stocks. A refresh recalculates only the marked
+ * stocks, so its cost does not depend on the number of listed stocks. The first refresh calculates all of them.
+ * Calculated metrics are saved in the stock manager and published in an immutable snapshot:
+ * readers never block and see a new version only when a metric changed
+ *
+ */
+class StockMetricsCache implements StockTickerPriceListener {
+
+	private final StockService stockService;
+	//symbols whose ticker price or stock data changed since they were last refreshed
+	private final Set<StockSymbols> changedStocks;
+
+	//inputs of the last calculation by symbol id, null until the first refresh, guarded by this
+	private StockMetricsInputs[] inputs;
+	private volatile StockMetricsSnapshot snapshot;
+
+	StockMetricsCache(StockService stockService) {
+		this.stockService = stockService;
+		this.changedStocks = ConcurrentHashMap.newKeySet();
+		this.snapshot = StockMetricsSnapshot.EMPTY;
+	}
+
+	@Override
+	public void tickerPriceChanged(StockTickerPrice previous, StockTickerPrice current) {
+		changedStocks.add(current.getStockSymbol());
+	}
+
+	/**
+	 * Marks a stock whose data was saved
+	 * @param stockSymbol
+	 */
+	void stockChanged(StockSymbols stockSymbol) {
+		changedStocks.add(stockSymbol);
+	}
+
+	/**
+	 * @return the last published snapshot
+	 */
+	StockMetricsSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Recalculates the metrics of the stocks marked as changed since the last refresh
+	 * @return the new snapshot, or the last one if no metric changed
+	 */
+	synchronized StockMetricsSnapshot refresh() {
+		if (inputs == null) {
+			inputs = new StockMetricsInputs[StockSymbols.count()];
+			for (Stock stock: stockService.selectStockTable()) {
+				changedStocks.add(stock.getStockSymbol());
+			}
+		}
+
+		StockMetricsSnapshot snapshot = this.snapshot;
+		StockMetrics[] metrics = null;
+		for (Iterator<StockSymbols> changed = changedStocks.iterator(); changed.hasNext();) {
+			StockSymbols stockSymbol = changed.next();
+			//the mark is cleared before the inputs are selected, so a later change is seen by the next refresh
+			changed.remove();
+			Stock stock = stockService.selectStock(stockSymbol);
+			if (stock == null) {
+				continue;
+			}
+			StockTickerPrice stockTickerPrice = stockService.selectTickerPrice(stockSymbol);
+			StockMetricsInputs stockInputs = new StockMetricsInputs(stock, stockTickerPrice == null ? null : stockTickerPrice.getPrice());
+			int id = stockSymbol.getId();
+			if (id < inputs.length && stockInputs.equals(inputs[id])) {
+				continue;
+			}
+
+			if (metrics == null) {
+				//copy on first change: the published snapshot is never modified
+				metrics = snapshot.copyMetrics(StockSymbols.count());
+			}
+			if (id >= inputs.length) {
+				inputs = Arrays.copyOf(inputs, Math.max(id + 1, StockSymbols.count()));
+			}
+			inputs[id] = stockInputs;
+			metrics[id] = calculate(stock, stockInputs.tickerPrice);
+		}
+
+		if (metrics != null) {
+			snapshot = new StockMetricsSnapshot(snapshot.getVersion() + 1, metrics);
+			this.snapshot = snapshot;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Calculates the metrics of a stock and saves them in the stock manager
+	 * @param stock
+	 * @param tickerPrice
+	 * @return
+	 */
+	private StockMetrics calculate(Stock stock, BigDecimal tickerPrice) {
+		StockMetrics stockMetrics = calculateStockMetrics(stockService, stock, tickerPrice);
+		if (stockMetrics.getDividendYield() != null) {
+			stockService.saveDividendYield(stock.getStockSymbol(), stockMetrics.getDividendYield());
+		}
+		if (stockMetrics.getPERating() != null) {
+			stockService.saveStockPERating(stock.getStockSymbol(), stockMetrics.getPERating());
+		}
+		return stockMetrics;
+	}
+
+	/**
+	 * Calculates the metrics of a stock, keeping the status of the metrics that cannot be calculated.
+	 * Missing data does not throw, so stocks without dividend data cost no more than the others
+	 * @param stockService
+	 * @param stock
+	 * @param tickerPrice
+	 * @return
+	 */
+	static StockMetrics calculateStockMetrics(StockService stockService, Stock stock, BigDecimal tickerPrice) {
+		CalculationResult dividendYield = stockService.tryCalculateDividendYield(stock, tickerPrice);
+		CalculationResult peRating = stockService.tryCalculatePERating(stock, tickerPrice, dividendYield.getValue());
+		return new StockMetrics(stock.getStockSymbol(), tickerPrice, dividendYield, peRating);
+	}
+
+	/**
+	 * Values the metrics of a stock are calculated from. Stocks are mutable, so the values are copied
+	 */
+	private static class StockMetricsInputs {
+
+		private final BigDecimal tickerPrice;
+		private final StockType type;
+		private final BigDecimal lastDividend;
+		private final BigDecimal fixedDividend;
+		private final Long parValue;
+
+		StockMetricsInputs(Stock stock, BigDecimal tickerPrice) {
+			this.tickerPrice = tickerPrice;
+			this.type = stock.getType();
+			this.lastDividend = stock.getLastDividend();
+			this.fixedDividend = stock.getFixedDividend();
+			this.parValue = stock.getParValue();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof StockMetricsInputs)) {
+				return false;
+			}
+			StockMetricsInputs other = (StockMetricsInputs) obj;
+			return Objects.equals(tickerPrice, other.tickerPrice) && type == other.type && Objects.equals(lastDividend, other.lastDividend)
+					&& Objects.equals(fixedDividend, other.fixedDividend) && Objects.equals(parValue, other.parValue);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(tickerPrice, type, lastDividend, fixedDividend, parValue);
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.service.impl;
+
+import java.math.BigDecimal;
+import java.util.concurrent.RecursiveAction;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.manager.StockManager;
+import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockMetrics;
+import it.ferroni.alessandro.models.StockPriceLogSum;
+import it.ferroni.alessandro.models.StockTickerPrice;
+import it.ferroni.alessandro.service.StockService;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Recalculates a range of symbol ids, splitting it in halves until it is small enough.
+ * Each symbol is written only by the task that owns its id, so the result arrays are shared without locks:
+ * joining the subtasks makes their results visible
+ *
+ */
+class StockRecalculationTask extends RecursiveAction {
+	private static final long serialVersionUID = 2419830166738925720L;
+
+	//ranges of at most this number of symbols are recalculated without splitting
+	static final int SEQUENTIAL_THRESHOLD = 64;
+
+	private final StockService stockService;
+	private final StockManager stockManager;
+	private final Stock[] stocks;
+	private final StockMetrics[] stockMetrics;
+	private final BigDecimal[] stockPrices;
+	private final StockPriceLogSum[] priceLogSums;
+	private final int fromId;
+	private final int toId;
+
+	/**
+	 * @param stockService
+	 * @param stockManager
+	 * @param stocks listed stocks by symbol id
+	 * @param stockMetrics receives the metrics of the listed stocks
+	 * @param stockPrices receives the current stock prices
+	 * @param priceLogSums receives the price log sums
+	 * @param fromId first symbol id, inclusive
+	 * @param toId last symbol id, exclusive
+	 */
+	StockRecalculationTask(StockService stockService, StockManager stockManager, Stock[] stocks, StockMetrics[] stockMetrics,
+			BigDecimal[] stockPrices, StockPriceLogSum[] priceLogSums, int fromId, int toId) {
+		this.stockService = stockService;
+		this.stockManager = stockManager;
+		this.stocks = stocks;
+		this.stockMetrics = stockMetrics;
+		this.stockPrices = stockPrices;
+		this.priceLogSums = priceLogSums;
+		this.fromId = fromId;
+		this.toId = toId;
+	}
+
+	@Override
+	protected void compute() {
+		if (toId - fromId > SEQUENTIAL_THRESHOLD) {
+			int middleId = (fromId + toId) >>> 1;
+			invokeAll(new StockRecalculationTask(stockService, stockManager, stocks, stockMetrics, stockPrices, priceLogSums, fromId, middleId),
+					new StockRecalculationTask(stockService, stockManager, stocks, stockMetrics, stockPrices, priceLogSums, middleId, toId));
+			return;
+		}
+
+		for (int id = fromId; id < toId; id++) {
+			StockSymbols stockSymbol = StockSymbols.fromId(id);
+			if (stocks[id] != null) {
+				StockTickerPrice tickerPrice = stockManager.selectTickerPrice(stockSymbol);
+				stockMetrics[id] = StockMetricsCache.calculateStockMetrics(stockService, stocks[id], tickerPrice == null ? null : tickerPrice.getPrice());
+			}
+			stockPrices[id] = stockManager.selectStockPriceWindowSum(stockSymbol).getVolumeWeightedPrice();
+			priceLogSums[id] = stockManager.selectStockPriceLogSum(stockSymbol);
+		}
+	}
+
+}
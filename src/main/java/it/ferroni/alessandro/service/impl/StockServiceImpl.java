@@ -3,20 +3,50 @@
  */
 package it.ferroni.alessandro.service.impl;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
+import javax.management.JMException;
+
+import it.ferroni.alessandro.constants.BarResolution;
+import it.ferroni.alessandro.constants.CalculationStatus;
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.NumericMode;
 import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeRejectReason;
 import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.manager.StockBarListener;
 import it.ferroni.alessandro.manager.StockManager;
+import it.ferroni.alessandro.manager.StockTickerPriceListener;
+import it.ferroni.alessandro.manager.StockTradeColumns;
 import it.ferroni.alessandro.manager.impl.StockManagerImpl;
+import it.ferroni.alessandro.models.CalculationResult;
 import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockBar;
+import it.ferroni.alessandro.models.StockMetrics;
+import it.ferroni.alessandro.models.StockMetricsSnapshot;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockPriceLogSum;
+import it.ferroni.alessandro.models.StockRecalculation;
+import it.ferroni.alessandro.models.StockTickerPrice;
 import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.models.StockTradeBatchResult;
+import it.ferroni.alessandro.models.StockTradeBucket;
+import it.ferroni.alessandro.monitoring.MonitoredOperation;
+import it.ferroni.alessandro.monitoring.StockServiceMonitor;
 import it.ferroni.alessandro.service.StockService;
+import it.ferroni.alessandro.utils.Int128;
+import it.ferroni.alessandro.utils.StockUtils;
 
 /**
  * @author Alessandro Ferroni
@@ -25,9 +55,39 @@ import it.ferroni.alessandro.service.StockService;
 public class StockServiceImpl implements StockService {
 	
 	private StockManager stockManager;
+	private StockMetricsCache stockMetricsCache;
+	private ForkJoinPool recalculationPool;
+	private StockServiceMonitor stockServiceMonitor;
+	private NumericMode numericMode;
 	
 	public StockServiceImpl() {
-		stockManager = new StockManagerImpl();
+		this(new StockManagerImpl());
+	}
+	
+	public StockServiceImpl(StockManager stockManager) {
+		this(stockManager, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param stockManager
+	 * @param recalculationParallelism number of threads of recalculateAll
+	 */
+	public StockServiceImpl(StockManager stockManager, int recalculationParallelism) {
+		this(stockManager, recalculationParallelism, ConfigurationConstants.NUMERIC_MODE);
+	}
+	
+	/**
+	 * @param stockManager
+	 * @param recalculationParallelism number of threads of recalculateAll
+	 * @param numericMode arithmetic of the calculations
+	 */
+	public StockServiceImpl(StockManager stockManager, int recalculationParallelism, NumericMode numericMode) {
+		this.stockManager = stockManager;
+		this.numericMode = numericMode;
+		this.recalculationPool = new ForkJoinPool(recalculationParallelism);
+		this.stockServiceMonitor = new StockServiceMonitor();
+		this.stockMetricsCache = new StockMetricsCache(this);
+		stockManager.addTickerPriceListener(stockMetricsCache);
 	}
 	
 	@Override
@@ -35,43 +95,94 @@ public class StockServiceImpl implements StockService {
 		return stockManager.selectStockTable();
 	}
 	
+	@Override
+	public Stock selectStock(StockSymbols stockSymbol) {
+		return stockManager.selectStock(stockSymbol);
+	}
+	
+	@Override
+	public void saveStock(Stock stock, BigDecimal tickerPrice) {
+		stockManager.saveStock(stock, tickerPrice);
+		stockMetricsCache.stockChanged(stock.getStockSymbol());
+	}
+	
 	@Override
 	public TreeMap<StockSymbols, BigDecimal> selectTickerPrices() {
 		return stockManager.selectTickerPrices();
 	}
 	
+	@Override
+	public StockTickerPrice selectTickerPrice(StockSymbols stockSymbol) {
+		return stockManager.selectTickerPrice(stockSymbol);
+	}
+	
+	@Override
+	public boolean updateTickerPrice(StockTickerPrice tickerPrice) throws Exception {
+		if (tickerPrice == null || tickerPrice.getStockSymbol() == null) {
+			throw new Exception("Cannot update ticker price: stock symbol is null");
+		}
+		if (tickerPrice.getPrice() == null || tickerPrice.getPrice().signum() <= 0) {
+			throw new Exception("Cannot update ticker price for stock " + tickerPrice.getStockSymbol() + ": price must be greater than 0");
+		}
+		return stockManager.updateTickerPrice(tickerPrice);
+	}
+	
+	@Override
+	public void addTickerPriceListener(StockTickerPriceListener listener) {
+		stockManager.addTickerPriceListener(listener);
+	}
+	
+	@Override
+	public void removeTickerPriceListener(StockTickerPriceListener listener) {
+		stockManager.removeTickerPriceListener(listener);
+	}
+	
 	@Override
 	public BigDecimal calculateDividendYield(Stock stock, BigDecimal tickerPrice) throws Exception {
+		CalculationResult result = tryCalculateDividendYield(stock, tickerPrice);
+		if (!result.isOk()) {
+			//cannot calculate dividend yield. Log an error and goes to the next stock
+			throw new Exception(result.getStatus().getMessage(CalculationResult.DIVIDEND_YIELD, stock.getStockSymbol()));
+		}
+		return result.getValue();
+	}
+	
+	@Override
+	public CalculationResult tryCalculateDividendYield(Stock stock, BigDecimal tickerPrice) {
 		BigDecimal dividendYeld;
-		if (tickerPrice == null || tickerPrice.doubleValue() == 0.0) {
-			//cannot calculate ticker price
-			//log an error and goes to the next stock
-			throw new Exception("Cannot calculate dividend yield for stock " + stock.getStockSymbol() + ": Ticker price is " + (tickerPrice == null ? "null" : "0"));
+		if (tickerPrice == null) {
+			return CalculationResult.failure(CalculationStatus.MISSING_TICKER_PRICE);
+		}
+		if (tickerPrice.signum() == 0) {
+			return CalculationResult.failure(CalculationStatus.ZERO_TICKER_PRICE);
 		}
 		switch (stock.getType()) {
 			case COMMON: 
 				if (stock.getLastDividend() == null) {
-					//cannot calculate dividend yield. Log an error and goes to the next stock
-					throw new Exception("Cannot calculate dividend yield for stock " + stock.getStockSymbol() + ": Last Dividend is null");
+					return CalculationResult.failure(CalculationStatus.MISSING_LAST_DIVIDEND);
+				}
+				dividendYeld = numericMode == NumericMode.FIXED_POINT ? divideFixedPoint(stock.getLastDividend(), 1, tickerPrice) : null;
+				if (dividendYeld == null) {
+					dividendYeld = stock.getLastDividend().divide(tickerPrice, 7, RoundingMode.HALF_EVEN);
 				}
-				dividendYeld = stock.getLastDividend().divide(tickerPrice, 7, RoundingMode.HALF_EVEN);
 				break;
 			case PREFERRED: 
 				if (stock.getFixedDividend()  == null) {
-					//cannot calculate dividend yield. Log an error and goes to the next stock
-					throw new Exception("Cannot calculate dividend yield for stock " + stock.getStockSymbol() + ": Fixed Dividend is null");
+					return CalculationResult.failure(CalculationStatus.MISSING_FIXED_DIVIDEND);
 				}
 				if (stock.getParValue() == null) {
-					//cannot calculate dividend yield. Log an error and goes to the next stock
-					throw new Exception("Cannot calculate dividend yield for stock " + stock.getStockSymbol() + ": Par Value is null");
+					return CalculationResult.failure(CalculationStatus.MISSING_PAR_VALUE);
+				}
+				dividendYeld = numericMode == NumericMode.FIXED_POINT ? divideFixedPoint(stock.getFixedDividend(), stock.getParValue().longValue(), tickerPrice) : null;
+				if (dividendYeld == null) {
+					dividendYeld = stock.getFixedDividend().multiply(new BigDecimal(stock.getParValue().longValue())).divide(tickerPrice, 7, RoundingMode.HALF_EVEN);
 				}
-				dividendYeld = stock.getFixedDividend().multiply(new BigDecimal(stock.getParValue().longValue())).divide(tickerPrice, 7, RoundingMode.HALF_EVEN);
 				break;
 			default: 
-				//log an error: stock type is an invalid value. Default should never occurs
-				throw new Exception("Cannot calculate dividend yield for stock " + stock.getStockSymbol() + ": Stock type " + stock.getType() + " is an invalid value");
+				//stock type is an invalid value. Default should never occurs
+				return CalculationResult.failure(CalculationStatus.INVALID_STOCK_TYPE);
 		}
-		return dividendYeld.setScale(7, RoundingMode.HALF_EVEN);
+		return CalculationResult.of(dividendYeld.setScale(7, RoundingMode.HALF_EVEN));
 	}
 	
 	@Override
@@ -86,18 +197,54 @@ public class StockServiceImpl implements StockService {
 	
 	@Override
 	public BigDecimal calculatePERating(Stock stock, BigDecimal tickerPrice, BigDecimal dividendYield) throws Exception {
-		if (tickerPrice == null) {
+		CalculationResult result = tryCalculatePERating(stock, tickerPrice, dividendYield);
+		if (!result.isOk()) {
 			//cannot calculate pe rating: log an error and continue to the next stock
-			throw new Exception("Cannot calculate P/E rating for stock " + stock.getStockSymbol() + ": ticker price is null");
+			throw new Exception(result.getStatus().getMessage(CalculationResult.PE_RATING, stock.getStockSymbol()));
 		}
-		
-		if (dividendYield == null || dividendYield.doubleValue() == 0.0) {
-			//cannot calculate pe rating: log an error and continue to the next stock
-			throw new Exception("Cannot calculate P/E rating for stock " + stock.getStockSymbol() + ": Dividend Yield price is " + (dividendYield == null ? "null" : "0"));
+		return result.getValue();
+	}
+	
+	@Override
+	public CalculationResult tryCalculatePERating(Stock stock, BigDecimal tickerPrice, BigDecimal dividendYield) {
+		if (tickerPrice == null) {
+			return CalculationResult.failure(CalculationStatus.MISSING_TICKER_PRICE);
+		}
+		if (dividendYield == null) {
+			return CalculationResult.failure(CalculationStatus.MISSING_DIVIDEND_YIELD);
+		}
+		if (dividendYield.signum() == 0) {
+			return CalculationResult.failure(CalculationStatus.ZERO_DIVIDEND_YIELD);
+		}
+		BigDecimal peRating = numericMode == NumericMode.FIXED_POINT ? divideFixedPoint(tickerPrice, 1, dividendYield) : null;
+		return CalculationResult.of(peRating != null ? peRating : tickerPrice.divide(dividendYield, 7, RoundingMode.HALF_EVEN));
+	}
+	
+	/**
+	 * Calculates dividend x factor / divisor with scale 7, rounding HALF_EVEN, on values scaled to price ticks
+	 * @param dividend
+	 * @param factor
+	 * @param divisor must not be zero
+	 * @return the result, or null if a value is not a whole number of ticks or the result is out of range:
+	 * the calculation is then done with BigDecimal
+	 */
+	private static BigDecimal divideFixedPoint(BigDecimal dividend, long factor, BigDecimal divisor) {
+		long dividendTicks = StockUtils.toExactPriceTicks(dividend);
+		long divisorTicks = StockUtils.toExactPriceTicks(divisor);
+		if (dividendTicks == StockUtils.INEXACT_TICKS || divisorTicks == StockUtils.INEXACT_TICKS) {
+			return null;
+		}
+		long scaledDividend = dividendTicks * factor;
+		if (Int128.multiplyHigh(dividendTicks, factor) != scaledDividend >> 63) {
+			return null;
+		}
+		//(dividendTicks x factor / 10^7) / (divisorTicks / 10^7) in ticks of 10^-7
+		try {
+			return BigDecimal.valueOf(Int128.multiplyDivideHalfEven(scaledDividend, StockUtils.TICKS_PER_UNIT, divisorTicks), ConfigurationConstants.PRICE_SCALE);
+		}
+		catch (ArithmeticException e) {
+			return null;
 		}
-		
-		BigDecimal pe_rating = tickerPrice.divide(dividendYield, 7, RoundingMode.HALF_EVEN);
-		return pe_rating;
 	}
 	
 	@Override
@@ -105,30 +252,95 @@ public class StockServiceImpl implements StockService {
 		stockManager.saveStockPERating(stockSymbol, pe_rating);
 	}
 	
+	@Override
+	public StockMetricsSnapshot refreshStockMetrics() {
+		return stockMetricsCache.refresh();
+	}
+	
+	@Override
+	public StockMetricsSnapshot selectStockMetrics() {
+		return stockMetricsCache.getSnapshot();
+	}
+	
 	@Override
 	public void stockTradeRecord(StockTrade record) throws Exception {
 		//check the validity of the given data. If a values is not valid, an exception will be thrown
-		if (record == null) {
-			throw new Exception("Trade record must not be null");
+		TradeRejectReason rejectReason = tryStockTradeRecord(record);
+		if (rejectReason != null) {
+			throw new Exception(rejectReason.getMessage());
+		}
+	}
+	
+	@Override
+	public TradeRejectReason tryStockTradeRecord(StockTrade record) {
+		long startTime = stockServiceMonitor.startTime();
+		TradeRejectReason rejectReason = validateStockTrade(record);
+		if (rejectReason == null) {
+			stockManager.saveStockTrade(record);
+		}
+		stockServiceMonitor.recordTrade(record == null ? null : record.getStockSymbol(), rejectReason, startTime);
+		return rejectReason;
+	}
+	
+	@Override
+	public StockTradeBatchResult stockTradeRecords(Collection<StockTrade> records) {
+		long startTime = stockServiceMonitor.startTime();
+		List<StockTrade> validRecords = new ArrayList<>(records.size());
+		int[] rejectedIndexes = new int[0];
+		TradeRejectReason[] rejectReasons = new TradeRejectReason[0];
+		int rejectedCount = 0;
+		
+		int index = 0;
+		for (StockTrade record: records) {
+			TradeRejectReason rejectReason = validateStockTrade(record);
+			stockServiceMonitor.countTrade(record == null ? null : record.getStockSymbol(), rejectReason, startTime);
+			if (rejectReason == null) {
+				validRecords.add(record);
+			}
+			else {
+				if (rejectedCount == rejectedIndexes.length) {
+					rejectedIndexes = Arrays.copyOf(rejectedIndexes, rejectedCount * 2 + 1);
+					rejectReasons = Arrays.copyOf(rejectReasons, rejectedCount * 2 + 1);
+				}
+				rejectedIndexes[rejectedCount] = index;
+				rejectReasons[rejectedCount] = rejectReason;
+				rejectedCount++;
+			}
+			index++;
 		}
 		
+		if (!validRecords.isEmpty()) {
+			stockManager.saveStockTrades(validRecords);
+		}
+		stockServiceMonitor.record(MonitoredOperation.STOCK_TRADE_RECORDS, startTime);
+		return new StockTradeBatchResult(validRecords.size(), Arrays.copyOf(rejectedIndexes, rejectedCount), Arrays.copyOf(rejectReasons, rejectedCount));
+	}
+	
+	/**
+	 * Checks the validity of the given trade record
+	 * @param record
+	 * @return the reason the record is not valid, or null if it is valid
+	 */
+	private TradeRejectReason validateStockTrade(StockTrade record) {
+		if (record == null) {
+			return TradeRejectReason.NULL_RECORD;
+		}
 		if (record.getStockSymbol() == null) {
-			throw new Exception("Stock symbol must be specified");
+			return TradeRejectReason.MISSING_SYMBOL;
 		}
-		if (record.getPrice() == null || record.getPrice().doubleValue() <= 0.0) {
-			throw new Exception ("Trade price must be a valid value (not null and greater than zero)");
+		if (record.getPrice() == null || !StockUtils.isPriceInTicksRange(record.getPrice())) {
+			return TradeRejectReason.INVALID_PRICE;
 		}
 		if (record.getQuantity() == null || record.getQuantity() <= 0) {
-			throw new Exception("Trade quantity must be a valid value (not null and greater than zero)");
+			return TradeRejectReason.INVALID_QUANTITY;
 		}
 		if (record.getTimestamp() == null) {
-			throw new Exception("Trade timestamp must be specified");
+			return TradeRejectReason.MISSING_TIMESTAMP;
 		}
-		if (record.getType() == null || (record.getType() != null && !record.getType().equals(TradeType.BUY) && !record.getType().equals(TradeType.SELL))) {
-			throw new Exception("Trade type must be a valid value (" + TradeType.BUY + " or " + TradeType.SELL + ")");
+		if (record.getType() != TradeType.BUY && record.getType() != TradeType.SELL) {
+			return TradeRejectReason.INVALID_TYPE;
 		}
-		
-		stockManager.saveStockTrade(record);
+		return null;
 	}
 	
 	@Override
@@ -136,6 +348,26 @@ public class StockServiceImpl implements StockService {
 		return stockManager.selectStockTradeRecords();
 	}
 	
+	@Override
+	public List<StockTrade> selectStockTrades(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) {
+		return stockManager.selectStockTrades(stockSymbol, startDate, endDate);
+	}
+	
+	@Override
+	public long exportStockTradeSnapshot(Path file) throws IOException {
+		return stockManager.exportStockTradeSnapshot(file);
+	}
+	
+	@Override
+	public long importStockTradeSnapshot(Path file) throws IOException {
+		return stockManager.importStockTradeSnapshot(file);
+	}
+	
+	@Override
+	public long removeStockTradeRecords(LocalDateTime endDate) {
+		return stockManager.removeStockTradeRecords(endDate);
+	}
+
 	@Override
 	public void resetStockTradeRecords() {
 		stockManager.resetStockTradeRecords();
@@ -143,89 +375,365 @@ public class StockServiceImpl implements StockService {
 	
 	@Override
 	public BigDecimal calculateStockPrice(StockSymbols stockSymbol, List<StockTrade> stockTrades, LocalDateTime startDate, LocalDateTime endDate) throws Exception {
+		CalculationResult result = tryCalculateStockPrice(stockSymbol, stockTrades, startDate, endDate, false);
+		if (!result.isOk()) {
+			throw new Exception(result.getStatus().getMessage());
+		}
+		return result.getValue();
+	}
+	
+	@Override
+	public CalculationResult tryCalculateStockPrice(StockSymbols stockSymbol, List<StockTrade> stockTrades, LocalDateTime startDate, LocalDateTime endDate,
+			boolean prevalidated) {
+		long startTime = stockServiceMonitor.startTime();
+		CalculationResult result = calculateStockPriceFromTrades(stockSymbol, stockTrades, startDate, endDate, prevalidated);
+		stockServiceMonitor.record(MonitoredOperation.CALCULATE_STOCK_PRICE, startTime);
+		return result;
+	}
+	
+	/**
+	 * Calculates the stock price for the given stock trade records list
+	 * @param stockSymbol
+	 * @param stockTrades
+	 * @param startDate
+	 * @param endDate
+	 * @param prevalidated
+	 * @return
+	 */
+	private CalculationResult calculateStockPriceFromTrades(StockSymbols stockSymbol, List<StockTrade> stockTrades, LocalDateTime startDate, LocalDateTime endDate,
+			boolean prevalidated) {
 		if (stockSymbol == null) {
-			throw new Exception("Stock Symbol must be specified");
+			return CalculationResult.failure(CalculationStatus.MISSING_SYMBOL);
 		}
 		if (stockTrades == null) {
-			throw new Exception("Stock Trades list must be specified");
+			return CalculationResult.failure(CalculationStatus.MISSING_TRADES);
 		}
 		
-		List<StockTrade> filteredStockTrades = new ArrayList<>();
-		
-		if (startDate != null || endDate != null) {
-			for (StockTrade traderecord: stockTrades) {
-				if (startDate != null && endDate == null) {
-					//extracts only trades after the given startDate
-					if (traderecord.getTimestamp().isAfter(startDate)) {
-						filteredStockTrades.add(traderecord);
-					}
-				}
-				else if (startDate == null && endDate != null) {
-					//extracts only trades before the given endDate
-					if (traderecord.getTimestamp().isBefore(endDate)) {
-						filteredStockTrades.add(traderecord);
-					}
-				}
-				else {
-					//both dates are not null: extracts trades between the given values
-					if (traderecord.getTimestamp().isAfter(startDate) && traderecord.getTimestamp().isBefore(endDate)) {
-						filteredStockTrades.add(traderecord);
-					}
-				}
+		if (numericMode == NumericMode.FIXED_POINT) {
+			CalculationResult result = calculateStockPriceTicksFromTrades(stockSymbol, stockTrades, startDate, endDate, prevalidated);
+			if (result != null) {
+				return result;
 			}
 		}
-		else {
-			//no date filter has been requested
-			filteredStockTrades = stockTrades;
+		
+		long quantitySum = 0;
+		BigDecimal quantityPriceSum = BigDecimal.ZERO;
+		
+		for (StockTrade trade: stockTrades) {
+			//a null date means no bound: otherwise only trades strictly inside the range are considered
+			if ((startDate != null && !trade.getTimestamp().isAfter(startDate)) || (endDate != null && !trade.getTimestamp().isBefore(endDate))) {
+				continue;
+			}
+			if (!prevalidated && !trade.getStockSymbol().equals(stockSymbol)) {
+				//stock symbol of the trade is not equal to the given stock symbol
+				return CalculationResult.failure(CalculationStatus.SYMBOL_MISMATCH);
+			}
+			
+			//quantity and price have been already checked in stockTradeRecord method
+			quantitySum += trade.getQuantity().longValue();
+			quantityPriceSum = quantityPriceSum.add(trade.getPrice().multiply(BigDecimal.valueOf(trade.getQuantity().longValue())));
 		}
 		
-		if (filteredStockTrades.size() == 0) {
+		if (quantitySum == 0) {
 			//no records in the list: price is 0.0
-			return new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN);
+			return CalculationResult.of(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN));
 		}
 		
-		BigDecimal quantitySum = new BigDecimal(0.0);
-		BigDecimal quantityPriceSum = new BigDecimal(0.0); 
+		return CalculationResult.of(quantityPriceSum.divide(BigDecimal.valueOf(quantitySum), 7, RoundingMode.HALF_EVEN));
+	}
+	
+	/**
+	 * Fixed-point version of calculateStockPriceFromTrades, summing the price x quantity products in ticks
+	 * @param stockSymbol
+	 * @param stockTrades
+	 * @param startDate
+	 * @param endDate
+	 * @param prevalidated
+	 * @return the result, or null if a price is not a whole number of ticks
+	 */
+	private CalculationResult calculateStockPriceTicksFromTrades(StockSymbols stockSymbol, List<StockTrade> stockTrades, LocalDateTime startDate,
+			LocalDateTime endDate, boolean prevalidated) {
+		long quantitySum = 0;
+		Int128 quantityPriceTicksSum = new Int128();
 		
-		for (StockTrade trade: filteredStockTrades) {
-			if (!trade.getStockSymbol().equals(stockSymbol)) {
-				//stock symbol of the trade is not equal to the given stock symbol
-				throw new Exception("Stock Trade Symbol (" + trade.getStockSymbol() + " is not equal to the given Stock Symbol (" + stockSymbol + ")");
+		for (StockTrade trade: stockTrades) {
+			if ((startDate != null && !trade.getTimestamp().isAfter(startDate)) || (endDate != null && !trade.getTimestamp().isBefore(endDate))) {
+				continue;
 			}
-			
-			//here I should check that quantity and price are not equal to null, but this check has been already performed in stockTradeRecord method.
-			//I omit this checks for simplicity
-			
-			quantitySum = quantitySum.add(new BigDecimal(trade.getQuantity().longValue()));
-			quantityPriceSum = quantityPriceSum.add(trade.getPrice().multiply(new BigDecimal(trade.getQuantity().longValue())));
+			if (!prevalidated && !trade.getStockSymbol().equals(stockSymbol)) {
+				return CalculationResult.failure(CalculationStatus.SYMBOL_MISMATCH);
+			}
+			long priceTicks = StockUtils.toExactPriceTicks(trade.getPrice());
+			if (priceTicks == StockUtils.INEXACT_TICKS) {
+				return null;
+			}
+			quantitySum += trade.getQuantity().longValue();
+			quantityPriceTicksSum.multiplyAdd(trade.getQuantity().longValue(), priceTicks);
 		}
-		
-		return quantityPriceSum.divide(quantitySum, 7, RoundingMode.HALF_EVEN);
+		return toStockPrice(quantitySum, quantityPriceTicksSum);
+	}
+	
+	/**
+	 * @param quantitySum
+	 * @param quantityPriceTicksSum
+	 * @return the volume weighted price with scale 7, 0 if there are no trades
+	 */
+	private static CalculationResult toStockPrice(long quantitySum, Int128 quantityPriceTicksSum) {
+		if (quantitySum == 0) {
+			return CalculationResult.of(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN));
+		}
+		return CalculationResult.of(BigDecimal.valueOf(quantityPriceTicksSum.divideHalfEven(quantitySum), ConfigurationConstants.PRICE_SCALE));
 	}
 	
 	@Override
-	public BigDecimal calculateGBCEAllShareIndex() throws Exception {
-		TreeMap<StockSymbols, List<StockTrade>> tradeMap = stockManager.selectStockTradeRecords();
+	public BigDecimal calculateStockPrice(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) throws Exception {
+		CalculationResult result = tryCalculateStockPrice(stockSymbol, startDate, endDate);
+		if (!result.isOk()) {
+			throw new Exception(result.getStatus().getMessage());
+		}
+		return result.getValue();
+	}
+	
+	@Override
+	public CalculationResult tryCalculateStockPrice(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) {
+		long startTime = stockServiceMonitor.startTime();
+		CalculationResult result = calculateStockPriceFromBuckets(stockSymbol, startDate, endDate);
+		stockServiceMonitor.record(MonitoredOperation.CALCULATE_STOCK_PRICE, startTime);
+		return result;
+	}
+	
+	/**
+	 * Calculates the stock price for the trades recorded in the given range, from the running sums of the buckets
+	 * @param stockSymbol
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	private CalculationResult calculateStockPriceFromBuckets(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) {
+		if (stockSymbol == null) {
+			return CalculationResult.failure(CalculationStatus.MISSING_SYMBOL);
+		}
+		
+		//buckets fully inside the range are [bucketsStart, bucketsEnd)
+		LocalDateTime bucketsStart = startDate == null ? null : StockUtils.getNextTradeBucketStart(startDate);
+		LocalDateTime bucketsEnd = endDate == null ? null : StockUtils.getTradeBucketStart(endDate);
+		
+		Collection<StockTradeBucket> stockTradeBuckets = Collections.emptyList();
+		List<StockTrade> edgeTrades = new ArrayList<>();
+		if (bucketsStart != null && bucketsEnd != null && bucketsEnd.isBefore(bucketsStart)) {
+			//the range is inside a single bucket: only trades can be used
+			edgeTrades.addAll(stockManager.selectStockTrades(stockSymbol, startDate, endDate));
+		}
+		else {
+			stockTradeBuckets = stockManager.selectStockTradeBuckets(stockSymbol, bucketsStart, bucketsEnd);
+			if (startDate != null) {
+				edgeTrades.addAll(stockManager.selectStockTrades(stockSymbol, startDate, bucketsStart));
+			}
+			if (endDate != null) {
+				edgeTrades.addAll(stockManager.selectStockTrades(stockSymbol, bucketsEnd, endDate));
+			}
+		}
 		
-		if (tradeMap == null) {
-			throw new Exception("Trade map must be created");
+		if (numericMode == NumericMode.FIXED_POINT) {
+			CalculationResult result = calculateStockPriceTicksFromBuckets(stockTradeBuckets, edgeTrades);
+			if (result != null) {
+				return result;
+			}
 		}
 		
-		BigDecimal prices = new BigDecimal(1.0);
-		int numberOfPrices = 0;
+		long quantitySum = 0;
+		BigDecimal quantityPriceSum = BigDecimal.ZERO;
+		for (StockTradeBucket bucket: stockTradeBuckets) {
+			quantitySum += bucket.getQuantitySum();
+			quantityPriceSum = quantityPriceSum.add(bucket.getQuantityPriceSum());
+		}
+		for (StockTrade trade: edgeTrades) {
+			quantitySum += trade.getQuantity().longValue();
+			quantityPriceSum = quantityPriceSum.add(trade.getPrice().multiply(BigDecimal.valueOf(trade.getQuantity().longValue())));
+		}
 		
-		for (List<StockTrade> tradeRecordsForStock: tradeMap.values()) {
-			for (StockTrade tradeRecord: tradeRecordsForStock) {
-				prices = prices.multiply(tradeRecord.getPrice());
-				numberOfPrices++;
+		if (quantitySum == 0) {
+			//no records in the range: price is 0.0
+			return CalculationResult.of(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN));
+		}
+		
+		return CalculationResult.of(quantityPriceSum.divide(BigDecimal.valueOf(quantitySum), 7, RoundingMode.HALF_EVEN));
+	}
+	
+	/**
+	 * Fixed-point version of the bucket sums of calculateStockPriceFromBuckets
+	 * @param stockTradeBuckets buckets fully inside the range
+	 * @param edgeTrades trades of the range outside the buckets
+	 * @return the result, or null if a bucket sum or a price is not a whole number of ticks
+	 */
+	private static CalculationResult calculateStockPriceTicksFromBuckets(Collection<StockTradeBucket> stockTradeBuckets, List<StockTrade> edgeTrades) {
+		long quantitySum = 0;
+		Int128 quantityPriceTicksSum = new Int128();
+		for (StockTradeBucket bucket: stockTradeBuckets) {
+			if (bucket.getQuantityPriceTicksSum() == StockUtils.INEXACT_TICKS) {
+				return null;
+			}
+			quantitySum += bucket.getQuantitySum();
+			quantityPriceTicksSum.add(bucket.getQuantityPriceTicksSum());
+		}
+		for (StockTrade trade: edgeTrades) {
+			long priceTicks = StockUtils.toExactPriceTicks(trade.getPrice());
+			if (priceTicks == StockUtils.INEXACT_TICKS) {
+				return null;
 			}
+			quantitySum += trade.getQuantity().longValue();
+			quantityPriceTicksSum.multiplyAdd(trade.getQuantity().longValue(), priceTicks);
+		}
+		return toStockPrice(quantitySum, quantityPriceTicksSum);
+	}
+	
+	@Override
+	public BigDecimal currentStockPrice(StockSymbols stockSymbol) throws Exception {
+		if (stockSymbol == null) {
+			throw new Exception("Stock Symbol must be specified");
+		}
+		return stockManager.selectStockPriceWindowSum(stockSymbol).getVolumeWeightedPrice();
+	}
+	
+	@Override
+	public StockOrderFlow currentStockOrderFlow(StockSymbols stockSymbol) throws Exception {
+		if (stockSymbol == null) {
+			throw new Exception("Stock Symbol must be specified");
+		}
+		return stockManager.selectStockOrderFlow(stockSymbol);
+	}
+	
+	@Override
+	public List<StockBar> selectStockBars(StockSymbols stockSymbol, BarResolution resolution) {
+		return stockManager.selectStockBars(stockSymbol, resolution);
+	}
+	
+	@Override
+	public StockBar selectOpenStockBar(StockSymbols stockSymbol, BarResolution resolution) {
+		return stockManager.selectOpenStockBar(stockSymbol, resolution);
+	}
+	
+	@Override
+	public void addStockBarListener(StockBarListener listener) {
+		stockManager.addStockBarListener(listener);
+	}
+	
+	@Override
+	public void removeStockBarListener(StockBarListener listener) {
+		stockManager.removeStockBarListener(listener);
+	}
+	
+	@Override
+	public long calculateStockPriceTicks(StockSymbols stockSymbol, LocalDateTime startDate, LocalDateTime endDate) throws Exception {
+		if (stockSymbol == null) {
+			throw new Exception("Stock Symbol must be specified");
+		}
+		
+		StockTradeColumns columns = stockManager.selectStockTradeColumns(stockSymbol);
+		int fromIndex = startDate == null ? 0 : columns.indexOf(StockUtils.toEpochNanos(startDate));
+		int toIndex = endDate == null ? columns.size() : columns.indexOf(StockUtils.toEpochNanos(endDate));
+		
+		long quantitySum = 0;
+		//price x quantity sums overflow a long after about 10^9 trades of 100 shares: they are summed in 128 bits
+		Int128 quantityPriceSum = new Int128();
+		for (int index = fromIndex; index < toIndex; index++) {
+			long quantity = columns.getQuantity(index);
+			quantitySum = Math.addExact(quantitySum, quantity);
+			quantityPriceSum.multiplyAdd(quantity, columns.getPriceTicks(index));
 		}
 		
-		if (numberOfPrices == 0) {
+		if (quantitySum == 0) {
+			//no records in the range: price is 0
+			return 0;
+		}
+		return quantityPriceSum.divideHalfEven(quantitySum);
+	}
+	
+	@Override
+	public long calculateGBCEAllShareIndexTicks() throws Exception {
+		StockPriceLogSum priceLogSum = selectStockPriceLogSum();
+		if (priceLogSum.getPriceCount() == 0) {
 			throw new Exception("Unable to calculate index: no prices have been set");
 		}
+		return Math.round(priceLogSum.getGeometricMean() * StockUtils.TICKS_PER_UNIT);
+	}
+	
+	@Override
+	public BigDecimal calculateGBCEAllShareIndex() throws Exception {
+		long startTime = stockServiceMonitor.startTime();
+		StockPriceLogSum priceLogSum = selectStockPriceLogSum();
+		stockServiceMonitor.record(MonitoredOperation.CALCULATE_GBCE_ALL_SHARE_INDEX, startTime);
 		
-		return new BigDecimal(Math.pow(prices.doubleValue(), 1 / (double)numberOfPrices)).setScale(2, RoundingMode.HALF_EVEN);
+		if (priceLogSum.getPriceCount() == 0) {
+			throw new Exception("Unable to calculate index: no prices have been set");
+		}
+		
+		return toGBCEAllShareIndex(priceLogSum);
+	}
+	
+	/**
+	 * Combines the price log sums of all the stock symbols.
+	 * The geometric mean is calculated from the running sums of the price logarithms:
+	 * multiplying the prices would overflow with a large number of trades
+	 * @return
+	 */
+	private StockPriceLogSum selectStockPriceLogSum() {
+		StockPriceLogSum priceLogSum = StockPriceLogSum.EMPTY;
+		for (StockSymbols stockSymbol: StockSymbols.values()) {
+			priceLogSum = priceLogSum.combine(stockManager.selectStockPriceLogSum(stockSymbol));
+		}
+		return priceLogSum;
+	}
+	
+	@Override
+	public StockServiceMonitor getStockServiceMonitor() {
+		return stockServiceMonitor;
+	}
+	
+	@Override
+	public void close() {
+		stockManager.removeTickerPriceListener(stockMetricsCache);
+		stockServiceMonitor.stopSnapshots();
+		recalculationPool.shutdown();
+		try {
+			stockServiceMonitor.unregisterMBeans();
+		}
+		catch (JMException e) {
+			throw new IllegalStateException("Unable to unregister the MBeans of the stock service monitor", e);
+		}
+	}
+	
+	@Override
+	public StockRecalculation recalculateAll() {
+		long startTime = stockServiceMonitor.startTime();
+		int symbolCount = StockSymbols.count();
+		Stock[] stocks = new Stock[symbolCount];
+		for (Stock stock: stockManager.selectStockTable()) {
+			if (stock.getStockSymbol().getId() < symbolCount) {
+				stocks[stock.getStockSymbol().getId()] = stock;
+			}
+		}
+		StockMetrics[] stockMetrics = new StockMetrics[symbolCount];
+		BigDecimal[] stockPrices = new BigDecimal[symbolCount];
+		StockPriceLogSum[] priceLogSums = new StockPriceLogSum[symbolCount];
+		recalculationPool.invoke(new StockRecalculationTask(this, stockManager, stocks, stockMetrics, stockPrices, priceLogSums, 0, symbolCount));
+		
+		//the partial sums are combined in symbol order, like calculateGBCEAllShareIndex, so the index is the same
+		StockPriceLogSum priceLogSum = StockPriceLogSum.EMPTY;
+		for (StockPriceLogSum symbolPriceLogSum: priceLogSums) {
+			priceLogSum = priceLogSum.combine(symbolPriceLogSum);
+		}
+		BigDecimal gbceAllShareIndex = priceLogSum.getPriceCount() == 0 ? null : toGBCEAllShareIndex(priceLogSum);
+		stockServiceMonitor.record(MonitoredOperation.RECALCULATE_ALL, startTime);
+		return new StockRecalculation(stockMetrics, stockPrices, priceLogSum, gbceAllShareIndex);
+	}
+	
+	/**
+	 * @param priceLogSum price log sum of all the symbols, with at least one price
+	 * @return the GBCE All Share Index
+	 */
+	private static BigDecimal toGBCEAllShareIndex(StockPriceLogSum priceLogSum) {
+		return new BigDecimal(priceLogSum.getGeometricMean()).setScale(2, RoundingMode.HALF_EVEN);
 	}
 
 }
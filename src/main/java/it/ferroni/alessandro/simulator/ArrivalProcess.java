@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.simulator;
+
+import java.util.SplittableRandom;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Generates the time between two consecutive trades of a producer
+ *
+ */
+public interface ArrivalProcess {
+
+	/**
+	 * @param random
+	 * @return the nanoseconds between the previous trade and the next one
+	 */
+	public long nextIntervalNanos(SplittableRandom random);
+
+	/**
+	 * Poisson arrivals: intervals are exponentially distributed with the given mean rate
+	 * @param tradesPerSecond
+	 * @return
+	 */
+	public static ArrivalProcess poisson(double tradesPerSecond) {
+		double meanIntervalNanos = 1_000_000_000.0 / tradesPerSecond;
+		return random -> (long) (-Math.log(1.0 - random.nextDouble()) * meanIntervalNanos);
+	}
+
+	/**
+	 * Bursty arrivals: trades come in bursts of burstSize trades with no time between them,
+	 * bursts are Poisson arrivals. The mean rate is the given one
+	 * @param tradesPerSecond
+	 * @param burstSize
+	 * @return
+	 */
+	public static ArrivalProcess bursty(double tradesPerSecond, int burstSize) {
+		ArrivalProcess bursts = poisson(tradesPerSecond / burstSize);
+		return new ArrivalProcess() {
+			private int remaining = 0;
+
+			@Override
+			public long nextIntervalNanos(SplittableRandom random) {
+				if (remaining > 0) {
+					remaining--;
+					return 0;
+				}
+				remaining = burstSize - 1;
+				return bursts.nextIntervalNanos(random);
+			}
+		};
+	}
+
+}
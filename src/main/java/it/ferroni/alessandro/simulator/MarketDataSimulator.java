@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.simulator;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.StockSymbols;
+import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.service.StockService;
+import it.ferroni.alessandro.service.impl.StockServiceImpl;
+import it.ferroni.alessandro.utils.LatencyHistogram;
+import it.ferroni.alessandro.utils.StockUtils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Feeds a StockService with a sustained stream of trades from several producer threads.
+ * Each producer owns a share of the symbols and follows its own arrival process, so the total rate is
+ * the sum of the producer rates. A trade is recorded when it is due; if its producer is more than
+ * maxLagNanos late on the schedule the trade is dropped, so an overloaded engine shows up as drops.
+ * Trade timestamps are the scheduled times, starting from the simulation date.
+ *
+ */
+public class MarketDataSimulator {
+
+	private static final Logger LOGGER = Logger.getLogger(MarketDataSimulator.class.getName());
+
+	public static final LocalDateTime SIMULATION_DATE = LocalDateTime.of(2016, Month.OCTOBER, 31, ConfigurationConstants.START_TRADE_RECORDS_HOUR, 0, 0);
+
+	//name of the symbols registered when more symbols than the registered ones are simulated
+	private static final String SIMULATED_SYMBOL_FORMAT = "SIM%05d";
+
+	//waits longer than this are parked, shorter ones are spun
+	private static final long SPIN_THRESHOLD_NANOS = 100_000L;
+
+	private final StockService stockService;
+	private final StockSymbols[] symbols;
+	private final int producerCount;
+	private final Supplier<ArrivalProcess> arrivalProcessFactory;
+	private final Supplier<PriceProcess> priceProcessFactory;
+	private final long maxLagNanos;
+
+	/**
+	 * @param stockService service receiving the trades
+	 * @param symbolCount number of stock symbols to trade: the registered ones are used first, then new ones are registered
+	 * @param producerCount number of producer threads, at most symbolCount
+	 * @param arrivalProcessFactory creates the arrival process of each producer
+	 * @param priceProcessFactory creates the price process of each producer
+	 * @param maxLagNanos delay on the schedule after which trades are dropped
+	 */
+	public MarketDataSimulator(StockService stockService, int symbolCount, int producerCount, Supplier<ArrivalProcess> arrivalProcessFactory,
+			Supplier<PriceProcess> priceProcessFactory, long maxLagNanos) {
+		if (symbolCount < 1) {
+			throw new IllegalArgumentException("Symbol count must be at least 1");
+		}
+		if (producerCount < 1 || producerCount > symbolCount) {
+			throw new IllegalArgumentException("Producer count must be between 1 and the symbol count");
+		}
+		this.stockService = stockService;
+		this.symbols = new StockSymbols[symbolCount];
+		StockSymbols[] registeredSymbols = StockSymbols.values();
+		for (int index = 0; index < symbolCount; index++) {
+			this.symbols[index] = index < registeredSymbols.length ? registeredSymbols[index] : StockSymbols.register(String.format(SIMULATED_SYMBOL_FORMAT, index));
+		}
+		this.producerCount = producerCount;
+		this.arrivalProcessFactory = arrivalProcessFactory;
+		this.priceProcessFactory = priceProcessFactory;
+		this.maxLagNanos = maxLagNanos;
+	}
+
+	/**
+	 * Runs the simulation for the given time
+	 * @param durationNanos
+	 * @return
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if a producer fails with an unexpected exception
+	 */
+	public SimulationReport run(long durationNanos) throws InterruptedException {
+		CountDownLatch ready = new CountDownLatch(producerCount);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Producer> producers = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int producerIndex = 0; producerIndex < producerCount; producerIndex++) {
+			//symbols are dealt to the producers, so each symbol has a single producer and its trades are in time order
+			List<StockSymbols> producerSymbols = new ArrayList<>();
+			for (int symbolIndex = producerIndex; symbolIndex < symbols.length; symbolIndex += producerCount) {
+				producerSymbols.add(symbols[symbolIndex]);
+			}
+			Producer producer = new Producer(producerIndex, producerSymbols.toArray(new StockSymbols[0]), ready, start, durationNanos);
+			producers.add(producer);
+			Thread thread = new Thread(producer, "simulator-producer-" + producerIndex);
+			thread.setUncaughtExceptionHandler((failedThread, e) -> producer.failure = e);
+			threads.add(thread);
+			thread.start();
+		}
+
+		ready.await();
+		long startTime = System.nanoTime();
+		for (Producer producer: producers) {
+			producer.startTime = startTime;
+		}
+		start.countDown();
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		long elapsedNanos = System.nanoTime() - startTime;
+
+		long generated = 0, recorded = 0, dropped = 0, rejected = 0;
+		LatencyHistogram latencies = new LatencyHistogram();
+		for (Producer producer: producers) {
+			if (producer.failure != null) {
+				throw new IllegalStateException("Simulator producer failed", producer.failure);
+			}
+			generated += producer.generated;
+			recorded += producer.recorded;
+			dropped += producer.dropped;
+			rejected += producer.rejected;
+			latencies.add(producer.latencies);
+		}
+		return new SimulationReport(generated, recorded, dropped, rejected, elapsedNanos, latencies);
+	}
+
+	/**
+	 * Producer thread: generates, schedules and records the trades of its symbols
+	 */
+	private class Producer implements Runnable {
+
+		private final StockSymbols[] producerSymbols;
+		private final CountDownLatch ready;
+		private final CountDownLatch start;
+		private final long durationNanos;
+		private final SplittableRandom random;
+		private final ArrivalProcess arrivalProcess;
+		private final PriceProcess priceProcess;
+		private final LatencyHistogram latencies;
+
+		private volatile long startTime;
+		private volatile Throwable failure;
+		private long generated;
+		private long recorded;
+		private long dropped;
+		private long rejected;
+
+		Producer(int producerIndex, StockSymbols[] producerSymbols, CountDownLatch ready, CountDownLatch start, long durationNanos) {
+			this.producerSymbols = producerSymbols;
+			this.ready = ready;
+			this.start = start;
+			this.durationNanos = durationNanos;
+			this.random = new SplittableRandom(producerIndex);
+			this.arrivalProcess = arrivalProcessFactory.get();
+			this.priceProcess = priceProcessFactory.get();
+			this.latencies = new LatencyHistogram();
+		}
+
+		@Override
+		public void run() {
+			ready.countDown();
+			try {
+				start.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			long scheduled = startTime;
+			int symbolIndex = 0;
+			while (true) {
+				scheduled += arrivalProcess.nextIntervalNanos(random);
+				if (scheduled - startTime >= durationNanos) {
+					break;
+				}
+
+				//wait until the trade is due
+				long now = System.nanoTime();
+				while (now < scheduled) {
+					if (scheduled - now > SPIN_THRESHOLD_NANOS) {
+						LockSupport.parkNanos(scheduled - now - SPIN_THRESHOLD_NANOS / 2);
+					}
+					now = System.nanoTime();
+				}
+
+				generated++;
+				if (now - scheduled > maxLagNanos) {
+					dropped++;
+					continue;
+				}
+
+				StockSymbols stockSymbol = producerSymbols[symbolIndex];
+				symbolIndex = symbolIndex + 1 == producerSymbols.length ? 0 : symbolIndex + 1;
+				StockTrade trade = new StockTrade(stockSymbol, SIMULATION_DATE.plusNanos(scheduled - startTime), random.nextLong(ConfigurationConstants.QUANTITY_RANGE_MIN, ConfigurationConstants.QUANTITY_RANGE_MAX),
+						StockUtils.fromPriceTicks(priceProcess.nextPriceTicks(stockSymbol, random)), random.nextBoolean() ? TradeType.BUY : TradeType.SELL);
+				if (stockService.tryStockTradeRecord(trade) == null) {
+					recorded++;
+				}
+				else {
+					rejected++;
+				}
+				latencies.record(System.nanoTime() - scheduled);
+			}
+		}
+	}
+
+	/**
+	 * Runs a simulation and logs its report.
+	 * Arguments: trades per second (1000000), seconds (10), symbols (5), producers (symbols, at most the available processors), arrivals (poisson or bursty)
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		double tradesPerSecond = args.length > 0 ? Double.parseDouble(args[0]) : 1_000_000;
+		long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+		int symbolCount = args.length > 2 ? Integer.parseInt(args[2]) : StockSymbols.count();
+		int producerCount = args.length > 3 ? Integer.parseInt(args[3]) : Math.min(symbolCount, Runtime.getRuntime().availableProcessors());
+		boolean bursty = args.length > 4 && "bursty".equals(args[4]);
+
+		//each producer gets its share of the total rate
+		double producerRate = tradesPerSecond / producerCount;
+		Supplier<ArrivalProcess> arrivals = bursty ? () -> ArrivalProcess.bursty(producerRate, 100) : () -> ArrivalProcess.poisson(producerRate);
+		Supplier<PriceProcess> prices = () -> new RandomWalkPriceProcess(StockUtils.toPriceTicks(BigDecimal.TEN), 1000);
+
+		MarketDataSimulator simulator = new MarketDataSimulator(new StockServiceImpl(), symbolCount, producerCount, arrivals, prices, TimeUnit.MILLISECONDS.toNanos(10));
+		LOGGER.info("Simulating " + Math.round(tradesPerSecond) + " trades/s for " + seconds + "s on " + symbolCount + " symbols with " + producerCount + " producers");
+		SimulationReport report = simulator.run(TimeUnit.SECONDS.toNanos(seconds));
+		LOGGER.info(report.toString());
+	}
+
+}
@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.simulator;
+
+import java.util.SplittableRandom;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Generates the trade prices of the stock symbols, as fixed-point ticks of 10^-ConfigurationConstants.PRICE_SCALE.
+ * A process is used by a single producer thread
+ *
+ */
+public interface PriceProcess {
+
+	/**
+	 * @param stockSymbol
+	 * @param random
+	 * @return the price ticks of the next trade of the given symbol, greater than zero
+	 */
+	public long nextPriceTicks(StockSymbols stockSymbol, SplittableRandom random);
+
+}
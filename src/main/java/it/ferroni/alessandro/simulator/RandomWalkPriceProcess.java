@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.simulator;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import it.ferroni.alessandro.constants.StockSymbols;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Gaussian random walk of the price of each symbol: each trade moves the price by a normal step
+ * with the given standard deviation in ticks. Prices never go below one tick
+ *
+ */
+public class RandomWalkPriceProcess implements PriceProcess {
+
+	private final long initialPriceTicks;
+	private final double stepTicks;
+	private long[] priceTicks;
+
+	/**
+	 * @param initialPriceTicks the first price of every symbol
+	 * @param stepTicks standard deviation of the price steps
+	 */
+	public RandomWalkPriceProcess(long initialPriceTicks, double stepTicks) {
+		this.initialPriceTicks = initialPriceTicks;
+		this.stepTicks = stepTicks;
+		this.priceTicks = new long[0];
+	}
+
+	@Override
+	public long nextPriceTicks(StockSymbols stockSymbol, SplittableRandom random) {
+		int index = stockSymbol.getId();
+		if (index >= priceTicks.length) {
+			//symbols registered after the last trade start from the initial price
+			int length = priceTicks.length;
+			priceTicks = Arrays.copyOf(priceTicks, Math.max(index + 1, StockSymbols.count()));
+			Arrays.fill(priceTicks, length, priceTicks.length, initialPriceTicks);
+		}
+		long price = priceTicks[index] + Math.round(nextGaussian(random) * stepTicks);
+		if (price < 1) {
+			price = 1;
+		}
+		priceTicks[index] = price;
+		return price;
+	}
+
+	/**
+	 * Standard normal value with the Box-Muller transform
+	 * @param random
+	 * @return
+	 */
+	private static double nextGaussian(SplittableRandom random) {
+		return Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble())) * Math.cos(2.0 * Math.PI * random.nextDouble());
+	}
+
+}
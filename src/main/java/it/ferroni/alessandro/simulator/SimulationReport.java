@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.simulator;
+
+import it.ferroni.alessandro.utils.LatencyHistogram;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Results of a market data simulation. Latencies go from the scheduled arrival of a trade
+ * to the end of its recording, so they include the time a trade waits behind the previous ones
+ *
+ */
+public class SimulationReport {
+
+	private final long generatedCount;
+	private final long recordedCount;
+	private final long droppedCount;
+	private final long rejectedCount;
+	private final long elapsedNanos;
+	private final LatencyHistogram latencies;
+
+	public SimulationReport(long generatedCount, long recordedCount, long droppedCount, long rejectedCount, long elapsedNanos, LatencyHistogram latencies) {
+		this.generatedCount = generatedCount;
+		this.recordedCount = recordedCount;
+		this.droppedCount = droppedCount;
+		this.rejectedCount = rejectedCount;
+		this.elapsedNanos = elapsedNanos;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * @return the number of trades scheduled by the arrival processes
+	 */
+	public long getGeneratedCount() {
+		return generatedCount;
+	}
+
+	/**
+	 * @return the number of trades recorded by the stock service
+	 */
+	public long getRecordedCount() {
+		return recordedCount;
+	}
+
+	/**
+	 * @return the number of trades dropped because their producer was too late on the schedule
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return the number of trades rejected by the stock service
+	 */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the recorded trades per second
+	 */
+	public double getAchievedRate() {
+		return elapsedNanos == 0 ? 0.0 : recordedCount * 1_000_000_000.0 / elapsedNanos;
+	}
+
+	/**
+	 * @return end-to-end latencies of the recorded trades, in nanoseconds
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	@Override
+	public String toString() {
+		return "SimulationReport [generated=" + generatedCount + ", recorded=" + recordedCount + ", dropped=" + droppedCount
+				+ ", rejected=" + rejectedCount + ", achievedRate=" + Math.round(getAchievedRate()) + "/s, latencyNanos("
+				+ latencies.toSummary() + ")]";
+	}
+
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.utils;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Mutable signed 128-bit integer, used to accumulate price x quantity products of fixed-point prices
+ * without overflowing a long. Operations throw ArithmeticException if the result does not fit 128 bits,
+ * like Math.addExact does for longs. An instance is used by one thread at a time
+ *
+ */
+public final class Int128 {
+
+	private long high;
+	private long low;
+
+	/**
+	 * @param value
+	 * @return this, set to the given value
+	 */
+	public Int128 set(long value) {
+		high = value >> 63;
+		low = value;
+		return this;
+	}
+
+	/**
+	 * @param value
+	 * @return this, with the value added
+	 */
+	public Int128 add(long value) {
+		return add(value >> 63, value);
+	}
+
+	/**
+	 * Adds the exact product of two longs
+	 * @param factor
+	 * @param otherFactor
+	 * @return this, with the product added
+	 */
+	public Int128 multiplyAdd(long factor, long otherFactor) {
+		return add(multiplyHigh(factor, otherFactor), factor * otherFactor);
+	}
+
+	private Int128 add(long valueHigh, long valueLow) {
+		long sumLow = low + valueLow;
+		long carry = Long.compareUnsigned(sumLow, low) < 0 ? 1 : 0;
+		//the high word of a product or of a long is far from Long.MAX_VALUE, so adding the carry does not overflow
+		high = Math.addExact(high, valueHigh + carry);
+		low = sumLow;
+		return this;
+	}
+
+	/**
+	 * @return -1, 0 or 1 as the value is negative, zero or positive
+	 */
+	public int signum() {
+		return high < 0 ? -1 : (high == 0 && low == 0 ? 0 : 1);
+	}
+
+	/**
+	 * @return true if the value fits a long
+	 */
+	public boolean fitsLong() {
+		return high == low >> 63;
+	}
+
+	/**
+	 * Divides the value rounding HALF_EVEN, like BigDecimal.divide does
+	 * @param divisor must not be zero
+	 * @return the quotient
+	 * @throws ArithmeticException if the divisor is zero or the quotient does not fit a long
+	 */
+	public long divideHalfEven(long divisor) {
+		return divideHalfEven(high, low, divisor);
+	}
+
+	/**
+	 * Divides the exact product of two longs rounding HALF_EVEN, like BigDecimal.divide does
+	 * @param factor
+	 * @param otherFactor
+	 * @param divisor must not be zero
+	 * @return the quotient
+	 * @throws ArithmeticException if the divisor is zero or the quotient does not fit a long
+	 */
+	public static long multiplyDivideHalfEven(long factor, long otherFactor, long divisor) {
+		return divideHalfEven(multiplyHigh(factor, otherFactor), factor * otherFactor, divisor);
+	}
+
+	private static long divideHalfEven(long high, long low, long divisor) {
+		if (divisor == 0) {
+			throw new ArithmeticException("Division by zero");
+		}
+		boolean negative = (high < 0) != (divisor < 0);
+		if (divisor == Long.MIN_VALUE) {
+			throw new ArithmeticException("Divisor out of range");
+		}
+		long magnitudeDivisor = Math.abs(divisor);
+
+		//magnitude of the dividend
+		long magnitudeHigh = high;
+		long magnitudeLow = low;
+		if (high < 0) {
+			magnitudeLow = -low;
+			magnitudeHigh = ~high + (low == 0 ? 1 : 0);
+		}
+
+		long quotient;
+		long remainder;
+		if (magnitudeHigh == 0 && magnitudeLow >= 0) {
+			quotient = magnitudeLow / magnitudeDivisor;
+			remainder = magnitudeLow % magnitudeDivisor;
+		}
+		else {
+			if (Long.compareUnsigned(magnitudeHigh, magnitudeDivisor) >= 0) {
+				throw new ArithmeticException("Quotient out of range");
+			}
+			//shift-subtract division of the 128-bit magnitude: the remainder is always lower than the divisor, so it fits 64 bits
+			quotient = 0;
+			remainder = magnitudeHigh;
+			for (int bit = 63; bit >= 0; bit--) {
+				remainder = (remainder << 1) | ((magnitudeLow >>> bit) & 1);
+				quotient <<= 1;
+				if (Long.compareUnsigned(remainder, magnitudeDivisor) >= 0) {
+					remainder -= magnitudeDivisor;
+					quotient |= 1;
+				}
+			}
+			if (quotient < 0) {
+				throw new ArithmeticException("Quotient out of range");
+			}
+		}
+
+		//the divisor is lower than 2^63, so twice the remainder fits 64 bits unsigned
+		int half = Long.compareUnsigned(remainder << 1, magnitudeDivisor);
+		if (half > 0 || (half == 0 && (quotient & 1) == 1)) {
+			quotient = Math.addExact(quotient, 1);
+		}
+		return negative ? -quotient : quotient;
+	}
+
+	/**
+	 * High 64 bits of the 128-bit product of two longs, as Math.multiplyHigh of Java 9
+	 * @param factor
+	 * @param otherFactor
+	 * @return
+	 */
+	public static long multiplyHigh(long factor, long otherFactor) {
+		long factorHigh = factor >> 32;
+		long factorLow = factor & 0xFFFFFFFFL;
+		long otherHigh = otherFactor >> 32;
+		long otherLow = otherFactor & 0xFFFFFFFFL;
+
+		long lowProduct = factorLow * otherLow;
+		long middle = factorHigh * otherLow + (lowProduct >>> 32);
+		long middleLow = (middle & 0xFFFFFFFFL) + factorLow * otherHigh;
+		return factorHigh * otherHigh + (middle >> 32) + (middleLow >> 32);
+	}
+
+	@Override
+	public String toString() {
+		return "Int128 [high=" + high + ", low=" + Long.toUnsignedString(low) + "]";
+	}
+
+}
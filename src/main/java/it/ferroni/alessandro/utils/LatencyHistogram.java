@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package it.ferroni.alessandro.utils;
+
+import java.util.Arrays;
+
+/**
+ * @author Alessandro Ferroni
+ *
+ * Log-linear histogram of non negative values, usually latencies in nanoseconds.
+ * Values below 128 have their own bucket; larger values are grouped in buckets with 64 sub-buckets
+ * for each power of two, so every value is reported with an error below 1.6%.
+ * Recording a value is a few shifts and an array increment, without allocation.
+ * A histogram has a single writer: use one histogram per thread and add them together to read them.
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	private final long[] counts;
+	private long totalCount;
+	private long maxValue;
+	private double sum;
+
+	public LatencyHistogram() {
+		counts = new long[BUCKET_COUNT];
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as 0
+	 * @param value
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[indexOf(value)]++;
+		totalCount++;
+		sum += value;
+		if (value > maxValue) {
+			maxValue = value;
+		}
+	}
+
+	/**
+	 * Adds all the values recorded in the given histogram
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		for (int index = 0; index < BUCKET_COUNT; index++) {
+			counts[index] += other.counts[index];
+		}
+		totalCount += other.totalCount;
+		sum += other.sum;
+		maxValue = Math.max(maxValue, other.maxValue);
+	}
+
+	/**
+	 * Removes all the recorded values
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		totalCount = 0;
+		maxValue = 0;
+		sum = 0.0;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return totalCount;
+	}
+
+	/**
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return maxValue;
+	}
+
+	/**
+	 * @return the mean of the recorded values, or 0 if no value has been recorded
+	 */
+	public double getMean() {
+		return totalCount == 0 ? 0.0 : sum / totalCount;
+	}
+
+	/**
+	 * Gets the value below which the given percentage of the recorded values fall
+	 * @param percentile from 0.0 to 100.0
+	 * @return the highest value of the bucket containing the percentile, or 0 if no value has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+		long cumulativeCount = 0;
+		for (int index = 0; index < BUCKET_COUNT; index++) {
+			cumulativeCount += counts[index];
+			if (cumulativeCount >= rank) {
+				return Math.min(highestValueOf(index), maxValue);
+			}
+		}
+		return maxValue;
+	}
+
+	/**
+	 * @return a short report of count, mean and main percentiles
+	 */
+	public String toSummary() {
+		return "count=" + totalCount + " mean=" + Math.round(getMean()) + " p50=" + getValueAtPercentile(50.0)
+				+ " p90=" + getValueAtPercentile(90.0) + " p99=" + getValueAtPercentile(99.0)
+				+ " p99.9=" + getValueAtPercentile(99.9) + " max=" + maxValue;
+	}
+
+	private static int indexOf(long value) {
+		if (value < 2 * SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < 2 * SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index - (long) shift * SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -4,6 +4,9 @@
 package it.ferroni.alessandro.utils;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.concurrent.ThreadLocalRandom;
 
 import it.ferroni.alessandro.constants.ConfigurationConstants;
@@ -15,6 +18,18 @@ import it.ferroni.alessandro.constants.TradeType;
  */
 public class StockUtils {
 	
+	//returned by toExactPriceTicks for values that are not a whole number of ticks
+	public static final long INEXACT_TICKS = Long.MIN_VALUE;
+	
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L };
+	
+	//one in ticks of 10^-ConfigurationConstants.PRICE_SCALE
+	public static final long TICKS_PER_UNIT = BigDecimal.ONE.scaleByPowerOfTen(ConfigurationConstants.PRICE_SCALE).longValueExact();
+	
+	//greatest price that fits a long of ticks, and half a tick, which rounds HALF_EVEN to zero ticks
+	private static final BigDecimal MAX_TICKS_PRICE = BigDecimal.valueOf(Long.MAX_VALUE, ConfigurationConstants.PRICE_SCALE);
+	private static final BigDecimal HALF_TICK_PRICE = BigDecimal.valueOf(5, ConfigurationConstants.PRICE_SCALE + 1);
+	
 	/**
 	 * Gets a random next trade record minute
 	 * @return
@@ -37,7 +52,9 @@ public class StockUtils {
 	 * @return
 	 */
 	public static BigDecimal getRandomPrice() {
-		return new BigDecimal(ThreadLocalRandom.current().nextDouble(ConfigurationConstants.PRICE_RANGE_MIN, ConfigurationConstants.PRICE_RANGE_MAX));
+		//prices are whole ticks: a price built from a double would have about 50 digits
+		return fromPriceTicks(ThreadLocalRandom.current().nextLong(toPriceTicks(BigDecimal.valueOf(ConfigurationConstants.PRICE_RANGE_MIN)),
+				toPriceTicks(BigDecimal.valueOf(ConfigurationConstants.PRICE_RANGE_MAX))));
 	}
 	
 	/**
@@ -47,5 +64,91 @@ public class StockUtils {
 	public static TradeType getRandomTradeType() {
 		return ThreadLocalRandom.current().nextBoolean() ? TradeType.BUY : TradeType.SELL;
 	}
+	
+	/**
+	 * Gets the start time of the trade bucket that contains the given timestamp
+	 * @param timestamp
+	 * @return
+	 */
+	public static LocalDateTime getTradeBucketStart(LocalDateTime timestamp) {
+		long epochSecond = timestamp.toEpochSecond(ZoneOffset.UTC);
+		long bucketSecond = Math.floorDiv(epochSecond, ConfigurationConstants.TRADE_BUCKET_SECONDS) * ConfigurationConstants.TRADE_BUCKET_SECONDS;
+		return LocalDateTime.ofEpochSecond(bucketSecond, 0, ZoneOffset.UTC);
+	}
+	
+	/**
+	 * Gets the start time of the first trade bucket that starts at or after the given timestamp
+	 * @param timestamp
+	 * @return
+	 */
+	public static LocalDateTime getNextTradeBucketStart(LocalDateTime timestamp) {
+		LocalDateTime bucketStart = getTradeBucketStart(timestamp);
+		return bucketStart.isBefore(timestamp) ? bucketStart.plusSeconds(ConfigurationConstants.TRADE_BUCKET_SECONDS) : bucketStart;
+	}
+	
+	/**
+	 * Converts a trade timestamp to nanoseconds from the epoch. Timestamps are read as UTC
+	 * @param timestamp
+	 * @return
+	 */
+	public static long toEpochNanos(LocalDateTime timestamp) {
+		return Math.addExact(Math.multiplyExact(timestamp.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L), timestamp.getNano());
+	}
+	
+	/**
+	 * Converts nanoseconds from the epoch to a trade timestamp. Timestamps are read as UTC
+	 * @param epochNanos
+	 * @return
+	 */
+	public static LocalDateTime fromEpochNanos(long epochNanos) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), (int) Math.floorMod(epochNanos, 1_000_000_000L), ZoneOffset.UTC);
+	}
+	
+	/**
+	 * Converts a price to fixed-point ticks of 10^-ConfigurationConstants.PRICE_SCALE, rounding HALF_EVEN
+	 * @param price
+	 * @return
+	 */
+	public static long toPriceTicks(BigDecimal price) {
+		return price.setScale(ConfigurationConstants.PRICE_SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+	}
+	
+	/**
+	 * Checks that a price converts to a number of ticks greater than zero that fits a long
+	 * @param price
+	 * @return
+	 */
+	public static boolean isPriceInTicksRange(BigDecimal price) {
+		return price.compareTo(HALF_TICK_PRICE) > 0 && price.compareTo(MAX_TICKS_PRICE) <= 0;
+	}
+	
+	/**
+	 * Converts a value to fixed-point ticks of 10^-ConfigurationConstants.PRICE_SCALE, if it can be done without rounding
+	 * @param value
+	 * @return the ticks, or INEXACT_TICKS if the value has more decimal digits than a tick or does not fit a long
+	 */
+	public static long toExactPriceTicks(BigDecimal value) {
+		if (value.scale() > ConfigurationConstants.PRICE_SCALE) {
+			value = value.stripTrailingZeros();
+			if (value.scale() > ConfigurationConstants.PRICE_SCALE) {
+				return INEXACT_TICKS;
+			}
+		}
+		int scale = value.scale();
+		if (scale < 0 || value.precision() - scale + ConfigurationConstants.PRICE_SCALE > 18) {
+			return INEXACT_TICKS;
+		}
+		//the unscaled value is read without rounding, then scaled to ticks
+		return value.movePointRight(scale).longValueExact() * POWERS_OF_TEN[ConfigurationConstants.PRICE_SCALE - scale];
+	}
+	
+	/**
+	 * Converts fixed-point price ticks to a price with scale ConfigurationConstants.PRICE_SCALE
+	 * @param priceTicks
+	 * @return
+	 */
+	public static BigDecimal fromPriceTicks(long priceTicks) {
+		return BigDecimal.valueOf(priceTicks, ConfigurationConstants.PRICE_SCALE);
+	}
 
 }
@@ -2,33 +2,106 @@ package it.ferroni.alessandro;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.math.RoundingMode;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import it.ferroni.alessandro.constants.BarResolution;
+import it.ferroni.alessandro.constants.CalculationStatus;
+import it.ferroni.alessandro.constants.ConfigurationConstants;
+import it.ferroni.alessandro.constants.NumericMode;
 import it.ferroni.alessandro.constants.StockSymbols;
 import it.ferroni.alessandro.constants.StockType;
+import it.ferroni.alessandro.constants.TradeRejectReason;
 import it.ferroni.alessandro.constants.TradeType;
+import it.ferroni.alessandro.ingest.StockTradeFeedDecoder;
+import it.ferroni.alessandro.ingest.StockTradeIngestPipeline;
+import it.ferroni.alessandro.ingest.WaitStrategy;
+import it.ferroni.alessandro.manager.StockTickerPriceListener;
+import it.ferroni.alessandro.manager.StockTradeColumns;
+import it.ferroni.alessandro.manager.impl.ColumnarStockTradeStoreImpl;
+import it.ferroni.alessandro.manager.impl.JournalStockManagerImpl;
+import it.ferroni.alessandro.manager.impl.OffHeapStockManagerImpl;
+import it.ferroni.alessandro.manager.impl.OffHeapStockTradeStoreImpl;
+import it.ferroni.alessandro.manager.impl.PartitionedStockManagerImpl;
+import it.ferroni.alessandro.manager.impl.StockManagerImpl;
+import it.ferroni.alessandro.models.CalculationResult;
 import it.ferroni.alessandro.models.Stock;
+import it.ferroni.alessandro.models.StockBar;
+import it.ferroni.alessandro.models.StockMetrics;
+import it.ferroni.alessandro.models.StockMetricsSnapshot;
+import it.ferroni.alessandro.models.StockOrderFlow;
+import it.ferroni.alessandro.models.StockPriceLogSum;
+import it.ferroni.alessandro.models.StockRecalculation;
+import it.ferroni.alessandro.models.StockTickerPrice;
 import it.ferroni.alessandro.models.StockTrade;
+import it.ferroni.alessandro.models.StockTradeBatchResult;
+import it.ferroni.alessandro.monitoring.LatencyRecorder;
+import it.ferroni.alessandro.monitoring.MonitoredOperation;
+import it.ferroni.alessandro.monitoring.StockServiceMonitor;
+import it.ferroni.alessandro.server.StockServiceServer;
 import it.ferroni.alessandro.service.StockService;
 import it.ferroni.alessandro.service.impl.StockServiceImpl;
+import it.ferroni.alessandro.simulator.ArrivalProcess;
+import it.ferroni.alessandro.simulator.MarketDataSimulator;
+import it.ferroni.alessandro.simulator.RandomWalkPriceProcess;
+import it.ferroni.alessandro.simulator.SimulationReport;
+import it.ferroni.alessandro.utils.Int128;
+import it.ferroni.alessandro.utils.StockUtils;
 
 public class ServiceTest {
 	
 	private StockService stockService;
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
 	@Before
 	public void setUp() throws Exception {
 		stockService = new StockServiceImpl();
 	}
 
+	@After
+	public void tearDown() {
+		stockService.close();
+	}
+
 	@Test
 	public void calculateDividendYieldTest() {
 		Stock stockTest = new Stock(StockSymbols.ALE, StockType.COMMON, null, null, null);
@@ -176,6 +249,124 @@ public class ServiceTest {
 		}
 	}
 	
+	@Test
+	public void fixedPointNumericModeTest() throws Exception {
+		//128-bit sums and HALF_EVEN divisions, checked against BigInteger
+		SplittableRandom random = new SplittableRandom(23);
+		for (int test = 0; test < 1000; test++) {
+			Int128 sum = new Int128();
+			BigInteger expectedSum = BigInteger.ZERO;
+			for (int term = 0; term < 4; term++) {
+				long factor = random.nextLong();
+				long otherFactor = test % 2 == 0 ? random.nextLong() >> 4 : random.nextLong(-1000, 1000);
+				sum.multiplyAdd(factor, otherFactor);
+				expectedSum = expectedSum.add(BigInteger.valueOf(factor).multiply(BigInteger.valueOf(otherFactor)));
+			}
+			long divisor = test % 3 == 0 ? random.nextLong(1, 1000) : random.nextLong();
+			BigDecimal expectedQuotient = new BigDecimal(expectedSum).divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_EVEN);
+			if (expectedQuotient.toBigInteger().bitLength() < 64) {
+				assertEquals(expectedQuotient.longValueExact(), sum.divideHalfEven(divisor));
+			}
+			else {
+				try {
+					sum.divideHalfEven(divisor);
+					fail("An exception should be thrown here");
+				}
+				catch (ArithmeticException e) {
+					//quotient out of range
+				}
+			}
+		}
+		assertEquals(2, new Int128().set(5).divideHalfEven(2));
+		assertEquals(-2, new Int128().set(-5).divideHalfEven(2));
+		assertEquals(4, new Int128().set(7).divideHalfEven(2));
+		
+		//both modes give the same results, with values that are whole ticks and with values that are not
+		StockService fixedPointStockService = new StockServiceImpl(new StockManagerImpl(), 1, NumericMode.FIXED_POINT);
+		StockService bigDecimalStockService = new StockServiceImpl(new StockManagerImpl(), 1, NumericMode.BIG_DECIMAL);
+		BigDecimal[] tickerPrices = { StockUtils.getRandomPrice(), new BigDecimal("3.1415926"), new BigDecimal(7.3), new BigDecimal("-2.5"), new BigDecimal("123456789012.25") };
+		for (Stock stock: fixedPointStockService.selectStockTable()) {
+			for (BigDecimal tickerPrice: tickerPrices) {
+				CalculationResult dividendYield = fixedPointStockService.tryCalculateDividendYield(stock, tickerPrice);
+				assertEquals(bigDecimalStockService.tryCalculateDividendYield(stock, tickerPrice).getValue(), dividendYield.getValue());
+				assertEquals(bigDecimalStockService.tryCalculatePERating(stock, tickerPrice, dividendYield.getValue()).getValue(),
+						fixedPointStockService.tryCalculatePERating(stock, tickerPrice, dividendYield.getValue()).getValue());
+			}
+		}
+		
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		List<StockTrade> trades = new ArrayList<>();
+		for (int index = 0; index < 2000; index++) {
+			trades.add(new StockTrade(StockSymbols.GIN, timestamp.plusNanos(index * 7_000_000L), random.nextLong(1, 100), StockUtils.getRandomPrice(), TradeType.BUY));
+		}
+		//a price with more digits than a tick makes the sums of its bucket fall back to BigDecimal
+		trades.add(new StockTrade(StockSymbols.GIN, timestamp.plusSeconds(5).plusNanos(500), new Long(3), new BigDecimal(4.1), TradeType.SELL));
+		assertTrue(fixedPointStockService.stockTradeRecords(trades).isAllAccepted());
+		assertTrue(bigDecimalStockService.stockTradeRecords(trades).isAllAccepted());
+		for (int range = 0; range < 100; range++) {
+			LocalDateTime startDate = timestamp.plusNanos(random.nextLong(-1_000_000_000L, 14_000_000_000L));
+			LocalDateTime endDate = startDate.plusNanos(random.nextLong(0, 8_000_000_000L));
+			assertEquals(bigDecimalStockService.tryCalculateStockPrice(StockSymbols.GIN, startDate, endDate).getValue(),
+					fixedPointStockService.tryCalculateStockPrice(StockSymbols.GIN, startDate, endDate).getValue());
+			assertEquals(bigDecimalStockService.tryCalculateStockPrice(StockSymbols.GIN, trades, startDate, endDate, false).getValue(),
+					fixedPointStockService.tryCalculateStockPrice(StockSymbols.GIN, trades, startDate, endDate, false).getValue());
+		}
+		assertEquals(bigDecimalStockService.tryCalculateStockPrice(StockSymbols.GIN, null, null).getValue(),
+				fixedPointStockService.tryCalculateStockPrice(StockSymbols.GIN, null, null).getValue());
+	}
+	
+	@Test
+	public void calculationResultTest() throws Exception {
+		Stock stockTest = new Stock(StockSymbols.GIN, StockType.PREFERRED, null, new BigDecimal(2), null);
+		
+		//failures are shared and carry the status of the missing data
+		CalculationResult result = stockService.tryCalculateDividendYield(stockTest, null);
+		assertEquals(CalculationStatus.MISSING_TICKER_PRICE, result.getStatus());
+		assertNull(result.getValue());
+		assertSame(result, stockService.tryCalculateDividendYield(stockTest, null));
+		assertEquals(CalculationStatus.ZERO_TICKER_PRICE, stockService.tryCalculateDividendYield(stockTest, BigDecimal.ZERO).getStatus());
+		assertEquals(CalculationStatus.MISSING_PAR_VALUE, stockService.tryCalculateDividendYield(stockTest, new BigDecimal(4)).getStatus());
+		try {
+			stockService.calculateDividendYield(stockTest, new BigDecimal(4));
+			fail("An exception should be thrown");
+		}
+		catch (Exception e) {
+			assertEquals(CalculationStatus.MISSING_PAR_VALUE.getMessage(CalculationResult.DIVIDEND_YIELD, StockSymbols.GIN), e.getMessage());
+		}
+		
+		stockTest.setParValue(new Long(100));
+		result = stockService.tryCalculateDividendYield(stockTest, new BigDecimal(4));
+		assertTrue(result.isOk());
+		assertEquals(stockService.calculateDividendYield(stockTest, new BigDecimal(4)), result.getValue());
+		assertEquals(CalculationStatus.ZERO_DIVIDEND_YIELD, stockService.tryCalculatePERating(stockTest, new BigDecimal(4), BigDecimal.ZERO).getStatus());
+		assertEquals(stockService.calculatePERating(stockTest, new BigDecimal(4), result.getValue()),
+				stockService.tryCalculatePERating(stockTest, new BigDecimal(4), result.getValue()).getValue());
+		
+		//trades are recorded only if valid
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		assertEquals(TradeRejectReason.INVALID_QUANTITY, stockService.tryStockTradeRecord(new StockTrade(StockSymbols.GIN, timestamp, new Long(0), new BigDecimal(2), TradeType.BUY)));
+		assertNull(stockService.tryStockTradeRecord(new StockTrade(StockSymbols.GIN, timestamp, new Long(10), new BigDecimal(2), TradeType.BUY)));
+		assertNull(stockService.tryStockTradeRecord(new StockTrade(StockSymbols.GIN, timestamp.plusSeconds(1), new Long(30), new BigDecimal(4), TradeType.SELL)));
+		//prices that do not convert to a number of ticks greater than zero that fits a long are not valid
+		assertEquals(TradeRejectReason.INVALID_PRICE, stockService.tryStockTradeRecord(new StockTrade(StockSymbols.GIN, timestamp, new Long(10), new BigDecimal("1E+30"), TradeType.BUY)));
+		assertEquals(TradeRejectReason.INVALID_PRICE, stockService.tryStockTradeRecord(new StockTrade(StockSymbols.GIN, timestamp, new Long(10), new BigDecimal("999999999999"), TradeType.BUY)));
+		assertEquals(TradeRejectReason.INVALID_PRICE, stockService.tryStockTradeRecord(new StockTrade(StockSymbols.GIN, timestamp, new Long(10), new BigDecimal("0.00000004"), TradeType.BUY)));
+		assertNull(stockService.tryStockTradeRecord(new StockTrade(StockSymbols.JOE, timestamp, new Long(1), new BigDecimal("922337203685.4775807"), TradeType.BUY)));
+		assertEquals(2, stockService.selectStockTradeRecords().get(StockSymbols.GIN).size());
+		assertEquals(Long.MAX_VALUE, stockService.calculateStockPriceTicks(StockSymbols.JOE, null, null));
+		
+		assertEquals(CalculationStatus.MISSING_SYMBOL, stockService.tryCalculateStockPrice(null, null, null).getStatus());
+		assertEquals(stockService.calculateStockPrice(StockSymbols.GIN, null, null), stockService.tryCalculateStockPrice(StockSymbols.GIN, null, null).getValue());
+		
+		//pre-validated trades are not checked against the symbol
+		List<StockTrade> trades = new ArrayList<>(stockService.selectStockTrades(StockSymbols.GIN, null, null));
+		trades.add(new StockTrade(StockSymbols.TEA, timestamp.plusSeconds(2), new Long(10), new BigDecimal(6), TradeType.BUY));
+		assertEquals(CalculationStatus.SYMBOL_MISMATCH, stockService.tryCalculateStockPrice(StockSymbols.GIN, trades, null, null, false).getStatus());
+		trades.remove(trades.size() - 1);
+		assertEquals(stockService.calculateStockPrice(StockSymbols.GIN, trades, null, null), stockService.tryCalculateStockPrice(StockSymbols.GIN, trades, null, null, true).getValue());
+		assertEquals(new BigDecimal(3.5).setScale(7, RoundingMode.HALF_EVEN), stockService.tryCalculateStockPrice(StockSymbols.GIN, trades, null, null, true).getValue());
+	}
+
 	@Test
 	public void stockTradeRecordTest() {
 		//both traderecord and trade map are null. An exception is expected
@@ -264,6 +455,44 @@ public class ServiceTest {
 		}
 	}
 	
+	@Test
+	public void stockTradeRecordsTest() {
+		LocalDateTime timestamp = LocalDateTime.now();
+		List<StockTrade> records = new ArrayList<>();
+		records.add(new StockTrade(StockSymbols.ALE, timestamp, new Long(5), new BigDecimal(10.0), TradeType.BUY));
+		records.add(null);
+		records.add(new StockTrade(StockSymbols.ALE, timestamp, new Long(0), new BigDecimal(10.0), TradeType.BUY));
+		records.add(new StockTrade(StockSymbols.TEA, timestamp, new Long(5), new BigDecimal(2.0), TradeType.SELL));
+		records.add(new StockTrade(StockSymbols.TEA, timestamp, new Long(5), new BigDecimal(0.0), TradeType.SELL));
+		records.add(new StockTrade(StockSymbols.TEA, null, new Long(5), new BigDecimal(2.0), TradeType.SELL));
+		records.add(new StockTrade(StockSymbols.ALE, timestamp, new Long(15), new BigDecimal(20.0), TradeType.SELL));
+		records.add(new StockTrade(StockSymbols.ALE, timestamp, new Long(15), new BigDecimal(20.0), null));
+		records.add(new StockTrade(StockSymbols.TEA, timestamp, new Long(5), new BigDecimal("1E+30"), TradeType.SELL));
+		
+		//invalid trades are reported without exceptions, valid trades are recorded
+		StockTradeBatchResult result = stockService.stockTradeRecords(records);
+		assertEquals(3, result.getAcceptedCount());
+		assertEquals(6, result.getRejectedCount());
+		assertFalse(result.isAllAccepted());
+		int[] rejectedIndexes = {1, 2, 4, 5, 7, 8};
+		TradeRejectReason[] rejectReasons = {TradeRejectReason.NULL_RECORD, TradeRejectReason.INVALID_QUANTITY, TradeRejectReason.INVALID_PRICE, TradeRejectReason.MISSING_TIMESTAMP, TradeRejectReason.INVALID_TYPE, TradeRejectReason.INVALID_PRICE};
+		for (int rejected = 0; rejected < result.getRejectedCount(); rejected++) {
+			assertEquals(rejectedIndexes[rejected], result.getRejectedIndex(rejected));
+			assertEquals(rejectReasons[rejected], result.getRejectReason(rejected));
+		}
+		
+		assertEquals(2, stockService.selectStockTrades(StockSymbols.ALE, null, null).size());
+		assertEquals(1, stockService.selectStockTrades(StockSymbols.TEA, null, null).size());
+		try {
+			assertEquals(new BigDecimal(17.5).setScale(7, RoundingMode.HALF_EVEN), stockService.calculateStockPrice(StockSymbols.ALE, null, null));
+			//the rejected price is not stored, so the columns of the symbol are still read
+			assertEquals(2 * StockUtils.TICKS_PER_UNIT, stockService.calculateStockPriceTicks(StockSymbols.TEA, null, null));
+		}
+		catch (Exception e) {
+			fail("An exception should not be thrown here");
+		}
+	}
+	
 	@Test
 	public void calculateStockPriceTest() {
 		//both stock symbols and trade list are null. An exception should be thrown
@@ -304,6 +533,669 @@ public class ServiceTest {
 		}
 	}
 	
+	@Test
+	public void calculateStockPriceFromBucketsTest() {
+		//stock symbol is null. An exception should be thrown
+		try {
+			stockService.calculateStockPrice(null, null, null);
+			fail("An exception should be thrown here");
+		} catch (Exception e) {
+		}
+		
+		StockSymbols stockSymbol = StockSymbols.POP;
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 11, 0, 0);
+		LocalDateTime endDate = startDate.plusMinutes(15);
+		try {
+			//no trades recorded: I expect 0.0 as result
+			BigDecimal stockPrice = stockService.calculateStockPrice(stockSymbol, startDate, endDate);
+			assertEquals(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN), stockPrice);
+			
+			//two trades in the range, one before and one at the end of the range (excluded)
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate, new Long(10), new BigDecimal(10.0), TradeType.BUY));
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate.plusMinutes(5), new Long(40), new BigDecimal(50.0), TradeType.SELL));
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate.minusMinutes(1), new Long(100), new BigDecimal(1.0), TradeType.BUY));
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, endDate, new Long(100), new BigDecimal(1.0), TradeType.BUY));
+			
+			stockPrice = stockService.calculateStockPrice(stockSymbol, startDate, endDate);
+			assertEquals(new BigDecimal(42.0).setScale(7, RoundingMode.HALF_EVEN), stockPrice);
+			
+			//result must be the same calculated from the trade list
+			List<StockTrade> tradeRecords = new ArrayList<>();
+			tradeRecords.add(new StockTrade(stockSymbol, startDate, new Long(10), new BigDecimal(10.0), TradeType.BUY));
+			tradeRecords.add(new StockTrade(stockSymbol, startDate.plusMinutes(5), new Long(40), new BigDecimal(50.0), TradeType.SELL));
+			assertEquals(stockService.calculateStockPrice(stockSymbol, tradeRecords, null, null), stockPrice);
+			
+			//the list of all the trades filtered by the same range excludes the trades at startDate and at endDate, in both numeric modes
+			List<StockTrade> allTradeRecords = stockService.selectStockTrades(stockSymbol, null, null);
+			BigDecimal insideStockPrice = new BigDecimal(50.0).setScale(7, RoundingMode.HALF_EVEN);
+			assertEquals(insideStockPrice, stockService.calculateStockPrice(stockSymbol, allTradeRecords, startDate, endDate));
+			StockService fixedPointStockService = new StockServiceImpl(new StockManagerImpl(), 1, NumericMode.FIXED_POINT);
+			try {
+				assertEquals(insideStockPrice, fixedPointStockService.calculateStockPrice(stockSymbol, allTradeRecords, startDate, endDate));
+			}
+			finally {
+				fixedPointStockService.close();
+			}
+		}
+		catch (Exception e) {
+			fail("An exception should not be thrown here");
+		}
+	}
+	
+	@Test
+	public void removeStockTradeRecordsTest() throws Exception {
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		List<StockTrade> trades = new ArrayList<>();
+		for (int tradenumber = 0; tradenumber < 40; tradenumber++) {
+			//several trades in each bucket, with prices finer than a tick
+			trades.add(new StockTrade(StockSymbols.POP, timestamp.plusNanos(tradenumber * 150_000_000L), new Long(tradenumber + 1),
+					BigDecimal.valueOf(tradenumber + 1).add(new BigDecimal("0.234567891")), TradeType.BUY));
+		}
+		assertTrue(stockService.stockTradeRecords(trades).isAllAccepted());
+		
+		//removing before a date inside a bucket keeps the later trades of the bucket only
+		LocalDateTime endDate = timestamp.plusNanos(2_400_000_000L);
+		assertEquals(16, stockService.removeStockTradeRecords(endDate));
+		List<StockTrade> keptTrades = stockService.selectStockTrades(StockSymbols.POP, null, null);
+		assertEquals(24, keptTrades.size());
+		StockService keptStockService = new StockServiceImpl();
+		try {
+			assertTrue(keptStockService.stockTradeRecords(keptTrades).isAllAccepted());
+			assertEquals(stockService.calculateStockPrice(StockSymbols.POP, keptTrades, null, null), stockService.calculateStockPrice(StockSymbols.POP, null, null));
+			assertEquals(keptStockService.calculateStockPrice(StockSymbols.POP, timestamp.plusSeconds(2), null), stockService.calculateStockPrice(StockSymbols.POP, timestamp.plusSeconds(2), null));
+			
+			//the removed prices are subtracted from the price log sum as they were added
+			assertEquals(keptStockService.calculateGBCEAllShareIndex(), stockService.calculateGBCEAllShareIndex());
+		}
+		finally {
+			keptStockService.close();
+		}
+	}
+	
+	@Test
+	public void selectStockTradesTest() {
+		StockSymbols stockSymbol = StockSymbols.TEA;
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 11, 0, 0);
+		
+		//no trades recorded: I expect an empty list
+		assertTrue(stockService.selectStockTrades(stockSymbol, null, null).isEmpty());
+		
+		try {
+			//trades are recorded out of time order
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate.plusMinutes(10), new Long(30), new BigDecimal(3.0), TradeType.BUY));
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate, new Long(10), new BigDecimal(1.0), TradeType.BUY));
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate.plusMinutes(20), new Long(40), new BigDecimal(4.0), TradeType.SELL));
+			stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate.plusMinutes(5), new Long(20), new BigDecimal(2.0), TradeType.SELL));
+		}
+		catch (Exception e) {
+			fail("An exception should not be thrown here");
+		}
+		
+		//all trades are returned ordered by timestamp
+		List<StockTrade> trades = stockService.selectStockTrades(stockSymbol, null, null);
+		assertEquals(4, trades.size());
+		for (int index = 1; index < trades.size(); index++) {
+			assertFalse(trades.get(index).getTimestamp().isBefore(trades.get(index - 1).getTimestamp()));
+		}
+		
+		//start date is included, end date is excluded
+		trades = stockService.selectStockTrades(stockSymbol, startDate.plusMinutes(5), startDate.plusMinutes(20));
+		assertEquals(2, trades.size());
+		assertEquals(new Long(20), trades.get(0).getQuantity());
+		assertEquals(new Long(30), trades.get(1).getQuantity());
+		
+		//a range that is not aligned to the buckets gives the same price of the trade list
+		try {
+			LocalDateTime from = startDate.plusNanos(1);
+			LocalDateTime to = startDate.plusMinutes(20).plusNanos(1);
+			BigDecimal stockPrice = stockService.calculateStockPrice(stockSymbol, from, to);
+			assertEquals(stockService.calculateStockPrice(stockSymbol, stockService.selectStockTrades(stockSymbol, from, to), null, null), stockPrice);
+			assertEquals(new BigDecimal(29.0).divide(new BigDecimal(9.0), 7, RoundingMode.HALF_EVEN), stockPrice);
+		}
+		catch (Exception e) {
+			fail("An exception should not be thrown here");
+		}
+	}
+	
+	@Test
+	public void concurrentStockTradeRecordTest() throws Exception {
+		final int tradesPerThread = 2000;
+		final LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		
+		//two threads for each of two stock symbols record trades in parallel while another thread reads them
+		for (int thread = 0; thread < 4; thread++) {
+			final StockSymbols stockSymbol = thread % 2 == 0 ? StockSymbols.GIN : StockSymbols.JOE;
+			futures.add(executor.submit(() -> {
+				for (int tradenumber = 0; tradenumber < tradesPerThread; tradenumber++) {
+					stockService.stockTradeRecord(new StockTrade(stockSymbol, startDate.plusSeconds(tradenumber), new Long(1), new BigDecimal(2.0), TradeType.BUY));
+					List<StockTrade> trades = stockService.selectStockTrades(stockSymbol, null, null);
+					for (int index = 1; index < trades.size(); index++) {
+						assertFalse(trades.get(index).getTimestamp().isBefore(trades.get(index - 1).getTimestamp()));
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future: futures) {
+			future.get();
+		}
+		executor.shutdown();
+		
+		assertEquals(2 * tradesPerThread, stockService.selectStockTrades(StockSymbols.GIN, null, null).size());
+		assertEquals(2 * tradesPerThread, stockService.selectStockTrades(StockSymbols.JOE, null, null).size());
+		assertEquals(new BigDecimal(2.0).setScale(7, RoundingMode.HALF_EVEN), stockService.calculateStockPrice(StockSymbols.GIN, null, null));
+	}
+	
+	@Test
+	public void columnarStockTradeStoreTest() throws Exception {
+		StockService columnarStockService = new StockServiceImpl(new StockManagerImpl(ColumnarStockTradeStoreImpl::new));
+		StockSymbols stockSymbol = StockSymbols.ALE;
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 11, 0, 0);
+		
+		//no trades recorded: price is 0 and the index cannot be calculated
+		assertEquals(0, columnarStockService.calculateStockPriceTicks(stockSymbol, null, null));
+		try {
+			columnarStockService.calculateGBCEAllShareIndexTicks();
+			fail("An exception should be thrown here");
+		} catch (Exception e) {
+		}
+		
+		//the same trades are recorded in both the stores
+		for (int tradenumber = 0; tradenumber < 100; tradenumber++) {
+			StockTrade trade = new StockTrade(stockSymbol, startDate.plusSeconds(tradenumber * 7 % 100), new Long(tradenumber + 1), new BigDecimal("1.2345678").add(BigDecimal.valueOf(tradenumber, 2)), tradenumber % 3 == 0 ? TradeType.SELL : TradeType.BUY);
+			stockService.stockTradeRecord(trade);
+			columnarStockService.stockTradeRecord(trade);
+		}
+		
+		//trades are read back with the same values
+		List<StockTrade> trades = stockService.selectStockTrades(stockSymbol, null, null);
+		List<StockTrade> columnarTrades = columnarStockService.selectStockTrades(stockSymbol, null, null);
+		assertEquals(trades.size(), columnarTrades.size());
+		for (int index = 0; index < trades.size(); index++) {
+			assertEquals(trades.get(index).getTimestamp(), columnarTrades.get(index).getTimestamp());
+			assertEquals(trades.get(index).getQuantity(), columnarTrades.get(index).getQuantity());
+			assertEquals(0, trades.get(index).getPrice().compareTo(columnarTrades.get(index).getPrice()));
+			assertEquals(trades.get(index).getType(), columnarTrades.get(index).getType());
+		}
+		
+		//fixed-point prices are the same of the BigDecimal ones
+		LocalDateTime endDate = startDate.plusSeconds(50);
+		BigDecimal stockPrice = stockService.calculateStockPrice(stockSymbol, startDate.plusSeconds(10), endDate);
+		assertEquals(stockPrice, StockUtils.fromPriceTicks(columnarStockService.calculateStockPriceTicks(stockSymbol, startDate.plusSeconds(10), endDate)));
+		assertEquals(stockPrice, columnarStockService.calculateStockPrice(stockSymbol, startDate.plusSeconds(10), endDate));
+		assertEquals(stockService.calculateGBCEAllShareIndex(), StockUtils.fromPriceTicks(columnarStockService.calculateGBCEAllShareIndexTicks()).setScale(2, RoundingMode.HALF_EVEN));
+	}
+	
+	@Test
+	public void offHeapStockManagerTest() throws Exception {
+		StockSymbols stockSymbol = StockSymbols.ALE;
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 11, 0, 0);
+		long startNanos = StockUtils.toEpochNanos(startDate);
+		
+		//the same trades, some of them late, are added to an off-heap and to a columnar store across several chunks
+		OffHeapStockTradeStoreImpl offHeapStore = new OffHeapStockTradeStoreImpl(stockSymbol);
+		ColumnarStockTradeStoreImpl columnarStore = new ColumnarStockTradeStoreImpl(stockSymbol);
+		int tradeCount = ConfigurationConstants.OFF_HEAP_CHUNK_RECORDS * 2 + 100;
+		for (int tradenumber = 0; tradenumber < tradeCount; tradenumber++) {
+			long timestamp = startNanos + (tradenumber % 1000 == 999 ? tradenumber - 5000 : tradenumber) * 1000000L;
+			offHeapStore.addStockTrade(timestamp, tradenumber % 100 + 1, 10000000L + tradenumber, (byte) (tradenumber % 2));
+			columnarStore.addStockTrade(timestamp, tradenumber % 100 + 1, 10000000L + tradenumber, (byte) (tradenumber % 2));
+		}
+		StockTradeColumns offHeapColumns = offHeapStore.selectStockTradeColumns();
+		StockTradeColumns columns = columnarStore.selectStockTradeColumns();
+		assertEquals(tradeCount, offHeapColumns.size());
+		for (int index = 0; index < tradeCount; index++) {
+			assertEquals(columns.getTimestamp(index), offHeapColumns.getTimestamp(index));
+			assertEquals(columns.getQuantity(index), offHeapColumns.getQuantity(index));
+			assertEquals(columns.getPriceTicks(index), offHeapColumns.getPriceTicks(index));
+			assertEquals(columns.getTradeType(index), offHeapColumns.getTradeType(index));
+		}
+		assertEquals(columnarStore.selectStockTrades(startDate.plusSeconds(10), startDate.plusSeconds(20)).size(), offHeapStore.selectStockTrades(startDate.plusSeconds(10), startDate.plusSeconds(20)).size());
+		//only the late trades falling in a full chunk add a chunk, splitting it in two halves
+		long chunkBytes = (long) ConfigurationConstants.OFF_HEAP_CHUNK_RECORDS * OffHeapStockTradeStoreImpl.RECORD_LENGTH;
+		assertEquals(4 * chunkBytes, offHeapStore.getAllocatedBytes());
+		
+		//removing old trades drops whole chunks, without changing the views of the readers
+		List<StockTrade> offHeapTrades = offHeapStore.selectStockTrades();
+		StockTrade firstTrade = offHeapTrades.get(0);
+		LocalDateTime endDate = startDate.plusNanos((ConfigurationConstants.OFF_HEAP_CHUNK_RECORDS + 10) * 1000000L);
+		assertEquals(columnarStore.removeStockTrades(endDate), offHeapStore.removeStockTrades(endDate));
+		offHeapStore.addStockTrade(startNanos + (tradeCount - 10) * 1000000L, 1, 10000000L, (byte) 0);
+		columnarStore.addStockTrade(startNanos + (tradeCount - 10) * 1000000L, 1, 10000000L, (byte) 0);
+		offHeapColumns = offHeapStore.selectStockTradeColumns();
+		columns = columnarStore.selectStockTradeColumns();
+		assertEquals(columns.size(), offHeapColumns.size());
+		for (int index = 0; index < columns.size(); index++) {
+			assertEquals(columns.getTimestamp(index), offHeapColumns.getTimestamp(index));
+			assertEquals(columns.getPriceTicks(index), offHeapColumns.getPriceTicks(index));
+		}
+		assertEquals(2 * chunkBytes, offHeapStore.getAllocatedBytes());
+		assertEquals(tradeCount, offHeapTrades.size());
+		assertEquals(firstTrade.getTimestamp(), offHeapTrades.get(0).getTimestamp());
+		assertEquals(firstTrade.getPrice(), offHeapTrades.get(0).getPrice());
+		
+		//the service calculates the same prices on an off-heap manager
+		OffHeapStockManagerImpl stockManager = new OffHeapStockManagerImpl();
+		StockService offHeapStockService = new StockServiceImpl(stockManager);
+		for (int tradenumber = 0; tradenumber < 100; tradenumber++) {
+			StockTrade trade = new StockTrade(stockSymbol, startDate.plusSeconds(tradenumber * 7 % 100), new Long(tradenumber + 1), new BigDecimal("1.2345678").add(BigDecimal.valueOf(tradenumber, 2)), tradenumber % 3 == 0 ? TradeType.SELL : TradeType.BUY);
+			stockService.stockTradeRecord(trade);
+			offHeapStockService.stockTradeRecord(trade);
+		}
+		assertEquals(100, offHeapStockService.selectStockTrades(stockSymbol, null, null).size());
+		assertEquals(stockService.calculateStockPrice(stockSymbol, startDate.plusSeconds(10), startDate.plusSeconds(50)), offHeapStockService.calculateStockPrice(stockSymbol, startDate.plusSeconds(10), startDate.plusSeconds(50)));
+		assertEquals(stockService.calculateGBCEAllShareIndex(), offHeapStockService.calculateGBCEAllShareIndex());
+		assertTrue(stockManager.getOffHeapBytes() > 0);
+		
+		//a reset releases the chunks of all the symbols
+		offHeapStockService.resetStockTradeRecords();
+		assertEquals(0, stockManager.getOffHeapBytes());
+		assertTrue(offHeapStockService.selectStockTrades(stockSymbol, null, null).isEmpty());
+	}
+	
+	@Test
+	public void partitionedStockManagerTest() throws Exception {
+		StockSymbols stockSymbol = StockSymbols.ALE;
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 0, 0, 0);
+		
+		//hourly partitions, the last 3 are kept
+		PartitionedStockManagerImpl stockManager = new PartitionedStockManagerImpl(60 * 60, 3);
+		StockService partitionedStockService = new StockServiceImpl(stockManager);
+		StockService columnarStockService = new StockServiceImpl(new StockManagerImpl(ColumnarStockTradeStoreImpl::new));
+		
+		//trades of the first 3 hours are recorded in both the services, late trades of sealed partitions included
+		for (int tradenumber = 0; tradenumber < 360; tradenumber++) {
+			LocalDateTime timestamp = startDate.plusSeconds(tradenumber % 60 == 59 && tradenumber > 120 ? (tradenumber - 130) * 30 : tradenumber * 30);
+			StockTrade trade = new StockTrade(stockSymbol, timestamp, new Long(tradenumber % 50 + 1), new BigDecimal("3.1415926").add(BigDecimal.valueOf(tradenumber, 2)), tradenumber % 3 == 0 ? TradeType.SELL : TradeType.BUY);
+			partitionedStockService.stockTradeRecord(trade);
+			columnarStockService.stockTradeRecord(trade);
+		}
+		
+		//trades and prices are the same of a single store, within and across partitions
+		List<StockTrade> trades = columnarStockService.selectStockTrades(stockSymbol, null, null);
+		List<StockTrade> partitionedTrades = partitionedStockService.selectStockTrades(stockSymbol, null, null);
+		assertEquals(trades.size(), partitionedTrades.size());
+		for (int index = 0; index < trades.size(); index++) {
+			assertEquals(trades.get(index).getTimestamp(), partitionedTrades.get(index).getTimestamp());
+			assertEquals(0, trades.get(index).getPrice().compareTo(partitionedTrades.get(index).getPrice()));
+		}
+		LocalDateTime[][] ranges = {
+				{startDate.plusMinutes(10), startDate.plusMinutes(50)},
+				{startDate.plusMinutes(50), startDate.plusMinutes(130)},
+				{startDate.plusHours(1), startDate.plusHours(2)},
+				{startDate.minusHours(1), startDate.plusHours(5)}};
+		for (LocalDateTime[] range: ranges) {
+			assertEquals(columnarStockService.selectStockTrades(stockSymbol, range[0], range[1]).size(), partitionedStockService.selectStockTrades(stockSymbol, range[0], range[1]).size());
+			assertEquals(columnarStockService.calculateStockPrice(stockSymbol, range[0], range[1]), partitionedStockService.calculateStockPrice(stockSymbol, range[0], range[1]));
+			assertEquals(columnarStockService.calculateStockPriceTicks(stockSymbol, range[0], range[1]), partitionedStockService.calculateStockPriceTicks(stockSymbol, range[0], range[1]));
+		}
+		assertTrue(partitionedStockService.selectStockTrades(stockSymbol, startDate.plusHours(4), startDate.plusHours(5)).isEmpty());
+		
+		//a trade of the 5th hour expires the first 2 partitions: the kept trades and the index are the ones of a single store after a removal
+		StockTrade trade = new StockTrade(stockSymbol, startDate.plusHours(4), new Long(10), new BigDecimal("2.5"), TradeType.BUY);
+		partitionedStockService.stockTradeRecord(trade);
+		columnarStockService.stockTradeRecord(trade);
+		assertEquals(startDate.plusHours(2), stockManager.getRetentionStart());
+		columnarStockService.removeStockTradeRecords(startDate.plusHours(2));
+		assertEquals(columnarStockService.selectStockTrades(stockSymbol, null, null).size(), partitionedStockService.selectStockTrades(stockSymbol, null, null).size());
+		assertTrue(partitionedStockService.selectStockTrades(stockSymbol, null, startDate.plusHours(2)).isEmpty());
+		assertEquals(columnarStockService.calculateStockPrice(stockSymbol, null, null), partitionedStockService.calculateStockPrice(stockSymbol, null, null));
+		assertEquals(columnarStockService.calculateGBCEAllShareIndex(), partitionedStockService.calculateGBCEAllShareIndex());
+		
+		//removing trades before a date inside a partition keeps the later trades of the partition
+		long removed = partitionedStockService.removeStockTradeRecords(startDate.plusMinutes(150));
+		assertEquals(columnarStockService.removeStockTradeRecords(startDate.plusMinutes(150)), removed);
+		assertEquals(columnarStockService.selectStockTrades(stockSymbol, null, null).size(), partitionedStockService.selectStockTrades(stockSymbol, null, null).size());
+		assertEquals(columnarStockService.calculateStockPrice(stockSymbol, null, null), partitionedStockService.calculateStockPrice(stockSymbol, null, null));
+		
+		partitionedStockService.resetStockTradeRecords();
+		assertNull(stockManager.getRetentionStart());
+		assertTrue(partitionedStockService.selectStockTrades(stockSymbol, null, null).isEmpty());
+	}
+	
+	@Test
+	public void journalStockManagerTest() throws Exception {
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 11, 0, 0);
+		BigDecimal stockPrice;
+		BigDecimal popStockPrice;
+		BigDecimal index;
+		StockPriceLogSum popLogSum;
+		
+		//trades are recorded in the journals of a first manager
+		try (JournalStockManagerImpl stockManager = new JournalStockManagerImpl(temporaryFolder.getRoot().toPath())) {
+			StockService journalStockService = new StockServiceImpl(stockManager);
+			for (int tradenumber = 0; tradenumber < 50; tradenumber++) {
+				journalStockService.stockTradeRecord(new StockTrade(StockSymbols.GIN, startDate.plusMinutes(tradenumber), new Long(tradenumber + 1), new BigDecimal("2.5").add(BigDecimal.valueOf(tradenumber, 1)), TradeType.BUY));
+				journalStockService.stockTradeRecord(new StockTrade(StockSymbols.JOE, startDate.plusMinutes(tradenumber), new Long(10), new BigDecimal("7.25"), TradeType.SELL));
+			}
+			//trades across several journal regions, with prices finer than a tick
+			for (int tradenumber = 0; tradenumber < 3 * ConfigurationConstants.JOURNAL_INITIAL_REGION_RECORDS + 7; tradenumber++) {
+				journalStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(tradenumber), new Long(tradenumber % 7 + 1), new BigDecimal("1.234567891").add(BigDecimal.valueOf(tradenumber, 9)), TradeType.BUY));
+			}
+			stockPrice = journalStockService.calculateStockPrice(StockSymbols.GIN, startDate.plusMinutes(10), startDate.plusMinutes(25));
+			popStockPrice = journalStockService.calculateStockPrice(StockSymbols.POP, startDate.plusSeconds(100), startDate.plusSeconds(2500));
+			index = journalStockService.calculateGBCEAllShareIndex();
+		}
+		
+		//a second manager on the same directory loads the trades and rebuilds the running sums
+		try (JournalStockManagerImpl stockManager = new JournalStockManagerImpl(temporaryFolder.getRoot().toPath())) {
+			StockService journalStockService = new StockServiceImpl(stockManager);
+			assertEquals(50, journalStockService.selectStockTrades(StockSymbols.GIN, null, null).size());
+			assertEquals(50, journalStockService.selectStockTrades(StockSymbols.JOE, null, null).size());
+			assertTrue(journalStockService.selectStockTrades(StockSymbols.TEA, null, null).isEmpty());
+			assertEquals(stockPrice, journalStockService.calculateStockPrice(StockSymbols.GIN, startDate.plusMinutes(10), startDate.plusMinutes(25)));
+			assertEquals(3 * ConfigurationConstants.JOURNAL_INITIAL_REGION_RECORDS + 7, journalStockService.selectStockTrades(StockSymbols.POP, null, null).size());
+			assertEquals(popStockPrice, journalStockService.calculateStockPrice(StockSymbols.POP, startDate.plusSeconds(100), startDate.plusSeconds(2500)));
+			assertEquals(index, journalStockService.calculateGBCEAllShareIndex());
+			
+			//removed trades are subtracted from the price log sums and the journals are rewritten with the kept trades
+			assertEquals(2 * 20 + 20 * 60, journalStockService.removeStockTradeRecords(startDate.plusMinutes(20)));
+			popLogSum = stockManager.selectStockPriceLogSum(StockSymbols.POP);
+			assertEquals(3 * ConfigurationConstants.JOURNAL_INITIAL_REGION_RECORDS + 7 - 20 * 60, popLogSum.getPriceCount());
+		}
+		
+		//a third manager loads the kept trades only, and rebuilds the same price log sums
+		try (JournalStockManagerImpl stockManager = new JournalStockManagerImpl(temporaryFolder.getRoot().toPath())) {
+			StockService journalStockService = new StockServiceImpl(stockManager);
+			assertEquals(30, journalStockService.selectStockTrades(StockSymbols.GIN, null, null).size());
+			assertEquals(startDate.plusMinutes(20), journalStockService.selectStockTrades(StockSymbols.GIN, null, null).get(0).getTimestamp());
+			assertEquals(30, journalStockService.selectStockTrades(StockSymbols.JOE, null, null).size());
+			StockPriceLogSum reloadedLogSum = stockManager.selectStockPriceLogSum(StockSymbols.POP);
+			assertEquals(popLogSum.getPriceCount(), reloadedLogSum.getPriceCount());
+			assertEquals(popLogSum.getLogPriceSum(), reloadedLogSum.getLogPriceSum(), 1e-9);
+			assertFalse(Files.exists(temporaryFolder.getRoot().toPath().resolve("POP.journal.rewrite")));
+			
+			//after a reset, the journals are empty
+			journalStockService.resetStockTradeRecords();
+		}
+		try (JournalStockManagerImpl stockManager = new JournalStockManagerImpl(temporaryFolder.getRoot().toPath())) {
+			assertTrue(stockManager.selectStockTradeRecords().isEmpty());
+		}
+	}
+	
+	@Test
+	public void stockTradeIngestPipelineTest() throws Exception {
+		StockManagerImpl pipelineStockManager = new StockManagerImpl();
+		StockService pipelineStockService = new StockServiceImpl(pipelineStockManager);
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		
+		//the ring is full until the stages are started: producers are pushed back
+		List<Long> sequences = new ArrayList<>();
+		List<TradeRejectReason> rejectReasons = new ArrayList<>();
+		StockTradeIngestPipeline pipeline = new StockTradeIngestPipeline(pipelineStockManager, 64, WaitStrategy.PARK, (event, sequence, endOfBatch) -> {
+			sequences.add(sequence);
+			if (event.getRejectReason() != null) {
+				rejectReasons.add(event.getRejectReason());
+			}
+		});
+		for (int index = 0; index < 64; index++) {
+			assertTrue(pipeline.tryPublish(StockSymbols.POP, timestamp.plusSeconds(index), 10, new BigDecimal(2), TradeType.BUY));
+		}
+		assertFalse(pipeline.tryPublish(StockSymbols.POP, timestamp, 10, new BigDecimal(2), TradeType.BUY));
+		assertEquals(1, pipeline.getBackPressureCount());
+		assertEquals(0, pipeline.getRemainingCapacity());
+		
+		//the ring wraps many times, invalid trades are rejected but still notified
+		pipeline.start();
+		for (int index = 64; index < 1000; index++) {
+			pipeline.publish(StockSymbols.POP, timestamp.plusSeconds(index), index % 100 == 0 ? 0 : 10, new BigDecimal(2 + index % 3), TradeType.SELL);
+		}
+		//a valid trade the manager cannot record: its timestamp does not fit the epoch-nanos
+		pipeline.publish(StockSymbols.POP, LocalDateTime.of(2300, 1, 1, 0, 0), 10, new BigDecimal(2), TradeType.SELL);
+		pipeline.close();
+		assertEquals(1001, pipeline.getProcessedCount());
+		assertEquals(1001, sequences.size());
+		for (int index = 0; index < sequences.size(); index++) {
+			assertEquals(index, sequences.get(index).longValue());
+		}
+		assertEquals(10, pipeline.getRejectedCount());
+		assertEquals(10, rejectReasons.size());
+		assertEquals(TradeRejectReason.INVALID_QUANTITY, rejectReasons.get(0));
+		assertEquals(TradeRejectReason.RECORD_FAILED, rejectReasons.get(9));
+		assertEquals(991, pipelineStockService.selectStockTrades(StockSymbols.POP, null, null).size());
+		assertEquals(pipelineStockService.calculateStockPrice(StockSymbols.POP, pipelineStockService.selectStockTrades(StockSymbols.POP, null, null), null, null),
+				pipelineStockService.calculateStockPrice(StockSymbols.POP, null, null));
+		
+		try {
+			pipeline.tryPublish(StockSymbols.POP, timestamp, 10, new BigDecimal(2), TradeType.BUY);
+			fail("An exception should be thrown");
+		}
+		catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void stockServiceMonitorTest() throws Exception {
+		StockServiceMonitor monitor = stockService.getStockServiceMonitor();
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		
+		stockService.stockTradeRecord(new StockTrade(StockSymbols.TEA, timestamp, new Long(10), new BigDecimal(2), TradeType.BUY));
+		assertEquals(TradeRejectReason.INVALID_PRICE, stockService.tryStockTradeRecord(new StockTrade(StockSymbols.TEA, timestamp, new Long(10), null, TradeType.BUY)));
+		List<StockTrade> trades = new ArrayList<>();
+		trades.add(new StockTrade(StockSymbols.POP, timestamp, new Long(10), new BigDecimal(2), TradeType.SELL));
+		trades.add(new StockTrade(StockSymbols.POP, timestamp, new Long(10), new BigDecimal(2), null));
+		trades.add(null);
+		stockService.stockTradeRecords(trades);
+		stockService.calculateStockPrice(StockSymbols.TEA, null, null);
+		stockService.calculateGBCEAllShareIndex();
+		
+		assertEquals(2, monitor.getAcceptedTradeCount());
+		assertEquals(3, monitor.getRejectedTradeCount());
+		assertEquals(1, monitor.getRejectedTradeCount(TradeRejectReason.INVALID_TYPE));
+		assertEquals(Long.valueOf(1), monitor.getRejectedTradeCounts().get(TradeRejectReason.NULL_RECORD.name()));
+		assertEquals(1, monitor.getSymbolTradeCount(StockSymbols.POP));
+		assertEquals(2, monitor.selectLatencies(MonitoredOperation.STOCK_TRADE_RECORD).getCount());
+		assertEquals(1, monitor.selectLatencies(MonitoredOperation.STOCK_TRADE_RECORDS).getCount());
+		assertEquals(1, monitor.selectLatencies(MonitoredOperation.CALCULATE_STOCK_PRICE).getCount());
+		assertEquals(1, monitor.selectLatencies(MonitoredOperation.CALCULATE_GBCE_ALL_SHARE_INDEX).getCount());
+		String snapshot = monitor.getSnapshot();
+		assertTrue(snapshot.contains("accepted=2 rejected=3"));
+		assertTrue(snapshot.contains(MonitoredOperation.RECALCULATE_ALL.name()));
+		
+		//symbols registered after the monitor are counted
+		StockSymbols newSymbol = StockSymbols.register("MONITOR");
+		stockService.stockTradeRecord(new StockTrade(newSymbol, timestamp, new Long(10), new BigDecimal(2), TradeType.BUY));
+		assertEquals(1, monitor.getSymbolTradeCount(newSymbol));
+		assertEquals(Long.valueOf(1), monitor.getSymbolTradeCounts().get("MONITOR"));
+		
+		//a disabled monitor does not record
+		monitor.setEnabled(false);
+		stockService.stockTradeRecord(new StockTrade(StockSymbols.TEA, timestamp, new Long(10), new BigDecimal(2), TradeType.BUY));
+		assertEquals(3, monitor.getAcceptedTradeCount());
+		monitor.setEnabled(true);
+		
+		//counters and latencies are exposed through JMX
+		monitor.registerMBeans("serviceTest");
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(3L, mBeanServer.getAttribute(new ObjectName("it.ferroni.alessandro:type=StockServiceMonitor,name=\"serviceTest\""), "AcceptedTradeCount"));
+			assertEquals(3L, mBeanServer.getAttribute(new ObjectName("it.ferroni.alessandro:type=StockServiceMonitor,name=\"serviceTest\",operation=STOCK_TRADE_RECORD"), "Count"));
+		}
+		finally {
+			monitor.unregisterMBeans();
+		}
+		
+		//closing the service unregisters its MBeans
+		monitor.registerMBeans("serviceTest");
+		stockService.close();
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("it.ferroni.alessandro:type=StockServiceMonitor,name=\"serviceTest\"")));
+		
+		//many short lived threads share a fixed number of striped histograms, and no value is lost
+		LatencyRecorder latencyRecorder = new LatencyRecorder(4);
+		Thread[] threads = new Thread[64];
+		for (int index = 0; index < threads.length; index++) {
+			threads[index] = new Thread(() -> {
+				for (int value = 0; value < 1000; value++) {
+					latencyRecorder.record(value);
+				}
+			});
+			threads[index].start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertEquals(64000, latencyRecorder.selectHistogram().getCount());
+		assertEquals(999, latencyRecorder.selectHistogram().getMax());
+	}
+
+	@Test
+	public void stockTradeSnapshotTest() throws Exception {
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		List<StockTrade> trades = new ArrayList<>();
+		for (int index = 0; index < 1000; index++) {
+			trades.add(new StockTrade(index % 3 == 0 ? StockSymbols.TEA : StockSymbols.JOE, timestamp.plusNanos(index * 1_500_000L), new Long(1 + index % 50),
+					new BigDecimal("2.5").add(new BigDecimal(index % 7).movePointLeft(3)), index % 5 == 0 ? TradeType.SELL : TradeType.BUY));
+		}
+		//a late trade and a trade of a symbol that the importing process has not registered yet
+		trades.add(new StockTrade(StockSymbols.JOE, timestamp.minusDays(1), new Long(7), new BigDecimal("9.1234567"), TradeType.SELL));
+		trades.add(new StockTrade(StockSymbols.register("SNAPSHOT"), timestamp, new Long(3), new BigDecimal(4), TradeType.BUY));
+		assertTrue(stockService.stockTradeRecords(trades).isAllAccepted());
+		
+		Path file = temporaryFolder.newFile("trades.snapshot").toPath();
+		assertEquals(1002, stockService.exportStockTradeSnapshot(file));
+		//a few bytes per trade
+		assertTrue(Files.size(file) < 1002 * 8);
+		
+		StockService importedStockService = new StockServiceImpl(new StockManagerImpl(stockSymbol -> new ColumnarStockTradeStoreImpl(stockSymbol)));
+		assertEquals(1002, importedStockService.importStockTradeSnapshot(file));
+		TreeMap<StockSymbols, List<StockTrade>> expected = stockService.selectStockTradeRecords();
+		TreeMap<StockSymbols, List<StockTrade>> imported = importedStockService.selectStockTradeRecords();
+		assertEquals(expected.keySet(), imported.keySet());
+		for (StockSymbols stockSymbol: expected.keySet()) {
+			List<StockTrade> expectedTrades = expected.get(stockSymbol);
+			List<StockTrade> importedTrades = imported.get(stockSymbol);
+			assertEquals(expectedTrades.size(), importedTrades.size());
+			for (int index = 0; index < expectedTrades.size(); index++) {
+				assertEquals(expectedTrades.get(index).getTimestamp(), importedTrades.get(index).getTimestamp());
+				assertEquals(expectedTrades.get(index).getQuantity(), importedTrades.get(index).getQuantity());
+				assertEquals(0, expectedTrades.get(index).getPrice().compareTo(importedTrades.get(index).getPrice()));
+				assertEquals(expectedTrades.get(index).getType(), importedTrades.get(index).getType());
+			}
+		}
+		//the running sums are rebuilt
+		assertEquals(stockService.calculateGBCEAllShareIndex(), importedStockService.calculateGBCEAllShareIndex());
+		assertEquals(stockService.currentStockPrice(StockSymbols.JOE), importedStockService.currentStockPrice(StockSymbols.JOE));
+	}
+
+	@Test
+	public void stockTradeFeedDecoderTest() throws Exception {
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		ByteBuffer messages = ByteBuffer.allocate(11 * StockTradeFeedDecoder.MESSAGE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		for (int index = 0; index < 10; index++) {
+			StockTradeFeedDecoder.encode(messages, index % 2 == 0 ? StockSymbols.GIN : StockSymbols.ALE, StockUtils.toEpochNanos(timestamp.plusSeconds(index)),
+					10 + index, StockUtils.toPriceTicks(new BigDecimal("1.25").add(new BigDecimal(index))), index % 3 == 0 ? TradeType.SELL : TradeType.BUY);
+		}
+		//a message with an unknown symbol id is skipped
+		messages.putInt(StockSymbols.count()).putInt(0).putLong(StockUtils.toEpochNanos(timestamp)).putLong(1).putLong(1);
+		
+		//offline replay of a file
+		Path file = temporaryFolder.newFile("trades.feed").toPath();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			messages.flip();
+			channel.write(messages);
+		}
+		StockManagerImpl stockManager = new StockManagerImpl(stockSymbol -> new ColumnarStockTradeStoreImpl(stockSymbol));
+		StockTradeFeedDecoder decoder = new StockTradeFeedDecoder(stockManager);
+		assertEquals(11, decoder.replay(file));
+		assertEquals(1, decoder.getRejectedCount());
+		List<StockTrade> trades = stockManager.selectStockTrades(StockSymbols.ALE, null, null);
+		assertEquals(5, trades.size());
+		assertEquals(StockSymbols.ALE, trades.get(0).getStockSymbol());
+		assertEquals(timestamp.plusSeconds(1), trades.get(0).getTimestamp());
+		assertEquals(Long.valueOf(11), trades.get(0).getQuantity());
+		assertEquals(0, new BigDecimal("2.25").compareTo(trades.get(0).getPrice()));
+		assertEquals(TradeType.BUY, trades.get(0).getType());
+		assertEquals(TradeType.SELL, trades.get(1).getType());
+		
+		//a stream read a few bytes at a time, with messages split between reads, gives the same trades and running sums
+		StockManagerImpl streamStockManager = new StockManagerImpl(stockSymbol -> new ColumnarStockTradeStoreImpl(stockSymbol));
+		ReadableByteChannel stream = Channels.newChannel(new ByteArrayInputStream(messages.array()));
+		ReadableByteChannel fragmentedStream = new ReadableByteChannel() {
+			@Override
+			public int read(ByteBuffer buffer) throws IOException {
+				ByteBuffer fragment = buffer.duplicate();
+				fragment.limit(Math.min(buffer.limit(), buffer.position() + 7));
+				int read = stream.read(fragment);
+				if (read > 0) {
+					buffer.position(buffer.position() + read);
+				}
+				return read;
+			}
+			
+			@Override
+			public boolean isOpen() {
+				return stream.isOpen();
+			}
+			
+			@Override
+			public void close() throws IOException {
+				stream.close();
+			}
+		};
+		assertEquals(11, new StockTradeFeedDecoder(streamStockManager).decode(fragmentedStream));
+		StockService stockService = new StockServiceImpl(stockManager);
+		StockService streamStockService = new StockServiceImpl(streamStockManager);
+		assertEquals(stockService.currentStockPrice(StockSymbols.GIN), streamStockService.currentStockPrice(StockSymbols.GIN));
+		assertEquals(stockService.calculateGBCEAllShareIndex(), streamStockService.calculateGBCEAllShareIndex());
+		
+		//a stream ending in the middle of a message
+		try {
+			new StockTradeFeedDecoder(streamStockManager).decode(Channels.newChannel(new ByteArrayInputStream(messages.array(), 0, 40)));
+			fail("An exception should be thrown here");
+		}
+		catch (IOException e) {
+			assertEquals("Trade feed ended in the middle of a message", e.getMessage());
+		}
+	}
+
+	@Test
+	public void stockServiceServerTest() throws Exception {
+		stockService.resetStockTradeRecords();
+		try (StockServiceServer server = new StockServiceServer(stockService, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				StockServiceServer.newRequestExecutor(4))) {
+			server.start();
+			String baseUrl = "http://localhost:" + server.getAddress().getPort();
+			
+			assertEquals("422", request("GET", baseUrl + "/index")[0]);
+			String[] response = request("POST", baseUrl + "/trade?symbol=TEA&quantity=10&price=2&type=BUY&timestamp=2016-10-31T10:00:00");
+			assertEquals("200", response[0]);
+			assertEquals("{\"symbol\":\"TEA\",\"recorded\":true}", response[1]);
+			assertEquals("200", request("POST", baseUrl + "/trade?symbol=TEA&quantity=30&price=4&type=SELL&timestamp=2016-10-31T10:00:30")[0]);
+			assertEquals("422", request("POST", baseUrl + "/trade?symbol=TEA&quantity=0&price=4&type=SELL")[0]);
+			
+			//current price and price of a range
+			assertEquals("{\"symbol\":\"TEA\",\"price\":3.5000000}", request("GET", baseUrl + "/price?symbol=TEA")[1]);
+			assertEquals("{\"symbol\":\"TEA\",\"price\":2.0000000}",
+					request("GET", baseUrl + "/price?symbol=TEA&start=2016-10-31T09:59:00&end=2016-10-31T10:00:10")[1]);
+			assertEquals(stockService.calculateGBCEAllShareIndex().toPlainString(), request("GET", baseUrl + "/index")[1].replaceAll("[^0-9.]", ""));
+			assertTrue(request("GET", baseUrl + "/orderFlow?symbol=TEA")[1].contains("\"buyVolume\":10,\"sellVolume\":30"));
+			assertTrue(request("GET", baseUrl + "/metrics?symbol=POP")[1].startsWith("{\"symbol\":\"POP\""));
+			
+			//invalid requests
+			assertEquals("400", request("GET", baseUrl + "/price?symbol=UNKNOWN")[0]);
+			assertEquals("400", request("GET", baseUrl + "/price")[0]);
+			assertEquals("400", request("POST", baseUrl + "/trade?symbol=TEA&quantity=ten&price=4&type=SELL")[0]);
+			assertEquals("405", request("GET", baseUrl + "/trade?symbol=TEA")[0]);
+			
+			//concurrent queries
+			ExecutorService clients = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<String[]>> responses = new ArrayList<>();
+				for (int index = 0; index < 200; index++) {
+					responses.add(clients.submit(() -> request("GET", baseUrl + "/price?symbol=TEA")));
+				}
+				for (Future<String[]> futureResponse: responses) {
+					assertEquals("200", futureResponse.get(10, TimeUnit.SECONDS)[0]);
+				}
+			}
+			finally {
+				clients.shutdown();
+			}
+		}
+	}
+
 	@Test
 	public void calculateGBCEAllShareIndexTest() {
 		stockService.resetStockTradeRecords();
@@ -328,8 +1220,339 @@ public class ServiceTest {
 		} catch (Exception e) {
 			fail("An exception should not be thrown here");
 		}
+		
+		//the product of these prices does not fit in a double, the index must still be valid
+		stockService.resetStockTradeRecords();
+		LocalDateTime timestamp = LocalDateTime.now();
+		try {
+			for (int tradenumber = 0; tradenumber < 10000; tradenumber++) {
+				stockService.stockTradeRecord(new StockTrade(StockSymbols.TEA, timestamp, new Long(1), new BigDecimal(1000), TradeType.BUY));
+				stockService.stockTradeRecord(new StockTrade(StockSymbols.POP, timestamp, new Long(1), new BigDecimal(10), TradeType.SELL));
+			}
+			BigDecimal index = stockService.calculateGBCEAllShareIndex();
+			assertEquals(new BigDecimal(100.0).setScale(2, RoundingMode.HALF_EVEN), index);
+		} catch (Exception e) {
+			fail("An exception should not be thrown here");
+		}
+	}
+
+	@Test
+	public void marketDataSimulatorTest() throws Exception {
+		stockService.resetStockTradeRecords();
+		
+		MarketDataSimulator simulator = new MarketDataSimulator(stockService, StockSymbols.values().length, 2, () -> ArrivalProcess.poisson(10000),
+				() -> new RandomWalkPriceProcess(StockUtils.toPriceTicks(BigDecimal.TEN), 1000), TimeUnit.MILLISECONDS.toNanos(50));
+		SimulationReport report = simulator.run(TimeUnit.MILLISECONDS.toNanos(200));
+		
+		//every generated trade is either recorded, dropped or rejected, and the service has all the recorded ones
+		assertTrue(report.getGeneratedCount() > 0);
+		assertEquals(0, report.getRejectedCount());
+		assertEquals(report.getGeneratedCount(), report.getRecordedCount() + report.getDroppedCount() + report.getRejectedCount());
+		long storedCount = 0;
+		for (StockSymbols stockSymbol: StockSymbols.values()) {
+			storedCount += stockService.selectStockTrades(stockSymbol, null, null).size();
+		}
+		assertEquals(report.getRecordedCount(), storedCount);
+		assertEquals(report.getRecordedCount(), report.getLatencies().getCount());
+	}
+
+	@Test
+	public void stockSymbolRegistryTest() throws Exception {
+		stockService.resetStockTradeRecords();
+		
+		//symbols are interned and get dense ids after the predefined ones
+		StockSymbols vod = StockSymbols.register("VOD");
+		assertSame(vod, StockSymbols.register("VOD"));
+		assertSame(vod, StockSymbols.valueOf("VOD"));
+		assertSame(vod, StockSymbols.fromId(vod.getId()));
+		assertEquals(4, StockSymbols.JOE.getId());
+		assertTrue(vod.compareTo(StockSymbols.JOE) > 0);
+		try {
+			StockSymbols.valueOf("NOT_REGISTERED");
+			fail("An exception should be thrown here");
+		} catch (IllegalArgumentException e) {
+		}
+		
+		//a new stock can be listed and traded like the predefined ones
+		Stock vodStock = new Stock(vod, StockType.COMMON, new BigDecimal(5.0), null, new Long(100));
+		stockService.saveStock(vodStock, new BigDecimal(2.5));
+		assertTrue(stockService.selectStockTable().contains(vodStock));
+		assertEquals(new BigDecimal(2.5), stockService.selectTickerPrices().get(vod));
+		assertEquals(new BigDecimal(2.0).setScale(7, RoundingMode.HALF_EVEN), stockService.calculateDividendYield(vodStock, stockService.selectTickerPrices().get(vod)));
+		
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		List<StockTrade> trades = new ArrayList<>();
+		for (int index = 0; index < 2000; index++) {
+			StockSymbols stockSymbol = StockSymbols.register(String.format("T%04d", index));
+			trades.add(new StockTrade(stockSymbol, timestamp, new Long(1), new BigDecimal(4), TradeType.BUY));
+		}
+		trades.add(new StockTrade(vod, timestamp, new Long(1), new BigDecimal(4), TradeType.SELL));
+		assertTrue(stockService.stockTradeRecords(trades).isAllAccepted());
+		
+		assertEquals(2001, stockService.selectStockTradeRecords().size());
+		assertEquals(1, stockService.selectStockTrades(StockSymbols.valueOf("T1234"), null, null).size());
+		assertEquals(new BigDecimal(4).setScale(7, RoundingMode.HALF_EVEN), stockService.calculateStockPrice(vod, timestamp, timestamp.plusMinutes(1)));
+		assertEquals(new BigDecimal(4.0).setScale(2, RoundingMode.HALF_EVEN), stockService.calculateGBCEAllShareIndex());
+	}
+
+	@Test
+	public void stockMetricsCacheTest() throws Exception {
+		StockMetricsSnapshot first = stockService.refreshStockMetrics();
+		assertSame(first, stockService.selectStockMetrics());
+		assertTrue(first.getVersion() > 0);
+		BigDecimal ginTickerPrice = stockService.selectTickerPrices().get(StockSymbols.GIN);
+		assertEquals(ginTickerPrice, first.get(StockSymbols.GIN).getTickerPrice());
+		assertEquals(stockService.selectDividendYield().get(StockSymbols.GIN), first.get(StockSymbols.GIN).getDividendYield());
+		assertNull(first.get(StockSymbols.TEA).getPERating());
+		assertNotNull(first.get(StockSymbols.TEA).getPERatingError());
+		
+		//nothing changed: same snapshot
+		assertSame(first, stockService.refreshStockMetrics());
+		
+		//a new ticker price recalculates only its stock
+		Stock gin = null;
+		for (Stock stock: stockService.selectStockTable()) {
+			if (stock.getStockSymbol() == StockSymbols.GIN) {
+				gin = stock;
+			}
+		}
+		stockService.saveStock(gin, ginTickerPrice.add(BigDecimal.ONE));
+		StockMetricsSnapshot second = stockService.refreshStockMetrics();
+		assertEquals(first.getVersion() + 1, second.getVersion());
+		assertSame(first.get(StockSymbols.POP), second.get(StockSymbols.POP));
+		assertNotSame(first.get(StockSymbols.GIN), second.get(StockSymbols.GIN));
+		assertEquals(stockService.calculateDividendYield(gin, ginTickerPrice.add(BigDecimal.ONE)), second.get(StockSymbols.GIN).getDividendYield());
+		assertEquals(second.get(StockSymbols.GIN).getDividendYield(), stockService.selectDividendYield().get(StockSymbols.GIN));
+		
+		//so does a change of the dividend data of a stock, once the stock is saved
+		gin.setFixedDividend(new BigDecimal(0.05));
+		assertSame(second, stockService.refreshStockMetrics());
+		stockService.saveStock(gin, null);
+		StockMetricsSnapshot third = stockService.refreshStockMetrics();
+		assertEquals(second.getVersion() + 1, third.getVersion());
+		assertSame(second.get(StockSymbols.JOE), third.get(StockSymbols.JOE));
+		assertEquals(stockService.calculateDividendYield(gin, ginTickerPrice.add(BigDecimal.ONE)), third.get(StockSymbols.GIN).getDividendYield());
+	}
+
+	@Test
+	public void updateTickerPriceTest() throws Exception {
+		StockMetricsSnapshot first = stockService.refreshStockMetrics();
+		List<StockTickerPrice> changes = new ArrayList<>();
+		StockTickerPriceListener listener = (previous, current) -> changes.add(current);
+		stockService.addTickerPriceListener(listener);
+		
+		//the same price is not a change
+		StockTickerPrice alePrice = stockService.selectTickerPrice(StockSymbols.ALE);
+		assertFalse(stockService.updateTickerPrice(new StockTickerPrice(StockSymbols.ALE, alePrice.getPrice())));
+		assertTrue(changes.isEmpty());
+		assertSame(first, stockService.refreshStockMetrics());
+		
+		//a new price is published and notified
+		StockTickerPrice newAlePrice = new StockTickerPrice(StockSymbols.ALE, alePrice.getPrice().add(BigDecimal.ONE));
+		assertTrue(stockService.updateTickerPrice(newAlePrice));
+		assertEquals(1, changes.size());
+		assertSame(newAlePrice, changes.get(0));
+		assertSame(newAlePrice, stockService.selectTickerPrice(StockSymbols.ALE));
+		assertEquals(newAlePrice.getPrice(), stockService.selectTickerPrices().get(StockSymbols.ALE));
+		
+		//only the changed stock is recalculated
+		StockMetricsSnapshot second = stockService.refreshStockMetrics();
+		assertEquals(first.getVersion() + 1, second.getVersion());
+		assertSame(first.get(StockSymbols.TEA), second.get(StockSymbols.TEA));
+		assertEquals(newAlePrice.getPrice(), second.get(StockSymbols.ALE).getTickerPrice());
+		
+		//invalid prices are rejected
+		try {
+			stockService.updateTickerPrice(new StockTickerPrice(StockSymbols.ALE, BigDecimal.ZERO));
+			fail("An exception should be thrown here");
+		} catch (Exception e) {
+		}
+		
+		stockService.removeTickerPriceListener(listener);
+		assertTrue(stockService.updateTickerPrice(alePrice));
+		assertEquals(1, changes.size());
+	}
+
+	@Test
+	public void currentStockPriceTest() throws Exception {
+		StockService windowStockService = new StockServiceImpl(new StockManagerImpl(stockSymbol -> new ColumnarStockTradeStoreImpl(stockSymbol), 60));
+		assertEquals(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN), windowStockService.currentStockPrice(StockSymbols.POP));
+		
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate, new Long(10), new BigDecimal(2), TradeType.BUY));
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(30), new Long(20), new BigDecimal(4), TradeType.SELL));
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(59), new Long(10), new BigDecimal(6), TradeType.BUY));
+		assertEquals(new BigDecimal(4).setScale(7, RoundingMode.HALF_EVEN), windowStockService.currentStockPrice(StockSymbols.POP));
+		
+		//the window moves with the trades: the first one leaves the window
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(61), new Long(10), new BigDecimal(8), TradeType.SELL));
+		BigDecimal currentPrice = windowStockService.currentStockPrice(StockSymbols.POP);
+		assertEquals(new BigDecimal(5.5).setScale(7, RoundingMode.HALF_EVEN), currentPrice);
+		assertEquals(windowStockService.calculateStockPrice(StockSymbols.POP, startDate.plusSeconds(2), startDate.plusSeconds(62)), currentPrice);
+		
+		//late trades are added if they are still in the window
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(1), new Long(100), new BigDecimal(100), TradeType.BUY));
+		assertEquals(currentPrice, windowStockService.currentStockPrice(StockSymbols.POP));
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(40), new Long(40), new BigDecimal(1), TradeType.BUY));
+		assertEquals(new BigDecimal(3.25).setScale(7, RoundingMode.HALF_EVEN), windowStockService.currentStockPrice(StockSymbols.POP));
+		
+		//a trade after a long pause empties the window
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusHours(1), new Long(1), new BigDecimal(7), TradeType.BUY));
+		assertEquals(new BigDecimal(7).setScale(7, RoundingMode.HALF_EVEN), windowStockService.currentStockPrice(StockSymbols.POP));
+		assertEquals(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN), windowStockService.currentStockPrice(StockSymbols.TEA));
+		
+		windowStockService.resetStockTradeRecords();
+		assertEquals(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN), windowStockService.currentStockPrice(StockSymbols.POP));
+	}
+
+	@Test
+	public void currentStockOrderFlowTest() throws Exception {
+		StockService windowStockService = new StockServiceImpl(new StockManagerImpl(stockSymbol -> new ColumnarStockTradeStoreImpl(stockSymbol), 60));
+		StockOrderFlow orderFlow = windowStockService.currentStockOrderFlow(StockSymbols.POP);
+		assertEquals(0, orderFlow.getBuyVolume() + orderFlow.getSellVolume());
+		assertEquals(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN), orderFlow.getVolumeImbalance());
+		
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate, new Long(10), new BigDecimal(2), TradeType.BUY));
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(30), new Long(20), new BigDecimal(4), TradeType.SELL));
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(59), new Long(10), new BigDecimal(6), TradeType.BUY));
+		orderFlow = windowStockService.currentStockOrderFlow(StockSymbols.POP);
+		assertEquals(20, orderFlow.getBuyVolume());
+		assertEquals(20, orderFlow.getSellVolume());
+		assertEquals(0, orderFlow.getBuyNotional().compareTo(new BigDecimal(80)));
+		assertEquals(0, orderFlow.getSellNotional().compareTo(new BigDecimal(80)));
+		assertEquals(new BigDecimal(0.0).setScale(7, RoundingMode.HALF_EVEN), orderFlow.getVolumeImbalance());
+		
+		//the first buy leaves the window
+		windowStockService.stockTradeRecord(new StockTrade(StockSymbols.POP, startDate.plusSeconds(61), new Long(10), new BigDecimal(8), TradeType.SELL));
+		orderFlow = windowStockService.currentStockOrderFlow(StockSymbols.POP);
+		assertEquals(10, orderFlow.getBuyVolume());
+		assertEquals(30, orderFlow.getSellVolume());
+		assertEquals(new BigDecimal(-0.5).setScale(7, RoundingMode.HALF_EVEN), orderFlow.getVolumeImbalance());
+		assertEquals(new BigDecimal("-0.4545455"), orderFlow.getNotionalImbalance());
+		
+		windowStockService.resetStockTradeRecords();
+		assertEquals(0, windowStockService.currentStockOrderFlow(StockSymbols.POP).getSellVolume());
+	}
+
+	@Test
+	public void recalculateAllTest() throws Exception {
+		StockService parallelStockService = new StockServiceImpl(new StockManagerImpl(), 4);
+		
+		//enough symbols to split the recalculation in several tasks
+		LocalDateTime timestamp = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		List<StockTrade> trades = new ArrayList<>();
+		for (int index = 0; index < 500; index++) {
+			StockSymbols stockSymbol = StockSymbols.register(String.format("R%04d", index));
+			if (index % 2 == 0) {
+				parallelStockService.saveStock(new Stock(stockSymbol, StockType.COMMON, new BigDecimal(index % 7), null, new Long(100)), new BigDecimal(1 + index % 13));
+			}
+			for (int tradenumber = 0; tradenumber < index % 5; tradenumber++) {
+				trades.add(new StockTrade(stockSymbol, timestamp.plusSeconds(tradenumber), new Long(1 + tradenumber), new BigDecimal(1 + (index + tradenumber) % 17), TradeType.BUY));
+			}
+		}
+		assertTrue(parallelStockService.stockTradeRecords(trades).isAllAccepted());
+		
+		//the parallel results are the same of the single calculations
+		StockRecalculation recalculation = parallelStockService.recalculateAll();
+		assertEquals(StockSymbols.count(), recalculation.getSymbolCount());
+		assertEquals(parallelStockService.calculateGBCEAllShareIndex(), recalculation.getGBCEAllShareIndex());
+		for (StockSymbols stockSymbol: StockSymbols.values()) {
+			assertEquals(parallelStockService.currentStockPrice(stockSymbol), recalculation.getStockPrice(stockSymbol));
+		}
+		TreeMap<StockSymbols, BigDecimal> tickerPrices = parallelStockService.selectTickerPrices();
+		for (Stock stock: parallelStockService.selectStockTable()) {
+			StockMetrics metrics = recalculation.getStockMetrics(stock.getStockSymbol());
+			try {
+				assertEquals(parallelStockService.calculateDividendYield(stock, tickerPrices.get(stock.getStockSymbol())), metrics.getDividendYield());
+			} catch (Exception e) {
+				assertNull(metrics.getDividendYield());
+				assertEquals(e.getMessage(), metrics.getDividendYieldError());
+			}
+			if (metrics.getDividendYield() != null && metrics.getDividendYield().signum() != 0) {
+				assertEquals(parallelStockService.calculatePERating(stock, tickerPrices.get(stock.getStockSymbol()), metrics.getDividendYield()), metrics.getPERating());
+			}
+			else {
+				assertNull(metrics.getPERating());
+			}
+		}
+		assertNull(recalculation.getStockMetrics(StockSymbols.valueOf("R0001")));
+		parallelStockService.close();
 	}
 
+	@Test
+	public void stockBarsTest() throws Exception {
+		StockService barStockService = new StockServiceImpl();
+		List<StockBar> completedBars = new ArrayList<>();
+		barStockService.addStockBarListener(completedBars::add);
+		assertNull(barStockService.selectOpenStockBar(StockSymbols.ALE, BarResolution.ONE_MINUTE));
+		
+		//three trades in the first minute, one in the second
+		LocalDateTime startDate = LocalDateTime.of(2016, 10, 31, 10, 0, 0);
+		barStockService.stockTradeRecord(new StockTrade(StockSymbols.ALE, startDate.plusSeconds(5), new Long(10), new BigDecimal(5), TradeType.BUY));
+		barStockService.stockTradeRecord(new StockTrade(StockSymbols.ALE, startDate.plusSeconds(20), new Long(20), new BigDecimal(8), TradeType.SELL));
+		barStockService.stockTradeRecord(new StockTrade(StockSymbols.ALE, startDate.plusSeconds(40), new Long(10), new BigDecimal(3), TradeType.BUY));
+		StockBar openBar = barStockService.selectOpenStockBar(StockSymbols.ALE, BarResolution.ONE_MINUTE);
+		assertEquals(3, openBar.getTradeCount());
+		assertTrue(barStockService.selectStockBars(StockSymbols.ALE, BarResolution.ONE_MINUTE).isEmpty());
+		//each trade completed the one second bar of the previous one
+		assertEquals(2, completedBars.size());
+		
+		barStockService.stockTradeRecord(new StockTrade(StockSymbols.ALE, startDate.plusSeconds(70), new Long(5), new BigDecimal(6), TradeType.SELL));
+		List<StockBar> minuteBars = barStockService.selectStockBars(StockSymbols.ALE, BarResolution.ONE_MINUTE);
+		assertEquals(1, minuteBars.size());
+		StockBar bar = minuteBars.get(0);
+		assertEquals(startDate, bar.getStartTime());
+		assertEquals(startDate.plusMinutes(1), bar.getEndTime());
+		assertEquals(new BigDecimal(5), bar.getOpen());
+		assertEquals(new BigDecimal(8), bar.getHigh());
+		assertEquals(new BigDecimal(3), bar.getLow());
+		assertEquals(new BigDecimal(3), bar.getClose());
+		assertEquals(40, bar.getVolume());
+		assertEquals(barStockService.calculateStockPrice(StockSymbols.ALE, startDate, startDate.plusMinutes(1)), bar.getVolumeWeightedPrice());
+		assertTrue(completedBars.contains(bar));
+		assertTrue(barStockService.selectStockBars(StockSymbols.ALE, BarResolution.FIVE_MINUTES).isEmpty());
+		assertEquals(45, barStockService.selectOpenStockBar(StockSymbols.ALE, BarResolution.FIVE_MINUTES).getVolume());
+		
+		//late trades of completed bars are not added
+		barStockService.stockTradeRecord(new StockTrade(StockSymbols.ALE, startDate.plusSeconds(30), new Long(5), new BigDecimal(100), TradeType.SELL));
+		assertEquals(bar, barStockService.selectStockBars(StockSymbols.ALE, BarResolution.ONE_MINUTE).get(0));
+		
+		//the history is bounded
+		List<StockTrade> trades = new ArrayList<>();
+		for (int second = 0; second < ConfigurationConstants.STOCK_BAR_HISTORY_SIZE + 100; second++) {
+			trades.add(new StockTrade(StockSymbols.TEA, startDate.plusSeconds(second), new Long(1), new BigDecimal(1 + second % 10), TradeType.BUY));
+		}
+		barStockService.stockTradeRecords(trades);
+		List<StockBar> secondBars = barStockService.selectStockBars(StockSymbols.TEA, BarResolution.ONE_SECOND);
+		assertEquals(ConfigurationConstants.STOCK_BAR_HISTORY_SIZE, secondBars.size());
+		assertEquals(startDate.plusSeconds(99), secondBars.get(0).getStartTime());
+		assertEquals(startDate.plusSeconds(ConfigurationConstants.STOCK_BAR_HISTORY_SIZE + 98), secondBars.get(secondBars.size() - 1).getStartTime());
+		
+		barStockService.resetStockTradeRecords();
+		assertTrue(barStockService.selectStockBars(StockSymbols.TEA, BarResolution.ONE_SECOND).isEmpty());
+		assertNull(barStockService.selectOpenStockBar(StockSymbols.TEA, BarResolution.ONE_SECOND));
+	}
 
+	/**
+	 * Sends an HTTP request
+	 * @param method
+	 * @param url
+	 * @return the response status and body
+	 * @throws Exception
+	 */
+	private static String[] request(String method, String url) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		int status = connection.getResponseCode();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			byte[] buffer = new byte[256];
+			for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+				body.write(buffer, 0, read);
+			}
+		}
+		return new String[] { String.valueOf(status), new String(body.toByteArray(), StandardCharsets.UTF_8) };
+	}
 
 }